@@ -63,6 +63,12 @@ public class BasicParser {
     }
 
     public ASTree parse(Lexer lexer) throws ParseException {
-        return program.parse(lexer);
+        if (!Monitor.ENABLED)
+            return program.parse(lexer);
+
+        long start = System.nanoTime();
+        ASTree t = program.parse(lexer);
+        Monitor.current().parsed(System.nanoTime() - start);
+        return t;
     }
 }
@@ -3,7 +3,10 @@ package stone;
 import static stone.Parser.rule;
 import stone.ast.ParameterList;
 import stone.ast.Arguments;
+import stone.ast.ArrayRef;
 import stone.ast.DefStmnt;
+import stone.ast.DictEntry;
+import stone.ast.DictLiteral;
 
 /*
  * BNF:
@@ -13,9 +16,13 @@ import stone.ast.DefStmnt;
  * param_list:  "(" [ params ] ")"
  * def:         "def" IDENTIFIER param_list block
  * args:        expr { "," expr }
- * postfix:     "(" [ args ] ")"
- * primary:     ("(" expr ")" | NUMBER | IDENTIFIER | STRING) { postfix }
+ * postfix:     "(" [ args ] ")" | "[" expr "]"
+ * entry:       expr ":" expr
+ * entries:     entry { "," entry }
+ * primary:     ("{" [ entries ] "}" | "(" expr ")" | NUMBER | IDENTIFIER
+ *               | STRING) { postfix }
  * simple:      expr [ args ]
+ * statement:   def | "if" ... | "while" ... | simple
  * program:     [ def | statement ] (";" | EOL)
  */
 public class FuncParser extends BasicParser {
@@ -27,14 +34,21 @@ public class FuncParser extends BasicParser {
                      .sep("def").identifier(reserved).ast(paramList).ast(block);
     Parser args = rule(Arguments.class)
                       .ast(expr).repeat(rule().sep(",").ast(expr));
-    Parser postfix = rule().sep("(").maybe(args).sep(")");
+    Parser postfix = rule().or(rule().sep("(").maybe(args).sep(")"),
+                               rule(ArrayRef.class).sep("[").ast(expr).sep("]"));
+    Parser entry = rule(DictEntry.class).ast(expr).sep(":").ast(expr);
+    Parser entries = rule(DictLiteral.class)
+                         .ast(entry).repeat(rule().sep(",").ast(entry));
 
     public FuncParser() {
         reserved.add(")");
+        reserved.add("]");
 
-        /* 重写 BasicParser 中的 primary simple 和 program 语法规则 */
+        /* 重写 BasicParser 中的 primary simple statement 和 program 语法规则 */
+        primary.insertChoice(rule().sep("{").maybe(entries).sep("}"));
         primary.repeat(postfix);
         simple.option(args);
+        statement0.insertChoice(def);
         program.insertChoice(def);
     }
 }
@@ -82,6 +82,8 @@ public class Lexer {
 
     /* 词法扫描器, 程序读取引擎 ^_^ */
     protected void readLine() throws ParseException {
+        long start = Monitor.ENABLED ? System.nanoTime() : 0;
+        int before = queue.size();
         String line;
         try {
             line = reader.readLine();
@@ -124,6 +126,9 @@ public class Lexer {
 
         /* 正则匹配完一行后, 最后一个字符一定是 EOL. regexPat 并不匹配 \n. */
         queue.add(new IdToken(lineNo, Token.EOL));
+        if (Monitor.ENABLED)
+            Monitor.current().lexed(queue.size() - before - 1,
+                                    System.nanoTime() - start);
     }
 
     /* 词法扫描器的核心方法. 获得 token 加入 queue 啦 */
@@ -161,6 +166,19 @@ public class Lexer {
         return sb.toString();
     }
 
+    /* 不经过词法分析直接构造 Token (例如从 heap image 中恢复 AST 时) */
+    public static Token number(int line, int value) {
+        return new NumToken(line, value);
+    }
+
+    public static Token identifier(int line, String id) {
+        return new IdToken(line, id);
+    }
+
+    public static Token string(int line, String str) {
+        return new StrToken(line, str);
+    }
+
     protected static class NumToken extends Token {
         private int value;
 
@@ -176,9 +194,10 @@ public class Lexer {
     protected static class IdToken extends Token {
         private String text;
 
+        /* 标识符统一 intern, 环境可以直接比较引用 (见 chap7.SymbolEnv) */
         protected IdToken(int line, String id) {
             super(line);
-            text = id;
+            text = id.intern();
         }
         public boolean isIdentifier() { return true; }
         public String getText() { return text; }
@@ -0,0 +1,31 @@
+package stone;
+
+/*
+ * 解释器内部事件 (词法分析, 解析, 环境, StoneException) 的钩子.
+ *
+ * 钩子都写成
+ *     if (Monitor.ENABLED) Monitor.current().xxx(...);
+ * ENABLED 是 static final, 没有指定 -Dstone.metrics=true 时 JIT 会把钩子整个
+ * 删掉. 默认的 Monitor 什么都不做, metrics.Metrics 装入时 install 自己的
+ * 子类, 所以这里不依赖 metrics 包.
+ */
+public class Monitor {
+    public static final boolean ENABLED = Boolean.getBoolean("stone.metrics");
+
+    private static volatile Monitor current = new Monitor();
+
+    public static Monitor current() { return current; }
+
+    public static void install(Monitor m) {
+        current = m == null ? new Monitor() : m;
+    }
+
+    /* 读入一行, 得到 n 个 token */
+    public void lexed(int n, long nanos) {}
+    public void parsed(long nanos) {}
+    /* 创建一个环境 */
+    public void environment() {}
+    /* 查找变量时访问一层环境 */
+    public void level() {}
+    public void error(String message) {}
+}
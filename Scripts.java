@@ -0,0 +1,74 @@
+package stone;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import stone.ast.ASTree;
+import stone.ast.NullStmnt;
+import chap6.Environment;
+import chap6.BasicEvaluator.ASTreeEx;
+
+/*
+ * 各个命令行工具共用的: 读入脚本文件, 源代码的 hash, 解析和执行.
+ */
+public class Scripts {
+    public static String read(String fileName) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(fileName));
+        try {
+            StringBuilder sb = new StringBuilder();
+            char[] buf = new char[8192];
+            int n;
+            while ((n = reader.read(buf)) >= 0)
+                sb.append(buf, 0, n);
+            return sb.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /* 64 bit FNV-1a. 用于判断快照或编译结果是否与源代码一致 */
+    public static long hash(String... texts) {
+        long h = 0xcbf29ce484222325L;
+        for (String s: texts) {
+            for (int i = 0; i < s.length(); i++) {
+                h ^= s.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            h ^= 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /* 顶层的语句, 不含空语句 */
+    public static List<ASTree> parse(String source) throws ParseException {
+        FuncParser parser = new FuncParser();
+        Lexer lexer = new Lexer(new StringReader(source));
+        ArrayList<ASTree> program = new ArrayList<ASTree>();
+        while (lexer.peek(0) != Token.EOF) {
+            ASTree t = parser.parse(lexer);
+            if (!(t instanceof NullStmnt))
+                program.add(t);
+        }
+        return program;
+    }
+
+    /* 逐个语句解析并执行. echo 时输出每个语句的 "=> 结果" */
+    public static void run(String source, Environment env, boolean echo)
+        throws ParseException
+    {
+        FuncParser parser = new FuncParser();
+        Lexer lexer = new Lexer(new StringReader(source));
+        while (lexer.peek(0) != Token.EOF) {
+            ASTree t = parser.parse(lexer);
+            if (!(t instanceof NullStmnt)) {
+                Object r = ((ASTreeEx)t).eval(env);
+                if (echo)
+                    System.out.println("=> " + r);
+            }
+        }
+    }
+}
@@ -3,9 +3,15 @@ package stone;
 import stone.ast.ASTree;
 
 public class StoneException extends RuntimeException {
-    public StoneException(String m) { super(m); }
+    public StoneException(String m) {
+        super(m);
+        if (Monitor.ENABLED)
+            Monitor.current().error(m);
+    }
 
     public StoneException(String m, ASTree t) {
-        super(m + " " + t.location());
+        super(t == null ? m : m + " " + t.location());
+        if (Monitor.ENABLED)
+            Monitor.current().error(m);
     }
 }
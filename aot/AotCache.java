@@ -0,0 +1,83 @@
+package aot;
+
+import java.io.*;
+import stone.ParseException;
+import stone.Scripts;
+
+/*
+ * AOT 编译结果的缓存. 文件名由源代码和 COMPILER_VERSION 的 hash 决定,
+ * 源代码或编译器改变后自然不会再命中旧的 class 文件.
+ */
+public class AotCache {
+    public static final String COMPILER_VERSION = "stone-aot-2";
+    public static final String PACKAGE = "aot.gen";
+
+    protected File dir;
+
+    public AotCache(File dir) { this.dir = dir; }
+
+    public static String key(String source) {
+        long h = Scripts.hash(COMPILER_VERSION, source);
+        String s = Long.toHexString(h);
+        while (s.length() < 16)
+            s = "0" + s;
+
+        return "S" + s;
+    }
+
+    public File file(String key) { return new File(dir, key + ".class"); }
+
+    /* 编译 source 并写入缓存, 返回 class 文件 */
+    public File compile(String source) throws ParseException, IOException {
+        String key = key(source);
+        byte[] b = AotCompiler.compile(PACKAGE + "." + key, source);
+        dir.mkdirs();
+        File f = file(key);
+        File tmp = new File(dir, key + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(b);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(f)) {
+            f.delete();
+            if (!tmp.renameTo(f))
+                throw new IOException("cannot write " + f);
+        }
+        return f;
+    }
+
+    /* 缓存中没有时返回 null */
+    public Script load(String source) throws IOException {
+        String key = key(source);
+        File f = file(key);
+        if (!f.exists())
+            return null;
+
+        byte[] b = new byte[(int)f.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        try {
+            in.readFully(b);
+        } finally {
+            in.close();
+        }
+
+        try {
+            Class<?> c = new ScriptLoader(Script.class.getClassLoader())
+                                .define(PACKAGE + "." + key, b);
+            return (Script)c.newInstance();
+        } catch (LinkageError e) {
+            return null;
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    static class ScriptLoader extends ClassLoader {
+        ScriptLoader(ClassLoader parent) { super(parent); }
+        Class<?> define(String name, byte[] b) {
+            return defineClass(name, b, 0, b.length);
+        }
+    }
+}
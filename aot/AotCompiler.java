@@ -0,0 +1,353 @@
+package aot;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import javassist.*;
+import stone.*;
+import stone.ast.*;
+
+/*
+ * Stone 脚本 -> JVM class 文件.
+ *
+ * 每个 AST 节点翻译成一段 Java 代码, 结果赋给一个局部变量, 运算都调用 Rt.
+ * 生成的 Java 源代码由 javassist 编译. 整数和字符串常量是生成类的 static
+ * 字段. 语义上不能编译的节点 (例如新的语法) 抛出 StoneException, 调用方
+ * 回到解释执行.
+ */
+public class AotCompiler {
+    protected String className;
+    protected ArrayList<String> statements = new ArrayList<String>();
+    protected ArrayList<String> functions = new ArrayList<String>();
+    protected ArrayList<String> fields = new ArrayList<String>();
+    protected HashMap<Object,String> constants = new HashMap<Object,String>();
+
+    public AotCompiler(String className) { this.className = className; }
+
+    public static byte[] compile(String className, String source)
+        throws ParseException
+    {
+        AotCompiler c = new AotCompiler(className);
+        for (ASTree t: Scripts.parse(source))
+            c.statement(t);
+
+        return c.toBytecode();
+    }
+
+    /* 一个方法的代码 */
+    protected static class Method {
+        StringBuilder code = new StringBuilder();
+        int temps;
+        String temp() { return "t" + temps++; }
+        void emit(String s) { code.append(s).append('\n'); }
+    }
+
+    protected void statement(ASTree t) {
+        Method m = new Method();
+        String r = m.temp();
+        compile(t, r, m);
+        statements.add(method("s" + statements.size(), m, r));
+    }
+
+    protected int function(DefStmnt def) {
+        int index = functions.size();
+        functions.add(null);
+        Method m = new Method();
+        String r = m.temp();
+        compile(def.body(), r, m, true);
+        functions.set(index, method("f" + index, m, r));
+        return index;
+    }
+
+    protected static String method(String name, Method m, String result) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("public Object ").append(name)
+          .append("(chap7.SymbolEnv env) {\n");
+        for (int i = 0; i < m.temps; i++)
+            sb.append("Object t").append(i).append(" = null;\n");
+
+        sb.append(m.code).append("return ").append(result).append(";\n}");
+        return sb.toString();
+    }
+
+    protected void compile(ASTree t, String target, Method m) {
+        compile(t, target, m, false);
+    }
+
+    /*
+     * tail 为 true 时 t 处于函数体的尾部 (与 TailCall.mark 的判断相同),
+     * 其中的函数调用交给 Rt.tailCall, 由 Rt.call 的循环执行.
+     */
+    protected void compile(ASTree t, String target, Method m, boolean tail) {
+        int line = line(t);
+        if (t instanceof NumberLiteral)
+            m.emit(target + " = " + constant(((NumberLiteral)t).value()) + ";");
+        else if (t instanceof StringLiteral)
+            m.emit(target + " = " + constant(((StringLiteral)t).value()) + ";");
+        else if (t instanceof Name)
+            m.emit(target + " = aot.Rt.get(env, " + literal(((Name)t).name())
+                   + ", " + line + ");");
+        else if (t instanceof NegativeExpr) {
+            String v = m.temp();
+            compile(((NegativeExpr)t).operand(), v, m);
+            m.emit(target + " = aot.Rt.neg(" + v + ", " + line + ");");
+        }
+        else if (t instanceof BinaryExpr)
+            binary((BinaryExpr)t, target, m);
+        else if (t instanceof BlockStmnt) {
+            m.emit(target + " = aot.Rt.ZERO;");
+            int last = t.numChildren() - 1;
+            while (last >= 0 && t.child(last) instanceof NullStmnt)
+                last--;
+
+            for (int i = 0; i <= last; i++)
+                if (!(t.child(i) instanceof NullStmnt))
+                    compile(t.child(i), target, m, tail && i == last);
+        }
+        else if (t instanceof IfStmnt) {
+            IfStmnt s = (IfStmnt)t;
+            String c = m.temp();
+            compile(s.condition(), c, m);
+            m.emit("if (aot.Rt.isTrue(" + c + ")) {");
+            compile(s.thenBlock(), target, m, tail);
+            m.emit("} else {");
+            if (s.elseBlock() == null)
+                m.emit(target + " = aot.Rt.ZERO;");
+            else
+                compile(s.elseBlock(), target, m, tail);
+
+            m.emit("}");
+        }
+        else if (t instanceof WhileStmnt) {
+            WhileStmnt s = (WhileStmnt)t;
+            String c = m.temp();
+            m.emit(target + " = aot.Rt.ZERO;");
+            m.emit("while (true) {");
+            compile(s.condition(), c, m);
+            m.emit("if (aot.Rt.isFalse(" + c + ")) break;");
+            compile(s.body(), target, m);
+            m.emit("}");
+        }
+        else if (t instanceof PrimaryExpr)
+            primary(t, t.numChildren(), target, m, tail);
+        else if (t instanceof DefStmnt) {
+            DefStmnt def = (DefStmnt)t;
+            StringBuilder params = new StringBuilder();
+            ParameterList plist = def.parameters();
+            for (int i = 0; i < plist.size(); i++) {
+                if (i > 0)
+                    params.append(',');
+                params.append(plist.name(i));
+            }
+            int index = function(def);
+            m.emit(target + " = aot.Rt.def(env, " + literal(def.name()) + ", "
+                   + literal(params.toString()) + ", this, " + index + ");");
+        }
+        else if (t instanceof DictLiteral) {
+            DictLiteral d = (DictLiteral)t;
+            String a = "a" + m.temps++;
+            m.emit("Object[] " + a + " = new Object[" + d.size() * 2 + "];");
+            for (int i = 0; i < d.size(); i++) {
+                String k = m.temp();
+                String v = m.temp();
+                compile(d.entry(i).key(), k, m);
+                compile(d.entry(i).value(), v, m);
+                m.emit(a + "[" + i * 2 + "] = " + k + ";");
+                m.emit(a + "[" + (i * 2 + 1) + "] = " + v + ";");
+            }
+            m.emit(target + " = aot.Rt.dict(" + a + ", " + line + ");");
+        }
+        else
+            throw new StoneException("cannot compile: " + t.getClass().getName(),
+                                     t);
+    }
+
+    protected void binary(BinaryExpr t, String target, Method m) {
+        int line = line(t);
+        String op = t.operator();
+        if ("=".equals(op)) {
+            ASTree left = t.left();
+            String r = m.temp();
+            compile(t.right(), r, m);
+            if (left instanceof Name)
+                m.emit(target + " = aot.Rt.put(env, "
+                       + literal(((Name)left).name()) + ", " + r + ");");
+            else if (left instanceof PrimaryExpr
+                     && left.child(left.numChildren() - 1) instanceof ArrayRef)
+            {
+                int n = left.numChildren();
+                String a = m.temp();
+                String i = m.temp();
+                primary(left, n - 1, a, m);
+                compile(((ArrayRef)left.child(n - 1)).index(), i, m);
+                m.emit(target + " = aot.Rt.setIndex(" + a + ", " + i + ", " + r
+                       + ", " + line + ");");
+            }
+            else
+                m.emit(target + " = aot.Rt.fail(\"bad assignment\", "
+                       + line + ");");
+            return;
+        }
+
+        String name = operatorMethod(op);
+        String l = m.temp();
+        String r = m.temp();
+        compile(t.left(), l, m);
+        compile(t.right(), r, m);
+        if (name == null)
+            m.emit(target + " = aot.Rt.fail(\"bad operator\", " + line + ");");
+        else
+            m.emit(target + " = aot.Rt." + name + "(" + l + ", " + r + ", "
+                   + line + ");");
+    }
+
+    protected static String operatorMethod(String op) {
+        if (op.equals("+"))
+            return "add";
+        else if (op.equals("-"))
+            return "sub";
+        else if (op.equals("*"))
+            return "mul";
+        else if (op.equals("/"))
+            return "div";
+        else if (op.equals("%"))
+            return "mod";
+        else if (op.equals("=="))
+            return "eq";
+        else if (op.equals(">"))
+            return "gt";
+        else if (op.equals("<"))
+            return "lt";
+        else
+            return null;
+    }
+
+    /* operand 和前 n - 1 个 postfix */
+    protected void primary(ASTree t, int n, String target, Method m) {
+        primary(t, n, target, m, false);
+    }
+
+    protected void primary(ASTree t, int n, String target, Method m,
+                           boolean tail)
+    {
+        compile(t.child(0), target, m);
+        for (int k = 1; k < n; k++) {
+            ASTree p = t.child(k);
+            int line = line(p);
+            if (p instanceof ArrayRef) {
+                String i = m.temp();
+                compile(((ArrayRef)p).index(), i, m);
+                m.emit(target + " = aot.Rt.index(" + target + ", " + i + ", "
+                       + line + ");");
+            }
+            else if (p instanceof Arguments) {
+                int size = p.numChildren();
+                String a = "a" + m.temps++;
+                m.emit("Object[] " + a + " = new Object[" + size + "];");
+                for (int i = 0; i < size; i++) {
+                    String v = m.temp();
+                    compile(p.child(i), v, m);
+                    m.emit(a + "[" + i + "] = " + v + ";");
+                }
+                String call = tail && k == n - 1 ? "tailCall" : "call";
+                m.emit(target + " = aot.Rt." + call + "(" + target + ", " + a
+                       + ", " + line + ");");
+            }
+            else
+                throw new StoneException("cannot compile: "
+                                         + p.getClass().getName(), p);
+        }
+    }
+
+    protected static int line(ASTree t) {
+        String loc = t.location();
+        if (loc != null && loc.startsWith("at line "))
+            return Integer.parseInt(loc.substring(8));
+        else
+            return 0;
+    }
+
+    protected String constant(Object value) {
+        String name = constants.get(value);
+        if (name == null) {
+            name = "k" + constants.size();
+            constants.put(value, name);
+            if (value instanceof Integer)
+                fields.add("static final Integer " + name + " = Integer.valueOf("
+                           + value + ");");
+            else
+                fields.add("static final String " + name + " = aot.Rt.str("
+                           + literal((String)value) + ");");
+        }
+        return name;
+    }
+
+    /* Java 的字符串字面量. ASCII 以外的字符和 \ 交给 Rt.str 还原 */
+    protected static String literal(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"')
+                sb.append("\\\"");
+            else if (c == '\\' || c < 32 || c > 126) {
+                String hex = Integer.toHexString(c);
+                sb.append("\\\\u");
+                for (int k = hex.length(); k < 4; k++)
+                    sb.append('0');
+                sb.append(hex);
+            }
+            else
+                sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    protected byte[] toBytecode() {
+        try {
+            ClassPool pool = new ClassPool(true);
+            pool.appendClassPath(new LoaderClassPath(
+                                        AotCompiler.class.getClassLoader()));
+            CtClass cc = pool.makeClass(className);
+            cc.addInterface(pool.get(Script.class.getName()));
+            for (String f: fields)
+                cc.addField(CtField.make(f, cc));
+
+            for (String s: statements)
+                cc.addMethod(CtNewMethod.make(s, cc));
+
+            for (String f: functions)
+                cc.addMethod(CtNewMethod.make(f, cc));
+
+            cc.addMethod(CtNewMethod.make("public int size() { return "
+                                          + statements.size() + "; }", cc));
+            cc.addMethod(CtNewMethod.make(dispatch("run", "s", statements.size()),
+                                          cc));
+            cc.addMethod(CtNewMethod.make(dispatch("call", "f", functions.size()),
+                                          cc));
+            byte[] b = cc.toBytecode();
+            cc.detach();
+            return b;
+        } catch (NotFoundException e) {
+            throw new StoneException("AOT compilation failed: " + e.getMessage());
+        } catch (CannotCompileException e) {
+            throw new StoneException("AOT compilation failed: " + e.getMessage());
+        } catch (IOException e) {
+            throw new StoneException("AOT compilation failed: " + e.getMessage());
+        }
+    }
+
+    protected static String dispatch(String name, String prefix, int n) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("public Object ").append(name)
+          .append("(int i, chap7.SymbolEnv env) {\n");
+        if (n == 0)
+            return sb.append("return null;\n}").toString();
+
+        sb.append("switch (i) {\n");
+        for (int i = 0; i < n; i++)
+            sb.append("case ").append(i).append(": return ").append(prefix)
+              .append(i).append("(env);\n");
+
+        return sb.append("}\nreturn null;\n}").toString();
+    }
+}
@@ -0,0 +1,24 @@
+package aot;
+
+import chap6.Environment;
+import chap7.Function;
+
+/*
+ * AOT 编译后的函数. 函数体是 script 的第 index 个方法, 不保存 AST.
+ */
+public class AotFunction extends Function {
+    protected String[] names;
+    protected Script script;
+    protected int index;
+
+    public AotFunction(String[] names, Script script, int index,
+                       Environment env)
+    {
+        super(null, null, env);
+        this.names = names;
+        this.script = script;
+        this.index = index;
+    }
+
+    public String[] parameterNames() { return names; }
+}
@@ -0,0 +1,17 @@
+package aot;
+
+import java.io.IOException;
+import stone.ParseException;
+import stone.Scripts;
+import chap7.SymbolEnv;
+import chap10.DictNatives;
+
+/* 缓存中没有编译结果时, 用解释器执行 (在 GluonJ 的 Loader 中运行) */
+public class AotInterpreter {
+    public static void main(String[] args) throws ParseException, IOException {
+        SymbolEnv env = new SymbolEnv();
+        new DictNatives().environment(env);
+        for (String fileName: args)
+            Scripts.run(Scripts.read(fileName), env, true);
+    }
+}
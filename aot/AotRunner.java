@@ -0,0 +1,49 @@
+package aot;
+
+import java.io.File;
+import javassist.gluonj.util.Loader;
+import stone.Scripts;
+import chap7.SymbolEnv;
+import chap10.DictEvaluator;
+import chap10.DictNatives;
+
+/*
+ * 用法:
+ *   AotRunner -c cache file.st ...   编译, 写入缓存
+ *   AotRunner cache file.st          有缓存时直接执行编译后的 class,
+ *                                    否则解释执行
+ *
+ * 执行编译后的 class 时不需要词法分析, 语法分析, 也不需要 GluonJ.
+ */
+public class AotRunner {
+    public static void main(String[] args) throws Throwable {
+        if (args.length >= 2 && args[0].equals("-c")) {
+            AotCache cache = new AotCache(new File(args[1]));
+            for (int i = 2; i < args.length; i++) {
+                File f = cache.compile(Scripts.read(args[i]));
+                System.err.println("aot: " + args[i] + " -> " + f);
+            }
+            return;
+        }
+        else if (args.length != 2) {
+            System.err.println("usage: AotRunner [-c] cache file.st ...");
+            return;
+        }
+
+        AotCache cache = new AotCache(new File(args[0]));
+        Script script = cache.load(Scripts.read(args[1]));
+        if (script == null) {
+            System.err.println("aot: no compiled class for " + args[1]
+                               + ", interpreting");
+            Loader.run(AotInterpreter.class, new String[] { args[1] },
+                       DictEvaluator.class);
+            return;
+        }
+
+        SymbolEnv env = new SymbolEnv();
+        Rt.install(env, new DictNatives().functions());
+        int n = script.size();
+        for (int i = 0; i < n; i++)
+            System.out.println("=> " + script.run(i, env));
+    }
+}
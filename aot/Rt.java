@@ -0,0 +1,248 @@
+package aot;
+
+import java.util.Map;
+import stone.StoneException;
+import chap6.BasicEvaluator;
+import chap6.Environment;
+import chap6.Rope;
+import chap7.SymbolEnv;
+import chap8.NativeFunction;
+import chap10.DictValue;
+import chap10.Subscript;
+
+/*
+ * AOT 编译生成的代码所调用的运行时. 语义与 BasicEvaluator 等相同.
+ * 生成的代码只用 SymbolEnv, 所以不需要 GluonJ 的 reviser.
+ */
+public class Rt {
+    public static final Integer ZERO = Integer.valueOf(0);
+    static final int TRUE = BasicEvaluator.TRUE;
+    static final int FALSE = BasicEvaluator.FALSE;
+
+    static StoneException error(String msg, int line) {
+        return new StoneException(msg + " at line " + line);
+    }
+
+    public static Object fail(String msg, int line) {
+        throw error(msg, line);
+    }
+
+    public static Object get(SymbolEnv env, String name, int line) {
+        Object v = env.get(name);
+        if (v == null)
+            throw error("undefined name: " + name, line);
+        else
+            return v;
+    }
+
+    public static Object put(SymbolEnv env, String name, Object value) {
+        env.put(name, value);
+        return value;
+    }
+
+    public static boolean isTrue(Object c) {
+        return c instanceof Integer && ((Integer)c).intValue() != FALSE;
+    }
+
+    public static boolean isFalse(Object c) {
+        return c instanceof Integer && ((Integer)c).intValue() == FALSE;
+    }
+
+    public static Object neg(Object v, int line) {
+        if (v instanceof Integer)
+            return Integer.valueOf(-((Integer)v).intValue());
+        else
+            throw error("bad type for -", line);
+    }
+
+    public static Object add(Object l, Object r, int line) {
+        if (l instanceof Integer && r instanceof Integer)
+            return Integer.valueOf(((Integer)l).intValue()
+                                   + ((Integer)r).intValue());
+        else
+            return Rope.concat(l, r);
+    }
+
+    public static Object sub(Object l, Object r, int line) {
+        return Integer.valueOf(toInt(l, line) - toInt(r, line));
+    }
+
+    public static Object mul(Object l, Object r, int line) {
+        return Integer.valueOf(toInt(l, line) * toInt(r, line));
+    }
+
+    public static Object div(Object l, Object r, int line) {
+        return Integer.valueOf(toInt(l, line) / toInt(r, line));
+    }
+
+    public static Object mod(Object l, Object r, int line) {
+        return Integer.valueOf(toInt(l, line) % toInt(r, line));
+    }
+
+    public static Object gt(Object l, Object r, int line) {
+        return Integer.valueOf(toInt(l, line) > toInt(r, line) ? TRUE : FALSE);
+    }
+
+    public static Object lt(Object l, Object r, int line) {
+        return Integer.valueOf(toInt(l, line) < toInt(r, line) ? TRUE : FALSE);
+    }
+
+    public static Object eq(Object l, Object r, int line) {
+        if (l instanceof Integer && r instanceof Integer)
+            return Integer.valueOf(((Integer)l).intValue()
+                                   == ((Integer)r).intValue() ? TRUE : FALSE);
+
+        l = Rope.flatten(l);
+        r = Rope.flatten(r);
+        if (l == null)
+            return Integer.valueOf(r == null ? TRUE : FALSE);
+        else
+            return Integer.valueOf(l.equals(r) ? TRUE : FALSE);
+    }
+
+    static int toInt(Object v, int line) {
+        if (v instanceof Integer)
+            return ((Integer)v).intValue();
+        else
+            throw error("bad type", line);
+    }
+
+    public static Object call(Object fn, Object[] args, int line) {
+        if (fn instanceof AotFunction) {
+            AotFunction f = (AotFunction)fn;
+            Object result = f.script.call(f.index, bind(f, args, line));
+            while (result instanceof TailCall) {
+                TailCall tc = (TailCall)result;
+                result = tc.function.script.call(tc.function.index, tc.env);
+            }
+            return result;
+        }
+        else if (fn instanceof NativeFunction) {
+            NativeFunction f = (NativeFunction)fn;
+            if (f.numOfParameters() != args.length)
+                throw error("bad number of arguments", line);
+
+            try {
+                return f.invoke(args, null);
+            } catch (StoneException e) {
+                throw error(e.getMessage(), line);
+            }
+        }
+        else
+            throw error("bad function", line);
+    }
+
+    /*
+     * 尾部的函数调用. 不在这里调用 AotFunction, 而是返回 TailCall,
+     * 由外层 call 的循环执行, 所以尾递归不会使 Java 的栈变深.
+     */
+    public static Object tailCall(Object fn, Object[] args, int line) {
+        if (fn instanceof AotFunction) {
+            AotFunction f = (AotFunction)fn;
+            return new TailCall(f, bind(f, args, line));
+        }
+        else
+            return call(fn, args, line);
+    }
+
+    static SymbolEnv bind(AotFunction f, Object[] args, int line) {
+        String[] names = f.names;
+        if (names.length != args.length)
+            throw error("bad number of arguments", line);
+
+        SymbolEnv env = new SymbolEnv(f.environment());
+        for (int i = 0; i < names.length; i++)
+            env.putNew(names[i], args[i]);
+
+        return env;
+    }
+
+    static class TailCall {
+        final AotFunction function;
+        final SymbolEnv env;
+        TailCall(AotFunction f, SymbolEnv e) { function = f; env = e; }
+    }
+
+    public static Object def(SymbolEnv env, String name, String params,
+                             Script script, int index)
+    {
+        env.putNew(name, new AotFunction(split(params), script, index, env));
+        return name;
+    }
+
+    static String[] split(String params) {
+        if (params.length() == 0)
+            return new String[0];
+
+        int n = 1;
+        for (int i = 0; i < params.length(); i++)
+            if (params.charAt(i) == ',')
+                n++;
+
+        String[] names = new String[n];
+        int start = 0;
+        for (int k = 0; k < n; k++) {
+            int end = params.indexOf(',', start);
+            if (end < 0)
+                end = params.length();
+
+            names[k] = params.substring(start, end).intern();
+            start = end + 1;
+        }
+        return names;
+    }
+
+    public static Object index(Object target, Object index, int line) {
+        try {
+            return Subscript.get(target, index, null);
+        } catch (StoneException e) {
+            throw error(e.getMessage(), line);
+        }
+    }
+
+    public static Object setIndex(Object target, Object index, Object value,
+                                  int line)
+    {
+        try {
+            Subscript.set(target, index, value, null);
+            return value;
+        } catch (StoneException e) {
+            throw error(e.getMessage(), line);
+        }
+    }
+
+    public static Object dict(Object[] entries, int line) {
+        DictValue d = new DictValue();
+        try {
+            for (int i = 0; i < entries.length; i += 2)
+                d.put(entries[i], entries[i + 1], null);
+        } catch (StoneException e) {
+            throw error(e.getMessage(), line);
+        }
+        return d;
+    }
+
+    /* 字符串常量中 ASCII 以外的字符和 \\ 写成 \\uXXXX (见 AotCompiler) */
+    public static String str(String s) {
+        if (s.indexOf('\\') < 0)
+            return s;
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 5 < s.length()) {
+                sb.append((char)Integer.parseInt(s.substring(i + 2, i + 6), 16));
+                i += 5;
+            }
+            else
+                sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /* Natives.environment 需要 reviser, 这里直接写入 */
+    public static void install(SymbolEnv env, Map<String,NativeFunction> natives) {
+        for (Map.Entry<String,NativeFunction> e: natives.entrySet())
+            env.putNew(e.getKey().intern(), e.getValue());
+    }
+}
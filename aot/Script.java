@@ -0,0 +1,13 @@
+package aot;
+
+import chap7.SymbolEnv;
+
+/*
+ * AOT 编译生成的类实现这个接口. 脚本的每个顶层语句是一个方法 (run),
+ * 每个 def 的函数体也是一个方法 (call).
+ */
+public interface Script {
+    int size();
+    Object run(int statement, SymbolEnv env);
+    Object call(int function, SymbolEnv env);
+}
@@ -14,6 +14,7 @@ public class ASTLeaf extends ASTree {
     public int numChildren() { return 0; }
     public Iterator<ASTree> children() { return empty.iterator(); }
     public String location() { return "at line " + token.getLineNumber(); }
+    public int lineNumber() { return token.getLineNumber(); }
 
     public String toString() { return token.getText(); }
     public Token token() { return token; }
@@ -20,6 +20,15 @@ public class ASTList extends ASTree {
         return null;
     }
 
+    public int lineNumber() {
+        for (ASTree t: children) {
+            int n = t.lineNumber();
+            if (n != 0)
+                return n;
+        }
+        return 0;
+    }
+
     public String toString() {
         StringBuilder builder = new StringBuilder();
         builder.append('(');
@@ -27,5 +27,7 @@ public abstract class ASTree implements Iterable<ASTree> {
     public abstract int numChildren();
     public abstract Iterator<ASTree> children();
     public abstract String location();
+    /* 所在的行号. 没有位置时返回 0 */
+    public abstract int lineNumber();
     public Iterator<ASTree> iterator() { return children(); }
 }
@@ -0,0 +1,9 @@
+package stone.ast;
+
+import java.util.List;
+
+public class ArrayRef extends Postfix {
+    public ArrayRef(List<ASTree> c) { super(c); }
+    public ASTree index() { return child(0); }
+    public String toString() { return "[" + index() + "]"; }
+}
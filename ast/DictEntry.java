@@ -0,0 +1,10 @@
+package stone.ast;
+
+import java.util.List;
+
+public class DictEntry extends ASTList {
+    public DictEntry(List<ASTree> c) { super(c); }
+    public ASTree key() { return child(0); }
+    public ASTree value() { return child(1); }
+    public String toString() { return key() + ": " + value(); }
+}
@@ -0,0 +1,9 @@
+package stone.ast;
+
+import java.util.List;
+
+public class DictLiteral extends ASTList {
+    public DictLiteral(List<ASTree> c) { super(c); }
+    public int size() { return numChildren(); }
+    public DictEntry entry(int i) { return (DictEntry)child(i); }
+}
@@ -0,0 +1,199 @@
+package batch;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import stone.*;
+import stone.ast.ASTree;
+import stone.ast.NullStmnt;
+import chap6.Environment;
+import chap6.BasicEvaluator.ASTreeEx;
+import chap7.SymbolEnv;
+import chap8.Natives;
+import chap10.DictNatives;
+
+/*
+ * 不用 CodeDialog 的命令行解释器.
+ *
+ * 用法: BatchInterpreter [-q] [-x] [-shared] [file | dir | -] ...
+ *   -q       不输出每个语句的 "=> 结果"
+ *   -x       出错后不再执行剩下的文件
+ *   -shared  所有文件在同一个全局环境中执行 (默认每个文件一个)
+ * 目录中的 *.st 按文件名顺序执行. 没有参数或参数是 - 时读标准输入.
+ *
+ * 输入用 64KB 的缓冲读取, 输出 (包括 print) 写到 64KB 的缓冲中, 每个文件
+ * 结束和出错时才 flush.
+ *
+ * 退出码: 0 全部成功, 1 有脚本出错 (解析错误, 执行时的异常或栈溢出),
+ *         2 参数错误或文件读不了.
+ */
+public class BatchInterpreter {
+    public static final int OK = 0, SCRIPT_ERROR = 1, USAGE = 2;
+    static final int BUFFER_SIZE = 1 << 16;
+
+    protected boolean echo = true;
+    protected boolean stopOnError;
+    protected boolean shared;
+    protected PrintStream out;
+    protected PrintStream err = System.err;
+    protected Environment sharedEnv;
+
+    public static void main(String[] args) {
+        System.exit(new BatchInterpreter().run(args));
+    }
+
+    public int run(String[] args) {
+        ArrayList<String> inputs = new ArrayList<String>();
+        for (String a: args)
+            if (a.equals("-q"))
+                echo = false;
+            else if (a.equals("-x"))
+                stopOnError = true;
+            else if (a.equals("-shared"))
+                shared = true;
+            else if (a.startsWith("-") && !a.equals("-")) {
+                err.println("usage: BatchInterpreter [-q] [-x] [-shared]"
+                            + " [file | dir | -] ...");
+                return USAGE;
+            }
+            else
+                inputs.add(a);
+
+        if (inputs.isEmpty())
+            inputs.add("-");
+
+        ArrayList<File> files = new ArrayList<File>();
+        for (String in: inputs) {
+            if (in.equals("-"))
+                files.add(null);
+            else if (!expand(new File(in), files)) {
+                err.println(in + ": no such file or directory");
+                return USAGE;
+            }
+        }
+
+        PrintStream stdout = System.out;
+        out = new PrintStream(new BufferedOutputStream(
+                                new FileOutputStream(FileDescriptor.out),
+                                BUFFER_SIZE), false);
+        System.setOut(out);
+        try {
+            int status = OK;
+            for (File f: files) {
+                int s = runFile(f);
+                if (s > status)
+                    status = s;
+
+                if (s != OK && stopOnError)
+                    break;
+            }
+            return status;
+        } finally {
+            out.flush();
+            System.setOut(stdout);
+        }
+    }
+
+    /* 目录中的 *.st, 按名字排序 */
+    protected boolean expand(File f, ArrayList<File> files) {
+        if (f.isDirectory()) {
+            File[] list = f.listFiles();
+            if (list == null)
+                return false;
+
+            Arrays.sort(list);
+            for (File c: list)
+                if (c.isDirectory() || c.getName().endsWith(".st"))
+                    expand(c, files);
+
+            return true;
+        }
+        else if (f.isFile()) {
+            files.add(f);
+            return true;
+        }
+        else
+            return false;
+    }
+
+    protected int runFile(File f) {
+        String name = f == null ? "<stdin>" : f.getPath();
+        InputStream in;
+        try {
+            in = f == null ? System.in : new FileInputStream(f);
+        } catch (IOException e) {
+            err.println(name + ": " + e.getMessage());
+            return USAGE;
+        }
+
+        Reader reader = new BufferedReader(new InputStreamReader(in),
+                                           BUFFER_SIZE);
+        try {
+            run(reader, environment());
+            return OK;
+        } catch (ParseException e) {
+            out.flush();
+            err.println(name + ": " + e.getMessage());
+            return e.getCause() instanceof IOException ? USAGE : SCRIPT_ERROR;
+        } catch (StoneException e) {
+            out.flush();
+            err.println(name + ": " + e.getMessage());
+            return SCRIPT_ERROR;
+        } catch (RuntimeException e) {
+            /* 例如 1 / 0 的 ArithmeticException */
+            out.flush();
+            String msg = e.getMessage();
+            err.println(name + ": " + (msg == null ? e.toString() : msg));
+            return SCRIPT_ERROR;
+        } catch (StackOverflowError e) {
+            /* 很深的非尾递归. 栈已经退回到这里, 可以继续执行下一个文件 */
+            out.flush();
+            err.println(name + ": stack overflow");
+            return SCRIPT_ERROR;
+        } finally {
+            out.flush();
+            if (f != null)
+                try {
+                    in.close();
+                } catch (IOException e) {}
+        }
+    }
+
+    protected Environment environment() {
+        if (shared && sharedEnv != null)
+            return sharedEnv;
+
+        Environment env = natives().environment(new SymbolEnv());
+        if (shared)
+            sharedEnv = env;
+
+        return env;
+    }
+
+    protected Natives natives() { return new DictNatives(); }
+
+    public void run(Reader reader, Environment env) throws ParseException {
+        FuncParser parser = new FuncParser();
+        Lexer lexer = new Lexer(reader);
+        while (lexer.peek(0) != Token.EOF) {
+            ASTree t = parser.parse(lexer);
+            if (!(t instanceof NullStmnt)) {
+                Object r = ((ASTreeEx)t).eval(env);
+                if (echo) {
+                    out.print("=> ");
+                    out.println(r);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package batch;
+
+import javassist.gluonj.util.Loader;
+import chap10.DictEvaluator;
+
+public class BatchRunner {
+    public static void main(String[] args) throws Throwable {
+        Loader.run(BatchInterpreter.class, args, DictEvaluator.class);
+    }
+}
@@ -0,0 +1,171 @@
+package budget;
+
+import stone.StoneException;
+import stone.ast.ASTree;
+import chap6.Environment;
+import chap6.Rope;
+import chap7.FrameEnv;
+import chap7.NestedEnv;
+
+/*
+ * 一次执行的资源预算: 燃料 (步数), 时限, 分配量.
+ *
+ * 步数在 while 的每次循环和每次函数调用时减一 (tick). 热路径上只有一次
+ * 计数器的减法: 燃料按 SLICE 步一片发放, 一片用完时才结算燃料, 读一次时钟
+ * 并检查线程是否被 interrupt. 因此时限的精度是 SLICE 步.
+ * 分配量是累计的估计值 (字符串, 环境, 函数, 数组, 字典), 不扣除被回收的
+ * 部分.
+ * 超出任何一项时抛出 StoneException.
+ *
+ * 用法:
+ *   Budget b = new Budget(fuel, millis, bytes);    // 0 表示不限
+ *   b.enter();
+ *   try { ... } finally { b.exit(); }
+ * 预算只对调用 enter 的线程有效. 没有线程装着预算时, current() 只读一个
+ * 静态变量.
+ *
+ * 求值时不用 current() (每次一个 volatile 读和 ThreadLocal.get), 而是用
+ * of(env) 从环境中取: 入口把全局环境做成 Metered (例如 BudgetEnv), 函数的
+ * 环境沿着外层总能找到它, 通常只有一两层. 找不到时才退回 current().
+ */
+public class Budget {
+    public static final int SLICE = 1 << 12;
+
+    /* 分配量的估计 */
+    public static final int ENV_BYTES = 64;
+    public static final int VARIABLE_BYTES = 32;
+    public static final int FUNCTION_BYTES = 48;
+    public static final int STRING_BYTES = 24;
+    public static final int ARRAY_BYTES = 24;
+    public static final int ELEMENT_BYTES = 8;
+    public static final int DICT_BYTES = 48;
+    public static final int ENTRY_BYTES = 16;
+
+    private static final ThreadLocal<Budget> budgets = new ThreadLocal<Budget>();
+    private static volatile int installed;
+
+    protected long fuel;
+    protected long deadline;
+    protected long memory;
+    protected int granted;
+    protected int slice;
+    protected long steps;
+    protected long allocated;
+    protected long start;
+    private Budget saved;
+
+    public Budget(long fuel, long millis, long bytes) {
+        this.fuel = fuel > 0 ? fuel : Long.MAX_VALUE;
+        this.memory = bytes > 0 ? bytes : Long.MAX_VALUE;
+        start = System.nanoTime();
+        deadline = millis > 0 ? start + millis * 1000000L : 0;
+    }
+
+    /* 带 k/m/g 的字节数 */
+    public static long parseSize(String size) {
+        char unit = Character.toLowerCase(size.charAt(size.length() - 1));
+        long scale = unit == 'k' ? 1L << 10 : unit == 'm' ? 1L << 20
+                     : unit == 'g' ? 1L << 30 : 1;
+        String digits = scale == 1 ? size : size.substring(0, size.length() - 1);
+        return Long.parseLong(digits) * scale;
+    }
+
+    public static Budget current() {
+        return installed == 0 ? null : budgets.get();
+    }
+
+    /* env 所在的执行的预算 */
+    public static Budget of(Environment env) {
+        for (;;) {
+            if (env instanceof Metered)
+                return ((Metered)env).budget();
+            else if (env instanceof NestedEnv)
+                env = ((NestedEnv)env).outer();
+            else if (env instanceof FrameEnv)
+                env = ((FrameEnv)env).closureEnv();
+            else
+                return current();
+        }
+    }
+
+    /* 在当前线程上生效. 可以嵌套, exit 时恢复外层的预算 */
+    public void enter() {
+        synchronized (Budget.class) {
+            installed++;
+        }
+        saved = budgets.get();
+        budgets.set(this);
+    }
+
+    public void exit() {
+        budgets.set(saved);
+        saved = null;
+        synchronized (Budget.class) {
+            installed--;
+        }
+    }
+
+    public final void tick(ASTree where) {
+        if (--slice < 0)
+            refill(where);
+    }
+
+    private void refill(ASTree where) {
+        fuel -= granted;
+        steps += granted;
+        granted = slice = 0;
+        if (deadline != 0 && System.nanoTime() - deadline > 0)
+            throw new StoneException("time limit exceeded", where);
+
+        if (Thread.currentThread().isInterrupted())
+            throw new StoneException("interrupted", where);
+
+        if (fuel <= 0)
+            throw new StoneException("out of fuel: " + steps + " steps", where);
+
+        granted = (int)Math.min(SLICE, fuel);
+        slice = granted - 1;
+    }
+
+    public final void allocate(long bytes, ASTree where) {
+        allocated += bytes;
+        if ((memory -= bytes) < 0)
+            throw new StoneException("memory limit exceeded: " + allocated
+                                     + " bytes", where);
+    }
+
+    /*
+     * 字符串运算结果的大小. Rope 与较长的 Rope 操作数共用字符,
+     * 只计新增的部分.
+     */
+    public static long sizeOf(Object result, Object left, Object right) {
+        if (result instanceof String)
+            return STRING_BYTES + 2L * ((String)result).length();
+        else if (result instanceof Rope) {
+            int shared = Math.max(ropeLength(left), ropeLength(right));
+            return STRING_BYTES + 2L * (((Rope)result).length() - shared);
+        }
+        else
+            return 0;
+    }
+
+    public static long sizeOfArray(int length) {
+        return ARRAY_BYTES + (long)ELEMENT_BYTES * length;
+    }
+
+    private static int ropeLength(Object v) {
+        return v instanceof Rope ? ((Rope)v).length() : 0;
+    }
+
+    /* 已经用掉的步数 */
+    public long steps() { return steps + granted - slice; }
+
+    public long allocated() { return allocated; }
+
+    public long elapsedMillis() { return (System.nanoTime() - start) / 1000000; }
+
+    public String toString() {
+        return "steps=" + steps() + " allocated=" + allocated
+               + " elapsed=" + elapsedMillis() + "ms";
+    }
+}
@@ -0,0 +1,16 @@
+package budget;
+
+import chap7.SymbolEnv;
+
+/*
+ * 带着 Budget 的全局环境. 同一个环境依次执行多个程序时 (BatchInterpreter
+ * 的 -shared), 每个程序开始前换上新的 Budget.
+ */
+public class BudgetEnv extends SymbolEnv implements Metered {
+    protected Budget budget;
+
+    public BudgetEnv(Budget b) { budget = b; }
+
+    public Budget budget() { return budget; }
+    public void setBudget(Budget b) { budget = b; }
+}
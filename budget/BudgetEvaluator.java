@@ -0,0 +1,101 @@
+package budget;
+
+import static chap6.BasicEvaluator.FALSE;
+import java.util.List;
+import javassist.gluonj.*;
+import stone.ast.ASTree;
+import chap6.Environment;
+import chap6.BasicEvaluator.ASTreeEx;
+import chap6.BasicEvaluator.WhileEx;
+import chap7.Function;
+import chap7.FuncEvaluator.DefStmntEx;
+import chap8.NativeFunction;
+import chap8.NativeEvaluator.NativeArgEx;
+import chap10.DictEvaluator;
+import chap10.DictValue;
+import chap10.DictEvaluator.DictLiteralEx;
+import chap10.ArrayEvaluator.AssignEx;
+
+/*
+ * 在循环, 调用, 字符串运算, def 和字典字面量上计量. 预算从求值的环境中取
+ * (Budget.of), 循环只在开始时取一次. 原生函数返回的字符串也计入分配量,
+ * 数组和字典的分配见 BudgetNatives 和 MeteredDict.
+ */
+@Require(DictEvaluator.class)
+@Reviser public class BudgetEvaluator {
+    @Reviser
+    public static class BudgetArgEx extends NativeArgEx {
+        public BudgetArgEx(List<ASTree> c) { super(c); }
+        public Object eval(Environment callerEnv, Object value) {
+            Budget b = Budget.of(callerEnv);
+            if (b == null)
+                return super.eval(callerEnv, value);
+
+            b.tick(this);
+            if (value instanceof Function)
+                b.allocate(Budget.ENV_BYTES + Budget.VARIABLE_BYTES * size(),
+                           this);
+
+            Object result = super.eval(callerEnv, value);
+            if (value instanceof NativeFunction && result instanceof String)
+                b.allocate(Budget.sizeOf(result, null, null), this);
+
+            return result;
+        }
+    }
+
+    @Reviser
+    public static class BudgetWhileEx extends WhileEx {
+        public BudgetWhileEx(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) {
+            Budget b = Budget.of(env);
+            if (b == null)
+                return super.eval(env);
+
+            Object result = 0;
+            for (;;) {
+                b.tick(this);
+                Object c = ((ASTreeEx)condition()).eval(env);
+                if (c instanceof Integer && ((Integer)c).intValue() == FALSE)
+                    return result;
+                else
+                    result = ((ASTreeEx)body()).eval(env);
+            }
+        }
+    }
+
+    @Reviser
+    public static class BudgetBinaryEx extends AssignEx {
+        public BudgetBinaryEx(List<ASTree> c) { super(c); }
+        protected Object computeOp(Object left, String op, Object right) {
+            Object result = super.computeOp(left, op, right);
+            if (!(result instanceof Integer)) {
+                Budget b = Budget.current();
+                if (b != null)
+                    b.allocate(Budget.sizeOf(result, left, right), this);
+            }
+            return result;
+        }
+    }
+
+    @Reviser
+    public static class BudgetDefEx extends DefStmntEx {
+        public BudgetDefEx(List<ASTree> c) { super(c); }
+        public Function makeFunction(Environment env) {
+            Budget b = Budget.of(env);
+            if (b != null)
+                b.allocate(Budget.FUNCTION_BYTES, this);
+
+            return super.makeFunction(env);
+        }
+    }
+
+    @Reviser
+    public static class BudgetDictEx extends DictLiteralEx {
+        public BudgetDictEx(List<ASTree> c) { super(c); }
+        protected DictValue newDict(Environment env) {
+            Budget b = Budget.of(env);
+            return b == null ? super.newDict(env) : new MeteredDict(b);
+        }
+    }
+}
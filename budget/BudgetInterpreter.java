@@ -0,0 +1,76 @@
+package budget;
+
+import java.io.File;
+import java.util.ArrayList;
+import batch.BatchInterpreter;
+import chap6.Environment;
+import chap8.Natives;
+
+/*
+ * 每个文件在各自的预算下执行的 BatchInterpreter.
+ *
+ * 用法: BudgetInterpreter [-fuel steps] [-time ms] [-memory size] [-stats]
+ *                         BatchInterpreter 的参数...
+ *   -fuel    while 的循环次数与函数调用次数之和的上限
+ *   -time    每个文件的时限
+ *   -memory  每个文件的分配量上限, 例如 16m
+ *   -stats   每个文件结束时向标准错误输出用掉的预算
+ */
+public class BudgetInterpreter extends BatchInterpreter {
+    protected long fuel, millis, memory;
+    protected boolean stats;
+    protected Budget budget;
+
+    public static void main(String[] args) {
+        System.exit(new BudgetInterpreter().run(args));
+    }
+
+    public int run(String[] args) {
+        ArrayList<String> rest = new ArrayList<String>();
+        try {
+            for (int i = 0; i < args.length; i++)
+                if (args[i].equals("-fuel") && i + 1 < args.length)
+                    fuel = Long.parseLong(args[++i]);
+                else if (args[i].equals("-time") && i + 1 < args.length)
+                    millis = Long.parseLong(args[++i]);
+                else if (args[i].equals("-memory") && i + 1 < args.length)
+                    memory = Budget.parseSize(args[++i]);
+                else if (args[i].equals("-stats"))
+                    stats = true;
+                else
+                    rest.add(args[i]);
+        } catch (NumberFormatException e) {
+            err.println("bad number: " + e.getMessage());
+            return USAGE;
+        }
+        return super.run(rest.toArray(new String[rest.size()]));
+    }
+
+    protected int runFile(File f) {
+        Budget b = budget = new Budget(fuel, millis, memory);
+        b.enter();
+        try {
+            return super.runFile(f);
+        } finally {
+            b.exit();
+            budget = null;
+            if (stats)
+                err.println((f == null ? "<stdin>" : f.getPath()) + ": " + b);
+        }
+    }
+
+    /* 全局环境带着这个文件的 Budget, -shared 时换上新的 */
+    protected Environment environment() {
+        BudgetEnv env = shared ? (BudgetEnv)sharedEnv : null;
+        if (env == null) {
+            env = new BudgetEnv(budget);
+            natives().environment(env);
+            if (shared)
+                sharedEnv = env;
+        }
+        env.setBudget(budget);
+        return env;
+    }
+
+    protected Natives natives() { return new BudgetNatives(); }
+}
@@ -0,0 +1,47 @@
+package budget;
+
+import chap10.ArrayValue;
+import chap10.DictNatives;
+import chap10.DictValue;
+
+/*
+ * 分配数组和字典时计入当前线程的 Budget 的原生函数. 数组在分配之前计入,
+ * 超出限制时不会真的分配. 原生函数返回的字符串由 BudgetEvaluator 计入.
+ */
+public class BudgetNatives extends DictNatives {
+    protected void appendNatives() {
+        super.appendNatives();
+        append("newArray", BudgetNatives.class, "newArray", int.class);
+        append("newDict", BudgetNatives.class, "newDict");
+        append("keys", BudgetNatives.class, "keys", Object.class);
+        append("values", BudgetNatives.class, "values", Object.class);
+    }
+
+    public static ArrayValue newArray(int size) {
+        allocateArray(size);
+        return new ArrayValue(size);
+    }
+
+    public static DictValue newDict() {
+        Budget b = Budget.current();
+        return b == null ? new DictValue() : new MeteredDict(b);
+    }
+
+    public static ArrayValue keys(Object dict) {
+        DictValue d = toDict(dict);
+        allocateArray(d.size());
+        return d.keys();
+    }
+
+    public static ArrayValue values(Object dict) {
+        DictValue d = toDict(dict);
+        allocateArray(d.size());
+        return d.values();
+    }
+
+    protected static void allocateArray(int size) {
+        Budget b = Budget.current();
+        if (b != null && size > 0)
+            b.allocate(Budget.sizeOfArray(size), null);
+    }
+}
@@ -0,0 +1,9 @@
+package budget;
+
+import javassist.gluonj.util.Loader;
+
+public class BudgetRunner {
+    public static void main(String[] args) throws Throwable {
+        Loader.run(BudgetInterpreter.class, args, BudgetEvaluator.class);
+    }
+}
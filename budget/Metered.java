@@ -0,0 +1,9 @@
+package budget;
+
+/*
+ * 带着 Budget 的环境. 执行的入口 (BudgetInterpreter, ScriptServer 等) 把
+ * 全局环境做成 Metered, 求值时用 Budget.of 沿着环境的外层找到它.
+ */
+public interface Metered {
+    Budget budget();
+}
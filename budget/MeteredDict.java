@@ -0,0 +1,26 @@
+package budget;
+
+import chap10.DictValue;
+
+/*
+ * 扩大哈希表时按新表的大小计入 Budget 的字典. Budget 在创建时传进来,
+ * 不需要每次去找.
+ */
+public class MeteredDict extends DictValue {
+    protected final Budget budget;
+
+    public MeteredDict(Budget b) {
+        budget = b;
+        b.allocate(Budget.DICT_BYTES, null);
+    }
+
+    protected void growInts() {
+        budget.allocate(Budget.ENTRY_BYTES * 2L * intKeys.length, null);
+        super.growInts();
+    }
+
+    protected void growStrings() {
+        budget.allocate(Budget.ENTRY_BYTES * 2L * strKeys.length, null);
+        super.growStrings();
+    }
+}
@@ -0,0 +1,40 @@
+package chap10;
+
+import java.util.List;
+import javassist.gluonj.*;
+import stone.ast.*;
+import chap6.Environment;
+import chap6.BasicEvaluator.ASTreeEx;
+import chap6.BasicEvaluator.BinaryEx;
+import chap7.FuncEvaluator.PrimaryEx;
+import chap8.NativeEvaluator;
+
+@Require(NativeEvaluator.class)
+@Reviser public class ArrayEvaluator {
+    @Reviser
+    public static class ArrayRefEx extends ArrayRef {
+        public ArrayRefEx(List<ASTree> c) { super(c); }
+        public Object eval(Environment env, Object value) {
+            return Subscript.get(value, ((ASTreeEx)index()).eval(env), this);
+        }
+    }
+
+    @Reviser
+    public static class AssignEx extends BinaryEx {
+        public AssignEx(List<ASTree> c) { super(c); }
+        protected Object computeAssign(Environment env, Object rvalue) {
+            ASTree le = left();
+            if (le instanceof PrimaryExpr) {
+                PrimaryEx p = (PrimaryEx)le;
+                if (p.hasPostfix(0) && p.postfix(0) instanceof ArrayRef) {
+                    Object a = p.evalSubExpr(env, 1);
+                    ArrayRef aref = (ArrayRef)p.postfix(0);
+                    Object index = ((ASTreeEx)aref.index()).eval(env);
+                    Subscript.set(a, index, rvalue, this);
+                    return rvalue;
+                }
+            }
+            return super.computeAssign(env, rvalue);
+        }
+    }
+}
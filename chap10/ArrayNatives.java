@@ -0,0 +1,23 @@
+package chap10;
+
+import chap8.Natives;
+
+/*
+ * 数组用的原生函数. length 同时接受字符串和数组.
+ */
+public class ArrayNatives extends Natives {
+    protected void appendNatives() {
+        super.appendNatives();
+        append("newArray", ArrayNatives.class, "newArray", int.class);
+        append("length", ArrayNatives.class, "length", Object.class);
+    }
+
+    public static ArrayValue newArray(int size) { return new ArrayValue(size); }
+
+    public static int length(Object value) {
+        if (value instanceof ArrayValue)
+            return ((ArrayValue)value).length();
+        else
+            return String.valueOf(value).length();
+    }
+}
@@ -0,0 +1,9 @@
+package chap10;
+
+import javassist.gluonj.util.Loader;
+
+public class ArrayRunner {
+    public static void main(String[] args) throws Throwable {
+        Loader.run(ArrayInterpreter.class, args, ArrayEvaluator.class);
+    }
+}
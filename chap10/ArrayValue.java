@@ -0,0 +1,102 @@
+package chap10;
+
+import stone.StoneException;
+import stone.ast.ASTree;
+
+/*
+ * Stone 的数组.
+ *
+ * 元素全是整数时保存在 int[] 中, 不需要装箱. 一旦写入了整数以外的值,
+ * 整个数组转换成 Object[], 之后不再转换回来. 创建后长度不变.
+ * 并行任务不能修改别处创建的数组, 见 Owner.
+ */
+public class ArrayValue {
+    protected int[] ints;
+    protected Object[] objects;
+    protected final int length;
+    protected final Object owner = Owner.current();
+
+    public ArrayValue(int length) {
+        if (length < 0)
+            throw new StoneException("bad array size: " + length);
+
+        this.length = length;
+        ints = new int[length];
+    }
+
+    public int length() { return length; }
+    public boolean isIntArray() { return ints != null; }
+
+    public Object get(int index, ASTree where) {
+        check(index, where);
+        int[] a = ints;
+        if (a != null)
+            return a[index];
+        else
+            return objects[index];
+    }
+
+    public int getInt(int index, ASTree where) {
+        check(index, where);
+        int[] a = ints;
+        if (a != null)
+            return a[index];
+        else if (objects[index] instanceof Integer)
+            return ((Integer)objects[index]).intValue();
+        else
+            throw new StoneException("bad type: int is expected", where);
+    }
+
+    public void set(int index, Object value, ASTree where) {
+        check(index, where);
+        Owner.check(owner, "array", where);
+        int[] a = ints;
+        if (a != null) {
+            if (value instanceof Integer) {
+                a[index] = ((Integer)value).intValue();
+                return;
+            }
+            else
+                toObjects();
+        }
+        objects[index] = value;
+    }
+
+    public void setInt(int index, int value, ASTree where) {
+        check(index, where);
+        Owner.check(owner, "array", where);
+        int[] a = ints;
+        if (a != null)
+            a[index] = value;
+        else
+            objects[index] = value;
+    }
+
+    protected void check(int index, ASTree where) {
+        if (index < 0 || index >= length)
+            throw new StoneException("index out of bounds: " + index, where);
+    }
+
+    protected void toObjects() {
+        Object[] objs = new Object[length];
+        for (int i = 0; i < length; i++)
+            objs[i] = ints[i];
+
+        objects = objs;
+        ints = null;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < length; i++) {
+            if (i > 0)
+                sb.append(", ");
+
+            if (ints != null)
+                sb.append(ints[i]);
+            else
+                sb.append(objects[i]);
+        }
+        return sb.append(']').toString();
+    }
+}
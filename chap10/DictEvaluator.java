@@ -0,0 +1,27 @@
+package chap10;
+
+import java.util.List;
+import javassist.gluonj.*;
+import stone.ast.*;
+import chap6.Environment;
+import chap6.BasicEvaluator.ASTreeEx;
+
+@Require(ArrayEvaluator.class)
+@Reviser public class DictEvaluator {
+    @Reviser
+    public static class DictLiteralEx extends DictLiteral {
+        public DictLiteralEx(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) {
+            DictValue dict = newDict(env);
+            int s = size();
+            for (int i = 0; i < s; i++) {
+                DictEntry e = entry(i);
+                Object key = ((ASTreeEx)e.key()).eval(env);
+                dict.put(key, ((ASTreeEx)e.value()).eval(env), e);
+            }
+            return dict;
+        }
+
+        protected DictValue newDict(Environment env) { return new DictValue(); }
+    }
+}
@@ -0,0 +1,50 @@
+package chap10;
+
+import stone.StoneException;
+
+/*
+ * 字典用的原生函数. keys 和 values 返回数组, 用来遍历字典.
+ */
+public class DictNatives extends ArrayNatives {
+    protected void appendNatives() {
+        super.appendNatives();
+        append("newDict", DictNatives.class, "newDict");
+        append("get", DictNatives.class, "get", Object.class, Object.class);
+        append("put", DictNatives.class, "put", Object.class, Object.class,
+               Object.class);
+        append("contains", DictNatives.class, "contains", Object.class,
+               Object.class);
+        append("size", DictNatives.class, "size", Object.class);
+        append("keys", DictNatives.class, "keys", Object.class);
+        append("values", DictNatives.class, "values", Object.class);
+    }
+
+    public static DictValue newDict() { return new DictValue(); }
+
+    public static Object get(Object dict, Object key) {
+        return toDict(dict).get(key, null);
+    }
+
+    public static Object put(Object dict, Object key, Object value) {
+        toDict(dict).put(key, value, null);
+        return value;
+    }
+
+    public static boolean contains(Object dict, Object key) {
+        return toDict(dict).contains(key, null);
+    }
+
+    public static int size(Object dict) { return toDict(dict).size(); }
+    public static ArrayValue keys(Object dict) { return toDict(dict).keys(); }
+
+    public static ArrayValue values(Object dict) {
+        return toDict(dict).values();
+    }
+
+    protected static DictValue toDict(Object value) {
+        if (value instanceof DictValue)
+            return (DictValue)value;
+        else
+            throw new StoneException("bad type: dictionary is expected");
+    }
+}
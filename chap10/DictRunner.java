@@ -0,0 +1,9 @@
+package chap10;
+
+import javassist.gluonj.util.Loader;
+
+public class DictRunner {
+    public static void main(String[] args) throws Throwable {
+        Loader.run(DictInterpreter.class, args, DictEvaluator.class);
+    }
+}
@@ -0,0 +1,244 @@
+package chap10;
+
+import stone.StoneException;
+import stone.ast.ASTree;
+import chap6.Rope;
+
+/*
+ * Stone 的字典. 键是整数或字符串.
+ *
+ * 两种键分别保存在两张开放定址 (线性探测) 的表中. 整数键的表用 int[] 保存键,
+ * 按 int 查找时既不装箱也不分配任何对象. 值为 null 的槽位是空槽, 所以值不能是
+ * null. 装载率超过 2/3 时容量加倍. 不支持删除.
+ */
+public class DictValue {
+    protected static final int INITIAL_CAPACITY = 8;
+
+    protected int[] intKeys;
+    protected Object[] intValues;
+    protected int intSize;
+
+    protected String[] strKeys;
+    protected Object[] strValues;
+    protected int strSize;
+
+    /* 并行任务不能修改别处创建的字典, 见 Owner */
+    protected final Object owner = Owner.current();
+
+    public int size() { return intSize + strSize; }
+
+    public Object get(Object key, ASTree where) {
+        Object v = lookup(key, where);
+        if (v == null)
+            throw new StoneException("no such key: " + key, where);
+        else
+            return v;
+    }
+
+    /* 没有 key 时返回 null */
+    public Object lookup(Object key, ASTree where) {
+        key = Rope.flatten(key);
+        if (key instanceof Integer)
+            return lookup(((Integer)key).intValue());
+        else if (key instanceof String)
+            return lookup((String)key);
+        else
+            throw new StoneException("bad dictionary key: " + key, where);
+    }
+
+    public boolean contains(Object key, ASTree where) {
+        return lookup(key, where) != null;
+    }
+
+    public void put(Object key, Object value, ASTree where) {
+        if (value == null)
+            throw new StoneException("bad dictionary value", where);
+
+        key = Rope.flatten(key);
+        Owner.check(owner, "dict", where);
+        if (key instanceof Integer)
+            store(((Integer)key).intValue(), value);
+        else if (key instanceof String)
+            store((String)key, value);
+        else
+            throw new StoneException("bad dictionary key: " + key, where);
+    }
+
+    protected static int slot(int hash, int mask) {
+        int h = hash * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public Object lookup(int key) {
+        int[] keys = intKeys;
+        if (keys == null)
+            return null;
+
+        Object[] values = intValues;
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); values[i] != null; i = (i + 1) & mask)
+            if (keys[i] == key)
+                return values[i];
+
+        return null;
+    }
+
+    public void put(int key, Object value) {
+        Owner.check(owner, "dict", null);
+        store(key, value);
+    }
+
+    protected void store(int key, Object value) {
+        if (intKeys == null) {
+            intKeys = new int[INITIAL_CAPACITY];
+            intValues = new Object[INITIAL_CAPACITY];
+        }
+
+        int mask = intKeys.length - 1;
+        int i = slot(key, mask);
+        while (intValues[i] != null) {
+            if (intKeys[i] == key) {
+                intValues[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+
+        intKeys[i] = key;
+        intValues[i] = value;
+        if (++intSize * 3 > intKeys.length * 2)
+            growInts();
+    }
+
+    protected void growInts() {
+        int[] oldKeys = intKeys;
+        Object[] oldValues = intValues;
+        int mask = oldKeys.length * 2 - 1;
+        intKeys = new int[mask + 1];
+        intValues = new Object[mask + 1];
+        for (int k = 0; k < oldKeys.length; k++)
+            if (oldValues[k] != null) {
+                int i = slot(oldKeys[k], mask);
+                while (intValues[i] != null)
+                    i = (i + 1) & mask;
+
+                intKeys[i] = oldKeys[k];
+                intValues[i] = oldValues[k];
+            }
+    }
+
+    public Object lookup(String key) {
+        String[] keys = strKeys;
+        if (keys == null)
+            return null;
+
+        Object[] values = strValues;
+        int mask = keys.length - 1;
+        for (int i = slot(key.hashCode(), mask); values[i] != null;
+             i = (i + 1) & mask)
+            if (keys[i].equals(key))
+                return values[i];
+
+        return null;
+    }
+
+    public void put(String key, Object value) {
+        Owner.check(owner, "dict", null);
+        store(key, value);
+    }
+
+    protected void store(String key, Object value) {
+        if (strKeys == null) {
+            strKeys = new String[INITIAL_CAPACITY];
+            strValues = new Object[INITIAL_CAPACITY];
+        }
+
+        int mask = strKeys.length - 1;
+        int i = slot(key.hashCode(), mask);
+        while (strValues[i] != null) {
+            if (strKeys[i].equals(key)) {
+                strValues[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+
+        strKeys[i] = key;
+        strValues[i] = value;
+        if (++strSize * 3 > strKeys.length * 2)
+            growStrings();
+    }
+
+    protected void growStrings() {
+        String[] oldKeys = strKeys;
+        Object[] oldValues = strValues;
+        int mask = oldKeys.length * 2 - 1;
+        strKeys = new String[mask + 1];
+        strValues = new Object[mask + 1];
+        for (int k = 0; k < oldKeys.length; k++)
+            if (oldValues[k] != null) {
+                int i = slot(oldKeys[k].hashCode(), mask);
+                while (strValues[i] != null)
+                    i = (i + 1) & mask;
+
+                strKeys[i] = oldKeys[k];
+                strValues[i] = oldValues[k];
+            }
+    }
+
+    /* 键的数组. 整数键在前, 字符串键在后, 各自按槽位的顺序 */
+    public ArrayValue keys() {
+        ArrayValue a = new ArrayValue(size());
+        int n = 0;
+        if (intKeys != null)
+            for (int i = 0; i < intKeys.length; i++)
+                if (intValues[i] != null)
+                    a.setInt(n++, intKeys[i], null);
+
+        if (strKeys != null)
+            for (int i = 0; i < strKeys.length; i++)
+                if (strValues[i] != null)
+                    a.set(n++, strKeys[i], null);
+
+        return a;
+    }
+
+    /* 值的数组, 与 keys 的顺序相同 */
+    public ArrayValue values() {
+        ArrayValue a = new ArrayValue(size());
+        int n = 0;
+        if (intKeys != null)
+            for (int i = 0; i < intKeys.length; i++)
+                if (intValues[i] != null)
+                    a.set(n++, intValues[i], null);
+
+        if (strKeys != null)
+            for (int i = 0; i < strKeys.length; i++)
+                if (strValues[i] != null)
+                    a.set(n++, strValues[i], null);
+
+        return a;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        String sep = "";
+        if (intKeys != null)
+            for (int i = 0; i < intKeys.length; i++)
+                if (intValues[i] != null) {
+                    sb.append(sep).append(intKeys[i]).append(": ")
+                      .append(intValues[i]);
+                    sep = ", ";
+                }
+
+        if (strKeys != null)
+            for (int i = 0; i < strKeys.length; i++)
+                if (strValues[i] != null) {
+                    sb.append(sep).append('"').append(strKeys[i]).append("\": ")
+                      .append(strValues[i]);
+                    sep = ", ";
+                }
+
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,49 @@
+package chap10;
+
+import stone.StoneException;
+import stone.ast.ASTree;
+
+/*
+ * 数组和字典的所有者.
+ *
+ * 并行任务 (parallel.Parallel) 执行期间, 线程的 owner 是这个任务. 容器
+ * 创建时记下当时的 owner, 任务中只能修改自己创建的容器, 修改外面的容器
+ * (多个任务可能同时写它) 时抛出 StoneException.
+ * 没有任务在执行时 (active == 0) 创建和修改容器只多读一次 active.
+ */
+public final class Owner {
+    private static volatile int active;
+    private static final ThreadLocal<Object> owners = new ThreadLocal<Object>();
+
+    private Owner() {}
+
+    public static Object current() {
+        return active == 0 ? null : owners.get();
+    }
+
+    /* 当前线程开始执行 task. 返回之前的 owner, 交给 exit */
+    public static Object enter(Object task) {
+        synchronized (Owner.class) {
+            active++;
+        }
+        Object saved = owners.get();
+        owners.set(task);
+        return saved;
+    }
+
+    public static void exit(Object saved) {
+        owners.set(saved);
+        synchronized (Owner.class) {
+            active--;
+        }
+    }
+
+    static void check(Object owner, String what, ASTree where) {
+        if (active != 0) {
+            Object task = owners.get();
+            if (task != null && task != owner)
+                throw new StoneException("cannot modify a shared " + what
+                                         + " in a parallel task", where);
+        }
+    }
+}
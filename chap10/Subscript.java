@@ -0,0 +1,37 @@
+package chap10;
+
+import stone.StoneException;
+import stone.ast.ASTree;
+
+/*
+ * 下标访问 target[index] 的语义. 解释器 (ArrayEvaluator) 和
+ * jit 编译后的代码都调用这里.
+ */
+public class Subscript {
+    public static Object get(Object target, Object index, ASTree where) {
+        if (target instanceof ArrayValue)
+            return ((ArrayValue)target).get(toIndex(index, where), where);
+        else if (target instanceof DictValue)
+            return ((DictValue)target).get(index, where);
+        else
+            throw new StoneException("bad array access", where);
+    }
+
+    public static void set(Object target, Object index, Object value,
+                           ASTree where)
+    {
+        if (target instanceof ArrayValue)
+            ((ArrayValue)target).set(toIndex(index, where), value, where);
+        else if (target instanceof DictValue)
+            ((DictValue)target).put(index, value, where);
+        else
+            throw new StoneException("bad array access", where);
+    }
+
+    protected static int toIndex(Object index, ASTree where) {
+        if (index instanceof Integer)
+            return ((Integer)index).intValue();
+        else
+            throw new StoneException("bad array index", where);
+    }
+}
@@ -118,8 +118,10 @@ public class BasicEvaluator {
             }
             else {
                 if (op.equals("+"))
-                    return String.valueOf(left) + String.valueOf(right);
+                    return Rope.concat(left, right);
                 else if (op.equals("==")) {
+                    left = Rope.flatten(left);
+                    right = Rope.flatten(right);
                     if (left == null)
                         return right == null ? TRUE : FALSE;
                     else
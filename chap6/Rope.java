@@ -0,0 +1,120 @@
+package chap6;
+
+/*
+ * 字符串的 + 运算结果.
+ *
+ * s = s + "..." 这样在 while 里反复拼接字符串时, 如果每次都生成新的 String,
+ * 复制的总量是 O(n^2). Rope 只记录左右两个操作数 (String 或 Rope), 直到
+ * 字符串真正被"观察"时 (==, 打印, 传给 Java 代码...) 才调用 toString 展开
+ * (flatten). 展开的结果会缓存下来, 同时丢掉左右子树, 因此对同一个 Rope 的
+ * 多次观察只付一次复制的代价, 以它为子树的更大的 Rope 也直接复用这个结果.
+ *
+ * 拼接结果较短时直接生成 String, 不值得为它建一棵树.
+ */
+public class Rope {
+    public static final int FLAT_LIMIT = 64;
+
+    private volatile Object left, right;     // String or Rope
+    private volatile String flat;
+    private final int length;
+
+    protected Rope(Object l, Object r, int len) {
+        left = l;
+        right = r;
+        length = len;
+    }
+
+    /* + 运算. 操作数不是字符串时按 String.valueOf 转换 */
+    public static Object concat(Object l, Object r) {
+        if (!(l instanceof Rope))
+            l = String.valueOf(l);
+        if (!(r instanceof Rope))
+            r = String.valueOf(r);
+
+        int len = length(l) + length(r);
+        if (len <= FLAT_LIMIT)
+            return l.toString().concat(r.toString());
+        else
+            return new Rope(l, r, len);
+    }
+
+    private static int length(Object v) {
+        return v instanceof Rope ? ((Rope)v).length : ((String)v).length();
+    }
+
+    /* Rope 换成 String, 其余的值原样返回 */
+    public static Object flatten(Object v) {
+        return v instanceof Rope ? v.toString() : v;
+    }
+
+    public int length() { return length; }
+
+    public boolean isFlat() { return flat != null; }
+
+    public String toString() {
+        String s = flat;
+        if (s == null)
+            s = flattenNow();
+        return s;
+    }
+
+    public boolean equals(Object obj) {
+        if (obj instanceof Rope || obj instanceof String)
+            return toString().equals(obj.toString());
+        else
+            return false;
+    }
+
+    public int hashCode() { return toString().hashCode(); }
+
+    /*
+     * 由右向左填充字符数组. 左倾的长链 (循环拼接的典型形状) 可能非常深,
+     * 所以不能递归, 这里使用显式的栈. 子树若已经展开过, 直接复制其结果.
+     * flat 先于 left/right 写入, 读到 null 的子树时重新读 flat 即可.
+     */
+    private synchronized String flattenNow() {
+        if (flat != null)
+            return flat;
+
+        char[] buf = new char[length];
+        int end = length;
+        Object[] stack = new Object[16];
+        int sp = 0;
+        stack[sp++] = left;
+        stack[sp++] = right;
+        while (sp > 0) {
+            Object v = stack[--sp];
+            stack[sp] = null;
+            String s;
+            if (v instanceof Rope) {
+                Rope r = (Rope)v;
+                s = r.flat;
+                if (s == null) {
+                    Object a = r.left, b = r.right;
+                    if (a != null && b != null) {
+                        if (sp + 2 > stack.length) {
+                            Object[] newStack = new Object[stack.length * 2];
+                            System.arraycopy(stack, 0, newStack, 0, sp);
+                            stack = newStack;
+                        }
+                        stack[sp++] = a;
+                        stack[sp++] = b;
+                        continue;
+                    }
+                    else
+                        s = r.toString();
+                }
+            }
+            else
+                s = v.toString();
+
+            end -= s.length();
+            s.getChars(0, s.length(), buf, end);
+        }
+
+        String result = String.valueOf(buf);
+        flat = result;
+        left = right = null;
+        return result;
+    }
+}
@@ -0,0 +1,103 @@
+package chap7;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import stone.ast.*;
+
+/*
+ * def 的逃逸分析: 找出被嵌套的 def 捕获的变量.
+ *
+ * 函数的局部变量 (参数, 被赋值的变量名, 嵌套 def 的函数名) 中, 没有被任何
+ * 嵌套 def 引用的部分放在 FrameEnv 的数组里 (slots), 调用时不再分配 NestedEnv
+ * 和它的 HashMap. 被引用的部分 (captured) 放在一个单独的 NestedEnv 中, 嵌套
+ * def 生成的闭包只引用这一层, 不会让整个调用的栈帧一直存活.
+ *
+ * 嵌套 def 中出现的变量名, 除了它自己的参数和它内部 def 的函数名之外, 都可能
+ * 解析到外层 (赋值也可能写到外层, 见 NestedEnv.put), 所以都算作引用.
+ */
+public class Capture {
+    protected String[] slots;
+    protected String[] captured;
+
+    protected Capture(String[] s, String[] c) {
+        slots = s;
+        captured = c;
+    }
+
+    public String[] slots() { return slots; }
+    public String[] captured() { return captured; }
+    public boolean captures() { return captured.length > 0; }
+
+    public static Capture analyze(DefStmnt def) {
+        LinkedHashSet<String> locals = new LinkedHashSet<String>();
+        ParameterList params = def.parameters();
+        for (int i = 0; i < params.size(); i++)
+            locals.add(params.name(i).intern());
+
+        ArrayList<DefStmnt> nested = new ArrayList<DefStmnt>();
+        collectLocals(def.body(), locals, nested);
+
+        HashSet<String> referred = new HashSet<String>();
+        for (DefStmnt d: nested)
+            referred.addAll(freeNames(d));
+
+        ArrayList<String> slots = new ArrayList<String>();
+        ArrayList<String> captured = new ArrayList<String>();
+        for (String name: locals)
+            if (referred.contains(name))
+                captured.add(name);
+            else
+                slots.add(name);
+
+        return new Capture(slots.toArray(new String[slots.size()]),
+                           captured.toArray(new String[captured.size()]));
+    }
+
+    private static void collectLocals(ASTree t, LinkedHashSet<String> locals,
+                                      ArrayList<DefStmnt> nested)
+    {
+        if (t instanceof DefStmnt) {
+            locals.add(((DefStmnt)t).name().intern());
+            nested.add((DefStmnt)t);
+            return;
+        }
+        else if (t instanceof BinaryExpr) {
+            BinaryExpr b = (BinaryExpr)t;
+            if ("=".equals(b.operator()) && b.left() instanceof Name)
+                locals.add(((Name)b.left()).name().intern());
+        }
+
+        for (ASTree c: t)
+            collectLocals(c, locals, nested);
+    }
+
+    private static HashSet<String> freeNames(DefStmnt def) {
+        HashSet<String> names = new HashSet<String>();
+        ArrayList<DefStmnt> nested = new ArrayList<DefStmnt>();
+        collectNames(def.body(), names, nested);
+        for (DefStmnt d: nested)
+            names.addAll(freeNames(d));
+
+        ParameterList params = def.parameters();
+        for (int i = 0; i < params.size(); i++)
+            names.remove(params.name(i));
+
+        for (DefStmnt d: nested)
+            names.remove(d.name());
+
+        return names;
+    }
+
+    private static void collectNames(ASTree t, HashSet<String> names,
+                                     ArrayList<DefStmnt> nested)
+    {
+        if (t instanceof DefStmnt)
+            nested.add((DefStmnt)t);
+        else if (t instanceof Name)
+            names.add(((Name)t).name());
+        else
+            for (ASTree c: t)
+                collectNames(c, names, nested);
+    }
+}
@@ -0,0 +1,97 @@
+package chap7;
+
+import chap6.Environment;
+import chap7.FuncEvaluator.EnvEx;
+import stone.Monitor;
+
+/*
+ * 函数调用的环境. 变量名在 def 时就确定了 (见 Capture), 值保存在数组里,
+ * 不分配 HashMap. 语义与 NestedEnv 相同: 值为 null 的变量视为不存在, 赋值
+ * 时如果本层没有, 而外层有同名变量, 写到外层.
+ *
+ * 被嵌套 def 捕获的变量不在数组中, 而在 outer 这一层 SymbolEnv 里 (scope),
+ * 闭包只引用 scope. 没有被捕获的变量时 outer 就是函数定义时的环境.
+ */
+public class FrameEnv implements Environment {
+    protected String[] names;
+    protected Object[] values;
+    protected Environment outer;
+    protected Environment enclosing;
+
+    public FrameEnv(Capture c, Environment env) {
+        names = c.slots();
+        values = new Object[names.length];
+        enclosing = env;
+        if (Monitor.ENABLED)
+            Monitor.current().environment();
+
+        if (c.captures())
+            outer = new SymbolEnv(env);
+        else
+            outer = env;
+    }
+
+    /* 函数定义时的环境 */
+    public Environment enclosing() { return enclosing; }
+
+    /* 在本环境中 def 的函数所引用的环境 */
+    public Environment closureEnv() { return outer; }
+
+    protected int indexOf(String name) {
+        String[] ns = names;
+        for (int i = 0; i < ns.length; i++)
+            if (ns[i] == name || ns[i].equals(name))
+                return i;
+
+        return -1;
+    }
+
+    public Object get(String name) {
+        if (Monitor.ENABLED)
+            Monitor.current().level();
+
+        int i = indexOf(name);
+        if (i >= 0 && values[i] != null)
+            return values[i];
+        else
+            return outer.get(name);
+    }
+
+    public void putNew(String name, Object value) {
+        int i = indexOf(name);
+        if (i >= 0)
+            values[i] = value;
+        else
+            ((EnvEx)scope()).putNew(name, value);
+    }
+
+    public void put(String name, Object value) {
+        int i = indexOf(name);
+        if (i >= 0 && values[i] != null)
+            values[i] = value;
+        else if (!SymbolEnv.update(outer, name, value)) {
+            if (i >= 0)
+                values[i] = value;
+            else
+                ((EnvEx)scope()).putNew(name, value);
+        }
+    }
+
+    public Environment where(String name) {
+        int i = indexOf(name);
+        if (i >= 0 && values[i] != null)
+            return this;
+        else
+            return ((EnvEx)outer).where(name);
+    }
+
+    public void setOuter(Environment e) { outer = e; }
+
+    /* Capture 之外的名字 (例如 Interpret 执行的代码中动态出现的) 放在这里 */
+    protected Environment scope() {
+        if (outer == enclosing)
+            outer = new SymbolEnv(enclosing);
+
+        return outer;
+    }
+}
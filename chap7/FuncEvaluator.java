@@ -2,7 +2,6 @@ package chap7;
 
 import java.util.List;
 import javassist.gluonj.*;
-import stone.StoneException;
 import stone.ast.*;
 import chap6.BasicEvaluator;
 import chap6.Environment;
@@ -20,12 +19,37 @@ import chap6.BasicEvaluator.BlockEx;
 
     @Reviser
     public static class DefStmntEx extends DefStmnt {
+        /*
+         * 第一次执行 def 时分析函数体 (尾调用, purity, capture). 多个线程
+         * 可能同时分析, 结果相同. analyzed 在各个结果写入之后才设置, 读到
+         * true 的线程也能看到这些结果.
+         */
+        protected volatile boolean analyzed;
+        protected Purity purity;
+        protected Capture capture;
         public DefStmntEx(List<ASTree> c) { super(c); }
         public Object eval(Environment env) {
-            ((EnvEx)env).putNew(name(), 
-                                new Function(parameters(), body(), env));
+            ((EnvEx)env).putNew(name(), makeFunction(env));
             return name();
         }
+
+        /* env 是 def 所在的环境 */
+        public Function makeFunction(Environment env) {
+            if (!analyzed) {
+                TailCall.mark(body());
+                purity = Purity.analyze(this);
+                capture = Capture.analyze(this);
+                analyzed = true;
+            }
+            Environment closure = env;
+            if (env instanceof FrameEnv)
+                closure = ((FrameEnv)env).closureEnv();
+
+            Function func = new Function(parameters(), body(), closure);
+            func.setPurity(purity);
+            func.setCapture(capture);
+            return func;
+        }
     }
 
     @Reviser
@@ -58,31 +82,37 @@ import chap6.BasicEvaluator.BlockEx;
 
     @Reviser
     public static class ArgumentsEx extends Arguments {
+        protected InlineCache cache;
+        protected boolean tail;
         public ArgumentsEx(List<ASTree> c) { super(c); }
+        public boolean isTail() { return tail; }
         public Object eval(Environment callerEnv, Object value) {
-            if (!(value instanceof Function))
-                throw new StoneException("bad function", this);
+            InlineCache ic = cache;
+            if (ic == null)
+                cache = ic = new InlineCache();
+
+            String[] names = ic.lookup(value);
+            if (names == null)
+                names = ic.miss(value, size(), this);
 
             Function func = (Function)value;
-            ParameterList params = func.parameters();
-            if (size() != params.size())
-                throw new StoneException("bad number of arguments", this);
+            MemoTable memo = tail ? null : MemoTable.of(func);
+            if (memo != null) {
+                Object[] args = new Object[names.length];
+                for (int i = 0; i < args.length; i++)
+                    args[i] = ((ASTreeEx)child(i)).eval(callerEnv);
 
-            Environment newEnv = func.makeEnv();
-            int num = 0;
-            for (ASTree a: this)
-                ((ParamsEx)params).eval(newEnv, num++,
-                                        ((ASTreeEx)a).eval(callerEnv));
+                return memo.invoke(func, names, args);
+            }
 
-            return ((BlockEx)func.body()).eval(newEnv);
-        }
-    }
+            EnvEx newEnv = (EnvEx)func.makeEnv();
+            for (int i = 0; i < names.length; i++)
+                newEnv.putNew(names[i], ((ASTreeEx)child(i)).eval(callerEnv));
 
-    @Reviser
-    public static class ParamsEx extends ParameterList {
-        public ParamsEx(List<ASTree> c) { super(c); }
-        public void eval(Environment env, int index, Object value) {
-            ((EnvEx)env).putNew(name(index), value);
+            if (tail)
+                return new TailCall(func, newEnv);
+            else
+                return TailCall.trampoline(((BlockEx)func.body()).eval(newEnv));
         }
     }
 }
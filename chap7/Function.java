@@ -8,6 +8,9 @@ public class Function {
     protected ParameterList parameters;
     protected BlockStmnt body;
     protected Environment env;
+    protected Purity purity;
+    protected MemoTable memo;
+    protected Capture capture;
 
     public Function(ParameterList parameters, BlockStmnt body,
                     Environment env)
@@ -19,7 +22,18 @@ public class Function {
 
     public ParameterList parameters() { return parameters; }
     public BlockStmnt body() { return body; }
-    public Environment makeEnv() { return new NestedEnv(env); }
+    public Environment environment() { return env; }
+    public Purity purity() { return purity; }
+    public void setPurity(Purity p) { purity = p; }
+    public Capture capture() { return capture; }
+    public void setCapture(Capture c) { capture = c; }
+
+    public Environment makeEnv() {
+        if (capture == null)
+            return new SymbolEnv(env);
+        else
+            return new FrameEnv(capture, env);
+    }
 
     @Override
     public String toString() { return "<fun:" + hashCode() + ">"; }
@@ -0,0 +1,111 @@
+package chap7;
+
+import java.util.concurrent.atomic.LongAdder;
+import stone.StoneException;
+import stone.ast.ASTree;
+import stone.ast.ParameterList;
+
+/*
+ * 调用点(call site)的内联缓存.
+ *
+ * 每个 ArgumentsEx 节点持有一个 InlineCache. 缓存的 key 是被调函数的
+ * ParameterList, 同一个 def 产生的所有 Function (包括闭包) 共享同一个
+ * ParameterList, 因此它们共享同一条缓存项. 缓存项中保存已经校验过的参数个数
+ * 和预先取出的参数名数组(binding plan), 命中时可以跳过 instanceof / 参数个数
+ * 检查和逐个 name(index) 的查找. miss 时由 miss() 做这些检查并生成 binding
+ * plan, ArgumentsEx 总是按 binding plan 绑定参数.
+ *
+ * 状态迁移: 空 -> 单态(1 项) -> 多态(最多 MAX_ENTRIES 项) -> 超态(不再缓存).
+ * entries 数组只会整体替换(copy-on-write), 多线程下最坏情况只是多一次 miss.
+ */
+public class InlineCache {
+    public static final int MAX_ENTRIES = 4;
+
+    protected static final class Entry {
+        final ParameterList params;
+        final String[] names;
+        Entry(ParameterList p, String[] n) { params = p; names = n; }
+    }
+
+    private static final Entry[] EMPTY = new Entry[0];
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder megamorphicMisses = new LongAdder();
+
+    private volatile Entry[] entries = EMPTY;
+    private volatile boolean megamorphic = false;
+
+    /* 命中则返回 binding plan, 否则返回 null */
+    public String[] lookup(Object value) {
+        if (value instanceof Function) {
+            ParameterList params = ((Function)value).parameters();
+            Entry[] es = entries;
+            for (int i = 0; i < es.length; i++)
+                if (es[i].params == params) {
+                    hits.increment();
+                    return es[i].names;
+                }
+        }
+
+        return null;
+    }
+
+    /* 未命中: 做完整的检查, 计算 binding plan, 并尽可能记入缓存 */
+    public String[] miss(Object value, int numArgs, ASTree where) {
+        if (!(value instanceof Function))
+            throw new StoneException("bad function", where);
+
+        ParameterList params = ((Function)value).parameters();
+        if (numArgs != params.size())
+            throw new StoneException("bad number of arguments", where);
+
+        String[] names = new String[params.size()];
+        for (int i = 0; i < names.length; i++)
+            names[i] = params.name(i);
+
+        if (megamorphic)
+            megamorphicMisses.increment();
+        else {
+            misses.increment();
+            Entry[] es = entries;
+            if (es.length < MAX_ENTRIES) {
+                Entry[] newEntries = new Entry[es.length + 1];
+                System.arraycopy(es, 0, newEntries, 0, es.length);
+                newEntries[es.length] = new Entry(params, names);
+                entries = newEntries;
+            }
+            else {
+                megamorphic = true;
+                entries = EMPTY;
+            }
+        }
+
+        return names;
+    }
+
+    public int size() { return entries.length; }
+    public boolean isMonomorphic() { return entries.length == 1; }
+    public boolean isMegamorphic() { return megamorphic; }
+
+    public static long hits() { return hits.sum(); }
+    public static long misses() { return misses.sum(); }
+    public static long megamorphicMisses() { return megamorphicMisses.sum(); }
+
+    public static double hitRate() {
+        long h = hits();
+        long total = h + misses() + megamorphicMisses();
+        return total == 0 ? 0.0 : (double)h / total;
+    }
+
+    public static void resetStats() {
+        hits.reset();
+        misses.reset();
+        megamorphicMisses.reset();
+    }
+
+    public static String stats() {
+        return "inline cache: hits=" + hits() + " misses=" + misses()
+               + " megamorphic=" + megamorphicMisses()
+               + " hit-rate=" + hitRate();
+    }
+}
@@ -0,0 +1,208 @@
+package chap7;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import chap6.Environment;
+import chap6.Rope;
+import chap6.BasicEvaluator.BlockEx;
+import chap7.FuncEvaluator.EnvEx;
+
+/*
+ * 纯函数的调用结果缓存.
+ *
+ * 每个 Function 一张表, 表的大小固定 (capacity), 按参数的 hash 直接映射到
+ * 槽位, 冲突时新的结果覆盖旧的 (direct-mapped), 因此内存有上界, 查找和淘汰
+ * 都是 O(1). 表项是不可变对象, 多线程下最坏情况只是多算一次.
+ *
+ * 只处理顶层 def 的函数. Purity 给出的条件中, 依赖于全局环境的部分在这里检查:
+ * 全局环境的 version 变化后重新检查一遍 (沿调用关系传递), 如果 callees
+ * 实际绑定的函数变了, 已缓存的结果全部作废.
+ */
+public class MemoTable {
+    public static volatile boolean enabled = false;
+    public static int capacity = 4096;
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+
+    protected static final class Entry {
+        final Object[] args;
+        final int hash;
+        final Object value;
+        Entry(Object[] a, int h, Object v) { args = a; hash = h; value = v; }
+    }
+
+    protected static final class Check {
+        final Environment env;
+        final int version;
+        final boolean valid;
+        final Function[] callees;
+        Check(Environment e, int ver, boolean ok, Function[] c) {
+            env = e;
+            version = ver;
+            valid = ok;
+            callees = c;
+        }
+    }
+
+    private volatile Entry[] entries;
+    private volatile Check check;
+
+    /* 可以缓存时返回 f 的表, 否则返回 null */
+    public static MemoTable of(Function f) {
+        if (!enabled)
+            return null;
+
+        Purity p = f.purity();
+        if (p == null || !p.isPure())
+            return null;
+
+        MemoTable t = f.memo;
+        if (t == null)
+            f.memo = t = new MemoTable();
+
+        return t.validate(f) ? t : null;
+    }
+
+    protected boolean validate(Function f) {
+        Environment env = f.environment();
+        if (!(env instanceof NestedEnv) || ((NestedEnv)env).outer() != null)
+            return false;
+
+        int version = ((NestedEnv)env).version();
+        Check c = check;
+        if (c != null && c.env == env && c.version == version)
+            return c.valid;
+
+        ArrayList<Function> callees = new ArrayList<Function>();
+        boolean valid = isPure(f, env, new IdentityHashMap<Function,Function>(),
+                               callees);
+        Function[] snapshot = callees.toArray(new Function[callees.size()]);
+        if (c == null || c.env != env || !sameCallees(c.callees, snapshot))
+            entries = null;
+
+        check = new Check(env, version, valid, snapshot);
+        return valid;
+    }
+
+    private static boolean isPure(Function f, Environment env,
+                                  IdentityHashMap<Function,Function> visited,
+                                  ArrayList<Function> callees)
+    {
+        Purity p = f.purity();
+        if (p == null || !p.isPure() || f.environment() != env)
+            return false;
+
+        for (String name: p.locals())
+            if (env.get(name) != null)
+                return false;
+
+        for (String name: p.callees()) {
+            Object g = env.get(name);
+            if (!(g instanceof Function))
+                return false;
+
+            if (visited.put((Function)g, (Function)g) == null) {
+                callees.add((Function)g);
+                if (!isPure((Function)g, env, visited, callees))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameCallees(Function[] a, Function[] b) {
+        if (a.length != b.length)
+            return false;
+
+        for (int i = 0; i < a.length; i++)
+            if (a[i] != b[i])
+                return false;
+
+        return true;
+    }
+
+    /* 参数已经求值完毕的调用. 参数和返回值不是整数或字符串时不缓存 */
+    public Object invoke(Function func, String[] names, Object[] args) {
+        int hash = 17;
+        boolean cacheable = true;
+        for (int i = 0; i < args.length; i++) {
+            Object a = Rope.flatten(args[i]);
+            args[i] = a;
+            if (a instanceof Integer || a instanceof String)
+                hash = hash * 31 + a.hashCode();
+            else
+                cacheable = false;
+        }
+
+        if (cacheable) {
+            Entry[] es = entries;
+            if (es != null) {
+                Entry e = es[(hash ^ (hash >>> 16)) & (es.length - 1)];
+                if (e != null && e.hash == hash && sameArgs(e.args, args)) {
+                    hits.increment();
+                    return e.value;
+                }
+            }
+            misses.increment();
+        }
+
+        EnvEx newEnv = (EnvEx)func.makeEnv();
+        for (int i = 0; i < names.length; i++)
+            newEnv.putNew(names[i], args[i]);
+
+        Object result
+            = Rope.flatten(TailCall.trampoline(((BlockEx)func.body()).eval(newEnv)));
+        if (cacheable && (result instanceof Integer || result instanceof String))
+            store(hash, args, result);
+
+        return result;
+    }
+
+    private void store(int hash, Object[] args, Object value) {
+        Entry[] es = entries;
+        if (es == null)
+            entries = es = new Entry[tableSize()];
+
+        int index = (hash ^ (hash >>> 16)) & (es.length - 1);
+        if (es[index] != null)
+            evictions.increment();
+
+        es[index] = new Entry(args, hash, value);
+    }
+
+    private static int tableSize() {
+        int size = 1;
+        while (size < capacity)
+            size <<= 1;
+
+        return size;
+    }
+
+    private static boolean sameArgs(Object[] a, Object[] b) {
+        for (int i = 0; i < a.length; i++)
+            if (!a[i].equals(b[i]))
+                return false;
+
+        return true;
+    }
+
+    public void clear() { entries = null; }
+
+    public static long hits() { return hits.sum(); }
+    public static long misses() { return misses.sum(); }
+    public static long evictions() { return evictions.sum(); }
+
+    public static void resetStats() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    public static String stats() {
+        return "memo: hits=" + hits() + " misses=" + misses()
+               + " evictions=" + evictions();
+    }
+}
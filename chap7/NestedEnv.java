@@ -3,19 +3,41 @@ package chap7;
 import java.util.HashMap;
 import chap6.Environment;
 import chap7.FuncEvaluator.EnvEx;
+import stone.Monitor;
 
 public class NestedEnv implements Environment {
     protected HashMap<String, Object> values;
     protected Environment outer;
+    protected int version;
     public NestedEnv() { this(null); }
     public NestedEnv(Environment e) { 
-        values = new HashMap<String, Object>();
+        this(e, new HashMap<String, Object>());
+    }
+
+    protected NestedEnv(Environment e, HashMap<String, Object> map) {
+        values = map;
         outer = e;
+        if (Monitor.ENABLED)
+            Monitor.current().environment();
     }
 
     public void setOuter(Environment e) { outer = e; }
+    public Environment outer() { return outer; }
+
+    /* 每次写入都会改变. 用于判断缓存的查找结果是否仍然有效 */
+    public int version() { return version; }
+
+    /* 本层 (不含外层) 的变量名和值 */
+    public String[] names() {
+        return values.keySet().toArray(new String[values.size()]);
+    }
+
+    public Object getLocal(String name) { return values.get(name); }
 
     public Object get(String name) {
+        if (Monitor.ENABLED)
+            Monitor.current().level();
+
         Object v = values.get(name);
         if (v == null && outer != null)
             return outer.get(name);
@@ -23,7 +45,10 @@ public class NestedEnv implements Environment {
             return v;
     }
 
-    public void putNew(String name, Object value) { values.put(name, value); }
+    public void putNew(String name, Object value) {
+        values.put(name, value);
+        version++;
+    }
 
     public void put(String name, Object value) {
         Environment e = where(name);
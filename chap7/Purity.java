@@ -0,0 +1,120 @@
+package chap7;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import stone.ast.*;
+
+/*
+ * def 的纯函数分析 (静态部分).
+ *
+ * 满足下列条件的函数体判定为纯:
+ *   1. 赋值的左边只能是变量名. 参数之外被赋值的变量记入 locals, 这些名字
+ *      在调用时不能在函数外部存在, 否则 NestedEnv.put 会写到外层 (见
+ *      MemoTable.validate);
+ *   2. 读取的变量只能是参数或 locals, 不读取任何外层变量;
+ *   3. 调用的目标只能是外层的函数名, 记入 callees. 这些函数本身也必须是纯的,
+ *      这一点要在调用时根据名字实际绑定的 Function 检查;
+ *   4. 不含嵌套的 def, 调用的 postfix 只能有一个实参列表.
+ * 参数和返回值只能是整数或字符串, 这一点也只能在调用时检查.
+ */
+public class Purity {
+    protected boolean pure;
+    protected String[] locals;
+    protected String[] callees;
+
+    protected Purity(boolean p, String[] l, String[] c) {
+        pure = p;
+        locals = l;
+        callees = c;
+    }
+
+    public boolean isPure() { return pure; }
+    public String[] locals() { return locals; }
+    public String[] callees() { return callees; }
+
+    public static Purity analyze(DefStmnt def) {
+        HashSet<String> params = new HashSet<String>();
+        ParameterList plist = def.parameters();
+        for (int i = 0; i < plist.size(); i++)
+            params.add(plist.name(i));
+
+        HashSet<String> locals = new HashSet<String>();
+        collectAssigned(def.body(), params, locals);
+
+        HashSet<String> callees = new HashSet<String>();
+        boolean pure = check(def.body(), params, locals, callees);
+        return new Purity(pure, toArray(locals), toArray(callees));
+    }
+
+    private static String[] toArray(HashSet<String> set) {
+        return new ArrayList<String>(set).toArray(new String[set.size()]);
+    }
+
+    private static void collectAssigned(ASTree t, HashSet<String> params,
+                                        HashSet<String> locals)
+    {
+        if (t instanceof BinaryExpr) {
+            BinaryExpr b = (BinaryExpr)t;
+            if ("=".equals(b.operator()) && b.left() instanceof Name) {
+                String name = ((Name)b.left()).name();
+                if (!params.contains(name))
+                    locals.add(name);
+            }
+        }
+
+        if (!(t instanceof DefStmnt))
+            for (ASTree c: t)
+                collectAssigned(c, params, locals);
+    }
+
+    private static boolean check(ASTree t, HashSet<String> params,
+                                 HashSet<String> locals,
+                                 HashSet<String> callees)
+    {
+        if (t instanceof NumberLiteral || t instanceof StringLiteral
+            || t instanceof NullStmnt)
+            return true;
+        else if (t instanceof Name) {
+            String name = ((Name)t).name();
+            return params.contains(name) || locals.contains(name);
+        }
+        else if (t instanceof BinaryExpr) {
+            BinaryExpr b = (BinaryExpr)t;
+            if ("=".equals(b.operator()))
+                return b.left() instanceof Name
+                       && check(b.right(), params, locals, callees);
+            else
+                return check(b.left(), params, locals, callees)
+                       && check(b.right(), params, locals, callees);
+        }
+        else if (t instanceof PrimaryExpr) {
+            ASTree operand = t.child(0);
+            if (!(operand instanceof Name) || t.numChildren() != 2
+                || !(t.child(1) instanceof Arguments))
+                return false;
+
+            String name = ((Name)operand).name();
+            if (params.contains(name) || locals.contains(name))
+                return false;
+
+            callees.add(name);
+            return checkChildren(t.child(1), params, locals, callees);
+        }
+        else if (t instanceof NegativeExpr || t instanceof BlockStmnt
+                 || t instanceof IfStmnt || t instanceof WhileStmnt)
+            return checkChildren(t, params, locals, callees);
+        else
+            return false;
+    }
+
+    private static boolean checkChildren(ASTree t, HashSet<String> params,
+                                         HashSet<String> locals,
+                                         HashSet<String> callees)
+    {
+        for (ASTree c: t)
+            if (!check(c, params, locals, callees))
+                return false;
+
+        return true;
+    }
+}
@@ -0,0 +1,183 @@
+package chap7;
+
+import chap6.Environment;
+import chap7.FuncEvaluator.EnvEx;
+import stone.Monitor;
+
+/*
+ * 开放定址 (线性探测) 的环境, 用来代替 NestedEnv 的 HashMap.
+ *
+ * 键是变量名. Lexer 已经把标识符 intern 过, 所以探测时先比较引用, 不同时才
+ * 比较 hash 和内容. 表按需分配, 初始容量很小, 适合只有几个变量的作用域.
+ * 装载率保持在 1/2 以下, 查找不存在的变量 (到外层去找) 时探测也很短.
+ *
+ * 与 NestedEnv 的区别:
+ *   1. 键存在而值为 null 时也算存在, 不会再去外层查找;
+ *   2. put 沿着链只走一遍, 找到就地写入, 找不到才在本层插入.
+ */
+public class SymbolEnv extends NestedEnv {
+    protected static final int INITIAL_CAPACITY = 4;
+
+    protected String[] keys;
+    protected Object[] vals;
+    protected int size;
+
+    public SymbolEnv() { this(null); }
+    public SymbolEnv(Environment e) { super(e, null); }
+
+    protected static int slot(int hash, int mask) {
+        int h = hash * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /* 有 name 时返回槽位, 否则返回 ~(插入位置). 表为空时返回 -1 */
+    protected int probe(String name, int hash) {
+        String[] ks = keys;
+        if (ks == null)
+            return -1;
+
+        int mask = ks.length - 1;
+        int i = slot(hash, mask);
+        for (;;) {
+            String k = ks[i];
+            if (k == null)
+                return ~i;
+            else if (k == name || (k.hashCode() == hash && k.equals(name)))
+                return i;
+
+            i = (i + 1) & mask;
+        }
+    }
+
+    public boolean contains(String name) {
+        return probe(name, name.hashCode()) >= 0;
+    }
+
+    public String[] names() {
+        String[] result = new String[size];
+        if (keys != null) {
+            int n = 0;
+            for (int i = 0; i < keys.length; i++)
+                if (keys[i] != null)
+                    result[n++] = keys[i];
+        }
+        return result;
+    }
+
+    public Object getLocal(String name) {
+        int i = probe(name, name.hashCode());
+        return i >= 0 ? vals[i] : null;
+    }
+
+    public Object get(String name) {
+        if (Monitor.ENABLED)
+            Monitor.current().level();
+
+        int i = probe(name, name.hashCode());
+        if (i >= 0)
+            return vals[i];
+        else if (outer == null)
+            return null;
+        else
+            return outer.get(name);
+    }
+
+    public void putNew(String name, Object value) {
+        int hash = name.hashCode();
+        int i = probe(name, hash);
+        if (i >= 0) {
+            vals[i] = value;
+            version++;
+        }
+        else
+            insert(~i, name, hash, value);
+    }
+
+    public void put(String name, Object value) {
+        int hash = name.hashCode();
+        int i = probe(name, hash);
+        if (i >= 0) {
+            vals[i] = value;
+            version++;
+        }
+        else if (!update(outer, name, hash, value))
+            insert(~i, name, hash, value);
+    }
+
+    /* 在 e 开始的链上给已有的 name 赋值. 没有时返回 false */
+    public static boolean update(Environment e, String name, Object value) {
+        return update(e, name, name.hashCode(), value);
+    }
+
+    protected static boolean update(Environment e, String name, int hash,
+                                    Object value)
+    {
+        while (e instanceof SymbolEnv) {
+            SymbolEnv s = (SymbolEnv)e;
+            int i = s.probe(name, hash);
+            if (i >= 0) {
+                s.vals[i] = value;
+                s.version++;
+                return true;
+            }
+            e = s.outer;
+        }
+
+        if (e == null)
+            return false;
+
+        Environment w = ((EnvEx)e).where(name);
+        if (w == null)
+            return false;
+
+        ((EnvEx)w).putNew(name, value);
+        return true;
+    }
+
+    public Environment where(String name) {
+        int hash = name.hashCode();
+        Environment e = this;
+        while (e instanceof SymbolEnv) {
+            SymbolEnv s = (SymbolEnv)e;
+            if (s.probe(name, hash) >= 0)
+                return s;
+
+            e = s.outer;
+        }
+        return e == null ? null : ((EnvEx)e).where(name);
+    }
+
+    protected void insert(int index, String name, int hash, Object value) {
+        if (keys == null) {
+            keys = new String[INITIAL_CAPACITY];
+            vals = new Object[INITIAL_CAPACITY];
+            index = slot(hash, INITIAL_CAPACITY - 1);
+        }
+        else if ((size + 1) * 2 > keys.length) {
+            grow();
+            index = ~probe(name, hash);
+        }
+
+        keys[index] = name;
+        vals[index] = value;
+        size++;
+        version++;
+    }
+
+    protected void grow() {
+        String[] oldKeys = keys;
+        Object[] oldVals = vals;
+        int mask = oldKeys.length * 2 - 1;
+        keys = new String[mask + 1];
+        vals = new Object[mask + 1];
+        for (int k = 0; k < oldKeys.length; k++)
+            if (oldKeys[k] != null) {
+                int i = slot(oldKeys[k].hashCode(), mask);
+                while (keys[i] != null)
+                    i = (i + 1) & mask;
+
+                keys[i] = oldKeys[k];
+                vals[i] = oldVals[k];
+            }
+    }
+}
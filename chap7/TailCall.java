@@ -0,0 +1,66 @@
+package chap7;
+
+import stone.ast.*;
+import chap6.Environment;
+import chap6.BasicEvaluator.BlockEx;
+import chap7.FuncEvaluator.ArgumentsEx;
+import chap7.FuncEvaluator.PrimaryEx;
+
+/*
+ * 尾调用消除.
+ *
+ * 位于 def 函数体尾部位置(tail position)的调用并不立即执行被调函数, 而是在
+ * 绑定好参数之后返回一个 TailCall 对象. 该对象沿着 BlockEx / IfEx 原样返回到
+ * 发起调用的 ArgumentsEx, 由那里的 trampoline 循环执行, 这样调用者的 Java 栈帧
+ * 和 NestedEnv 都已经释放, 自递归和互递归的尾调用都只占用常数的栈空间和内存.
+ *
+ * 尾部位置:
+ *   1. 函数体 block 的最后一条语句;
+ *   2. 处于尾部位置的 if 语句的 then / else block 的最后一条语句.
+ * 处于尾部位置且最外层 postfix 为实参列表的 primary 即为尾调用.
+ */
+public class TailCall {
+    protected Function function;
+    protected Environment env;
+
+    public TailCall(Function f, Environment e) {
+        function = f;
+        env = e;
+    }
+
+    public Function function() { return function; }
+    public Environment environment() { return env; }
+
+    /* 反复执行尾调用, 直到得到真正的返回值 */
+    public static Object trampoline(Object result) {
+        while (result instanceof TailCall) {
+            TailCall tc = (TailCall)result;
+            result = ((BlockEx)tc.function.body()).eval(tc.env);
+        }
+        return result;
+    }
+
+    /* 标记函数体中处于尾部位置的调用点 */
+    public static void mark(ASTree t) {
+        if (t instanceof BlockStmnt) {
+            for (int i = t.numChildren() - 1; i >= 0; i--) {
+                ASTree s = t.child(i);
+                if (!(s instanceof NullStmnt)) {
+                    mark(s);
+                    break;
+                }
+            }
+        }
+        else if (t instanceof IfStmnt) {
+            IfStmnt ifs = (IfStmnt)t;
+            mark(ifs.thenBlock());
+            if (ifs.elseBlock() != null)
+                mark(ifs.elseBlock());
+        }
+        else if (t instanceof PrimaryExpr) {
+            PrimaryEx p = (PrimaryEx)t;
+            if (p.hasPostfix(0) && p.postfix(0) instanceof Arguments)
+                ((ArgumentsEx)p.postfix(0)).tail = true;
+        }
+    }
+}
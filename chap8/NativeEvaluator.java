@@ -0,0 +1,33 @@
+package chap8;
+
+import java.util.List;
+import javassist.gluonj.*;
+import stone.StoneException;
+import stone.ast.ASTree;
+import chap6.Environment;
+import chap6.BasicEvaluator.ASTreeEx;
+import chap7.FuncEvaluator;
+import chap7.FuncEvaluator.ArgumentsEx;
+
+@Require(FuncEvaluator.class)
+@Reviser public class NativeEvaluator {
+    @Reviser
+    public static class NativeArgEx extends ArgumentsEx {
+        public NativeArgEx(List<ASTree> c) { super(c); }
+        public Object eval(Environment callerEnv, Object value) {
+            if (!(value instanceof NativeFunction))
+                return super.eval(callerEnv, value);
+
+            NativeFunction func = (NativeFunction)value;
+            int nparams = func.numOfParameters();
+            if (size() != nparams)
+                throw new StoneException("bad number of arguments", this);
+
+            Object[] args = new Object[nparams];
+            for (int i = 0; i < nparams; i++)
+                args[i] = ((ASTreeEx)child(i)).eval(callerEnv);
+
+            return func.invoke(args, this);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package chap8;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import stone.StoneException;
+import stone.ast.ASTree;
+import chap6.BasicEvaluator;
+import chap6.Rope;
+
+/*
+ * 用 Java 实现的函数.
+ *
+ * 注册时把 Java 方法绑定成一个 MethodHandle, 参数和返回值的转换也在这时
+ * 组合进去, 最后统一成 (Object[])Object 的形式. 调用时只是一次 invokeExact,
+ * 不再需要反射, 也不需要逐个检查参数的类型.
+ *
+ * 参数: int/Integer 要求 Stone 的整数, String 和 Object 得到展开后的字符串
+ * (Rope 在这里被展开). 返回值: void 返回 0, boolean 返回 TRUE/FALSE.
+ */
+public class NativeFunction {
+    protected String name;
+    protected MethodHandle method;
+    protected int numParams;
+
+    public NativeFunction(String name, MethodHandle m) {
+        this.name = name;
+        MethodType type = m.type();
+        numParams = type.parameterCount();
+        method = adapt(m, type).asSpreader(Object[].class, numParams);
+    }
+
+    public String name() { return name; }
+    public int numOfParameters() { return numParams; }
+
+    public Object invoke(Object[] args, ASTree tree) {
+        try {
+            return (Object)method.invokeExact(args);
+        } catch (StoneException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw failure(e, tree);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw failure(e, tree);
+        }
+    }
+
+    /* Java 方法抛出的异常. 保留原来的异常作为 cause */
+    protected StoneException failure(Throwable e, ASTree tree) {
+        String msg = e.getMessage();
+        if (msg == null)
+            msg = e.getClass().getName();
+
+        StoneException se
+            = new StoneException("bad native function call: " + name + ": "
+                                 + msg, tree);
+        se.initCause(e);
+        return se;
+    }
+
+    public String toString() { return "<native:" + name + ">"; }
+
+    private static final MethodHandle TO_INT, TO_STRING, FLATTEN, FROM_BOOLEAN;
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            TO_INT = lookup.findStatic(NativeFunction.class, "toInt",
+                        MethodType.methodType(int.class, Object.class));
+            TO_STRING = lookup.findStatic(NativeFunction.class, "toStringValue",
+                            MethodType.methodType(String.class, Object.class));
+            FLATTEN = lookup.findStatic(Rope.class, "flatten",
+                        MethodType.methodType(Object.class, Object.class));
+            FROM_BOOLEAN = lookup.findStatic(NativeFunction.class, "fromBoolean",
+                            MethodType.methodType(Object.class, boolean.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    protected static MethodHandle adapt(MethodHandle m, MethodType type) {
+        MethodHandle[] filters = new MethodHandle[type.parameterCount()];
+        for (int i = 0; i < filters.length; i++) {
+            Class<?> t = type.parameterType(i);
+            if (t == int.class)
+                filters[i] = TO_INT;
+            else if (t == Integer.class)
+                filters[i] = TO_INT.asType(MethodType.methodType(Integer.class,
+                                                                 Object.class));
+            else if (t == String.class)
+                filters[i] = TO_STRING;
+            else if (t == Object.class)
+                filters[i] = FLATTEN;
+            else
+                throw new StoneException("unsupported parameter type: " + t);
+        }
+        m = MethodHandles.filterArguments(m, 0, filters);
+
+        Class<?> r = type.returnType();
+        if (r == void.class)
+            m = MethodHandles.filterReturnValue(m,
+                    MethodHandles.constant(Object.class, 0));
+        else if (r == boolean.class)
+            m = MethodHandles.filterReturnValue(m, FROM_BOOLEAN);
+
+        return m.asType(MethodType.genericMethodType(filters.length));
+    }
+
+    static int toInt(Object v) {
+        if (v instanceof Integer)
+            return ((Integer)v).intValue();
+        else
+            throw new StoneException("bad type: int is expected");
+    }
+
+    static String toStringValue(Object v) { return String.valueOf(v); }
+
+    static Object fromBoolean(boolean b) {
+        return b ? BasicEvaluator.TRUE : BasicEvaluator.FALSE;
+    }
+}
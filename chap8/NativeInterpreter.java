@@ -0,0 +1,12 @@
+package chap8;
+
+import stone.FuncParser;
+import stone.ParseException;
+import chap6.BasicInterpreter;
+import chap7.SymbolEnv;
+
+public class NativeInterpreter extends BasicInterpreter {
+    public static void main(String[] args) throws ParseException {
+        run(new FuncParser(), new Natives().environment(new SymbolEnv()));
+    }
+}
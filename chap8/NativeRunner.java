@@ -0,0 +1,9 @@
+package chap8;
+
+import javassist.gluonj.util.Loader;
+
+public class NativeRunner {
+    public static void main(String[] args) throws Throwable {
+        Loader.run(NativeInterpreter.class, args, NativeEvaluator.class);
+    }
+}
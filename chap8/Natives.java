@@ -0,0 +1,183 @@
+package chap8;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import stone.StoneException;
+import chap6.Environment;
+import chap7.FuncEvaluator.EnvEx;
+
+/*
+ * 原生函数的注册表.
+ *
+ * register 接受 Java 的 static 方法, 或者 Fn0 ~ Fn3 的实现 (可以是 lambda),
+ * 注册时一次性转换成 MethodHandle (见 NativeFunction). environment 把注册表中
+ * 的函数全部加入一个环境. 构造时已经注册了基本的函数库.
+ */
+public class Natives {
+    public static interface Fn0 { Object apply(); }
+    public static interface Fn1 { Object apply(Object a); }
+    public static interface Fn2 { Object apply(Object a, Object b); }
+    public static interface Fn3 { Object apply(Object a, Object b, Object c); }
+
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    protected LinkedHashMap<String,NativeFunction> functions
+        = new LinkedHashMap<String,NativeFunction>();
+
+    public Natives() { appendNatives(); }
+
+    public Environment environment(Environment env) {
+        for (Map.Entry<String,NativeFunction> e: functions.entrySet())
+            ((EnvEx)env).putNew(e.getKey(), e.getValue());
+
+        return env;
+    }
+
+    public Map<String,NativeFunction> functions() { return functions; }
+
+    protected void appendNatives() {
+        append("print", "print", Object.class);
+        append("read", "read");
+        append("length", "length", String.class);
+        append("toInt", "toInt", Object.class);
+        append("currentTime", "currentTime");
+        append("abs", Math.class, "abs", int.class);
+        append("min", Math.class, "min", int.class, int.class);
+        append("max", Math.class, "max", int.class, int.class);
+        append("sqrt", "sqrt", int.class);
+        append("pow", "pow", int.class, int.class);
+        append("random", "random", int.class);
+        append("substring", "substring", String.class, int.class, int.class);
+        append("indexOf", "indexOf", String.class, String.class);
+        append("charCode", "charCode", String.class, int.class);
+    }
+
+    protected void append(String name, String methodName, Class<?>... params) {
+        append(name, Natives.class, methodName, params);
+    }
+
+    protected void append(String name, Class<?> clazz, String methodName,
+                          Class<?>... params)
+    {
+        try {
+            register(name, clazz.getMethod(methodName, params));
+        } catch (NoSuchMethodException e) {
+            throw new StoneException("cannot find a native function: "
+                                     + methodName);
+        }
+    }
+
+    public NativeFunction register(String name, Method m) {
+        if (!Modifier.isStatic(m.getModifiers()))
+            throw new StoneException("not a static method: " + m.getName());
+
+        try {
+            return register(name, lookup.unreflect(m));
+        } catch (IllegalAccessException e) {
+            throw new StoneException("cannot access a native function: "
+                                     + m.getName());
+        }
+    }
+
+    public NativeFunction register(String name, MethodHandle m) {
+        NativeFunction f = new NativeFunction(name, m);
+        functions.put(name, f);
+        return f;
+    }
+
+    public NativeFunction register(String name, Fn0 f) {
+        return register(name, Fn0.class, 0, f);
+    }
+
+    public NativeFunction register(String name, Fn1 f) {
+        return register(name, Fn1.class, 1, f);
+    }
+
+    public NativeFunction register(String name, Fn2 f) {
+        return register(name, Fn2.class, 2, f);
+    }
+
+    public NativeFunction register(String name, Fn3 f) {
+        return register(name, Fn3.class, 3, f);
+    }
+
+    protected NativeFunction register(String name, Class<?> fn, int arity,
+                                      Object f)
+    {
+        try {
+            MethodHandle m = lookup.findVirtual(fn, "apply",
+                                    MethodType.genericMethodType(arity));
+            return register(name, m.bindTo(f));
+        } catch (ReflectiveOperationException e) {
+            throw new StoneException("cannot bind a native function: " + name);
+        }
+    }
+
+    // native methods
+
+    public static void print(Object obj) {
+        System.out.println(obj);
+    }
+
+    public static String read() {
+        try {
+            java.io.BufferedReader in = stdin();
+            String s = in.readLine();
+            return s == null ? "" : s;
+        } catch (java.io.IOException e) {
+            throw new StoneException("cannot read");
+        }
+    }
+
+    private static java.io.BufferedReader stdin;
+    private static synchronized java.io.BufferedReader stdin() {
+        if (stdin == null)
+            stdin = new java.io.BufferedReader(
+                        new java.io.InputStreamReader(System.in));
+
+        return stdin;
+    }
+
+    public static int length(String s) { return s.length(); }
+
+    public static int toInt(Object value) {
+        if (value instanceof String)
+            return Integer.parseInt((String)value);
+        else if (value instanceof Integer)
+            return ((Integer)value).intValue();
+        else
+            throw new NumberFormatException(String.valueOf(value));
+    }
+
+    private static final long startTime = System.nanoTime();
+    public static int currentTime() {
+        return (int)((System.nanoTime() - startTime) / 1000000);
+    }
+
+    public static int sqrt(int n) { return (int)Math.sqrt(n); }
+
+    public static int pow(int a, int b) {
+        int r = 1;
+        for (int i = 0; i < b; i++)
+            r *= a;
+
+        return r;
+    }
+
+    public static int random(int n) {
+        return java.util.concurrent.ThreadLocalRandom.current().nextInt(n);
+    }
+
+    public static String substring(String s, int begin, int end) {
+        return s.substring(begin, end);
+    }
+
+    public static int indexOf(String s, String t) { return s.indexOf(t); }
+
+    public static int charCode(String s, int i) { return s.charAt(i); }
+}
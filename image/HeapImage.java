@@ -0,0 +1,116 @@
+package image;
+
+import java.io.*;
+import java.util.zip.CRC32;
+import stone.Scripts;
+import stone.StoneException;
+import chap7.NestedEnv;
+import chap7.SymbolEnv;
+import chap8.Natives;
+
+/*
+ * 解释器状态的快照 (heap image).
+ *
+ * 保存的是全局环境以及从它可以到达的所有值: 整数, 字符串, 函数 (AST 和闭包
+ * 引用的环境), 数组, 字典, 原生函数 (只保存名字). 恢复时直接构造对象,
+ * 不需要词法分析, 语法分析和逐个执行 def.
+ *
+ * 文件格式:
+ *   MAGIC, FORMAT, fingerprint, sourceHash, 数据长度, 数据的 CRC32, 数据
+ * fingerprint 由格式版本和 AST 节点的种类决定, sourceHash 是生成快照时所用
+ * 源代码的 hash. 两者与当前不一致的快照视为过期, CRC 不一致视为损坏, 都会
+ * 被拒绝 (StoneException).
+ */
+public class HeapImage {
+    public static final int MAGIC = 0x53544f4e;     // "STON"
+    public static final int FORMAT = 1;
+    /* magic, format, fingerprint, source hash, 长度, CRC */
+    static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 8;
+
+    public static void save(NestedEnv global, long sourceHash, File file)
+        throws IOException
+    {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        ImageWriter writer = new ImageWriter(new DataOutputStream(buf));
+        writer.writeGlobal(global);
+        byte[] data = buf.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                                        new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(fingerprint());
+            out.writeLong(sourceHash);
+            out.writeInt(data.length);
+            out.writeLong(crc.getValue());
+            out.write(data);
+        } finally {
+            out.close();
+        }
+
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file))
+                throw new IOException("cannot write " + file);
+        }
+    }
+
+    /* 快照不存在时返回 null. natives 用来查找原生函数 */
+    public static SymbolEnv load(File file, long sourceHash, Natives natives)
+        throws IOException
+    {
+        if (!file.exists())
+            return null;
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                                     new FileInputStream(file)));
+        byte[] data;
+        long crcValue;
+        try {
+            if (in.readInt() != MAGIC)
+                throw new StoneException("not a heap image: " + file);
+
+            if (in.readInt() != FORMAT || in.readLong() != fingerprint())
+                throw new StoneException("stale heap image (format): " + file);
+
+            if (in.readLong() != sourceHash)
+                throw new StoneException("stale heap image (source): " + file);
+
+            /* 先检查长度, 损坏的文件不应导致分配巨大的数组 */
+            int length = in.readInt();
+            if (length < 0 || length != file.length() - HEADER_SIZE)
+                throw new StoneException("corrupt heap image: " + file);
+
+            data = new byte[length];
+            crcValue = in.readLong();
+            in.readFully(data);
+        } catch (EOFException e) {
+            throw new StoneException("corrupt heap image: " + file);
+        } finally {
+            in.close();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        if (crc.getValue() != crcValue)
+            throw new StoneException("corrupt heap image: " + file);
+
+        ImageReader reader = new ImageReader(new DataInputStream(
+                                    new ByteArrayInputStream(data)), natives);
+        try {
+            return reader.readGlobal();
+        } catch (EOFException e) {
+            throw new StoneException("corrupt heap image: " + file);
+        }
+    }
+
+    /* 格式版本和 AST 节点的种类 */
+    public static long fingerprint() {
+        return Scripts.hash(String.valueOf(FORMAT), ImageWriter.nodeTable());
+    }
+}
@@ -0,0 +1,50 @@
+package image;
+
+import java.io.File;
+import java.io.IOException;
+import stone.*;
+import chap7.SymbolEnv;
+import chap10.DictNatives;
+
+/*
+ * 用法: ImageInterpreter image lib.st [script.st ...]
+ *
+ * image 与 lib.st 一致时直接从快照恢复全局环境, 否则执行 lib.st 并重新
+ * 生成快照. 之后在这个环境中执行各个脚本.
+ */
+public class ImageInterpreter {
+    public static void main(String[] args) throws ParseException, IOException {
+        if (args.length < 2) {
+            System.err.println("usage: ImageInterpreter image lib.st [script.st ...]");
+            return;
+        }
+
+        File image = new File(args[0]);
+        String lib = Scripts.read(args[1]);
+        long hash = Scripts.hash(lib);
+        DictNatives natives = new DictNatives();
+
+        long start = System.nanoTime();
+        SymbolEnv env = null;
+        try {
+            env = HeapImage.load(image, hash, natives);
+        } catch (StoneException e) {
+            System.err.println("image: " + e.getMessage());
+        }
+
+        if (env != null)
+            System.err.println("image: loaded " + image + " in "
+                               + (System.nanoTime() - start) / 1000000 + " ms");
+        else {
+            env = new SymbolEnv();
+            natives.environment(env);
+            Scripts.run(lib, env, false);
+            HeapImage.save(env, hash, image);
+            System.err.println("image: saved " + image + " in "
+                               + (System.nanoTime() - start) / 1000000 + " ms");
+        }
+
+        for (int i = 2; i < args.length; i++)
+            Scripts.run(Scripts.read(args[i]), env, true);
+    }
+}
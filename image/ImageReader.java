@@ -0,0 +1,214 @@
+package image;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import stone.Lexer;
+import stone.StoneException;
+import stone.ast.*;
+import chap6.Environment;
+import chap7.Function;
+import chap7.SymbolEnv;
+import chap7.FuncEvaluator.DefStmntEx;
+import chap8.NativeFunction;
+import chap8.Natives;
+import chap10.ArrayValue;
+import chap10.DictValue;
+import static image.ImageWriter.*;
+
+/*
+ * 快照的读取, 与 ImageWriter 对应. 对象的编号按第一次出现的顺序分配.
+ *
+ * 函数通过 DefStmntEx.makeFunction 重新创建, 所以尾调用的标记, 纯函数和
+ * 逃逸分析的结果等都与执行 def 时相同. 同一个函数体只生成一个 DefStmnt.
+ */
+public class ImageReader {
+    protected DataInputStream in;
+    protected Natives natives;
+    protected ArrayList<Object> objects = new ArrayList<Object>();
+    protected IdentityHashMap<ASTree,DefStmnt> defs
+        = new IdentityHashMap<ASTree,DefStmnt>();
+
+    public ImageReader(DataInputStream in, Natives natives) {
+        this.in = in;
+        this.natives = natives;
+    }
+
+    public SymbolEnv readGlobal() throws IOException {
+        Object global = readValue();
+        if (!(global instanceof SymbolEnv))
+            throw new StoneException("corrupt heap image");
+
+        int id;
+        while ((id = in.readInt()) >= 0)
+            readContents(objects.get(id));
+
+        return (SymbolEnv)global;
+    }
+
+    protected int reserve() {
+        objects.add(null);
+        return objects.size() - 1;
+    }
+
+    protected Object readValue() throws IOException {
+        int tag = in.readByte();
+        switch (tag) {
+        case NULL:
+            return null;
+        case REF:
+            return objects.get(in.readInt());
+        case INT:
+            return in.readInt();
+        case STRING:
+            return readString();
+        case FUNCTION: {
+            int id = reserve();
+            String name = readString();
+            ParameterList params = (ParameterList)readNode();
+            BlockStmnt body = (BlockStmnt)readNode();
+            Environment env = (Environment)readValue();
+            Function f = makeFunction(name, params, body, env);
+            objects.set(id, f);
+            return f;
+        }
+        case NATIVE: {
+            int id = reserve();
+            String name = readString();
+            NativeFunction f = natives == null ? null
+                                               : natives.functions().get(name);
+            if (f == null)
+                throw new StoneException("unknown native function: " + name);
+
+            objects.set(id, f);
+            return f;
+        }
+        case ARRAY: {
+            int id = reserve();
+            ArrayValue a = new ArrayValue(in.readInt());
+            objects.set(id, a);
+            return a;
+        }
+        case DICT: {
+            int id = reserve();
+            DictValue d = new DictValue();
+            objects.set(id, d);
+            return d;
+        }
+        case ENV: {
+            int id = reserve();
+            SymbolEnv env = new SymbolEnv((Environment)readValue());
+            objects.set(id, env);
+            return env;
+        }
+        default:
+            throw new StoneException("corrupt heap image");
+        }
+    }
+
+    protected Function makeFunction(String name, ParameterList params,
+                                    BlockStmnt body, Environment env)
+    {
+        DefStmnt def = defs.get(body);
+        if (def == null) {
+            ArrayList<ASTree> list = new ArrayList<ASTree>();
+            list.add(new ASTLeaf(Lexer.identifier(0, name)));
+            list.add(params);
+            list.add(body);
+            def = new DefStmnt(list);
+            defs.put(body, def);
+        }
+        return ((DefStmntEx)def).makeFunction(env);
+    }
+
+    protected void readContents(Object obj) throws IOException {
+        if (obj instanceof ArrayValue) {
+            ArrayValue a = (ArrayValue)obj;
+            int len = a.length();
+            for (int i = 0; i < len; i++)
+                a.set(i, readValue(), null);
+        }
+        else if (obj instanceof DictValue) {
+            DictValue d = (DictValue)obj;
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                Object key = readValue();
+                d.put(key, readValue(), null);
+            }
+        }
+        else if (obj instanceof SymbolEnv) {
+            SymbolEnv env = (SymbolEnv)obj;
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String name = readString().intern();
+                env.putNew(name, readValue());
+            }
+        }
+        else
+            throw new StoneException("corrupt heap image");
+    }
+
+    protected ASTree readNode() throws IOException {
+        int tag = in.readByte();
+        if (tag == REF)
+            return (ASTree)objects.get(in.readInt());
+
+        int id = reserve();
+        ASTree t;
+        if (tag <= STRING_LITERAL) {
+            int line = in.readInt();
+            if (tag == NUMBER)
+                t = new NumberLiteral(Lexer.number(line, in.readInt()));
+            else if (tag == STRING_LITERAL)
+                t = new StringLiteral(Lexer.string(line, readString()));
+            else if (tag == NAME)
+                t = new Name(Lexer.identifier(line, readString()));
+            else
+                t = new ASTLeaf(Lexer.identifier(line, readString()));
+        }
+        else {
+            int n = in.readInt();
+            ArrayList<ASTree> c = new ArrayList<ASTree>(n);
+            for (int i = 0; i < n; i++)
+                c.add(readNode());
+
+            t = makeList(tag, c);
+        }
+        objects.set(id, t);
+        return t;
+    }
+
+    protected static ASTree makeList(int tag, ArrayList<ASTree> c) {
+        switch (tag) {
+        case LIST: return new ASTList(c);
+        case PRIMARY: return new PrimaryExpr(c);
+        case BINARY: return new BinaryExpr(c);
+        case NEGATIVE: return new NegativeExpr(c);
+        case BLOCK: return new BlockStmnt(c);
+        case IF: return new IfStmnt(c);
+        case WHILE: return new WhileStmnt(c);
+        case NULL_STMNT: return new NullStmnt(c);
+        case DEF: return new DefStmnt(c);
+        case PARAMS: return new ParameterList(c);
+        case ARGUMENTS: return new Arguments(c);
+        case ARRAY_REF: return new ArrayRef(c);
+        case DICT_LITERAL: return new DictLiteral(c);
+        case DICT_ENTRY: return new DictEntry(c);
+        default:
+            throw new StoneException("corrupt heap image");
+        }
+    }
+
+    protected String readString() throws IOException {
+        int len = in.readInt();
+        if (len <= CHUNK)
+            return len == 0 ? "" : in.readUTF();
+
+        StringBuilder sb = new StringBuilder(len);
+        while (sb.length() < len)
+            sb.append(in.readUTF());
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,10 @@
+package image;
+
+import javassist.gluonj.util.Loader;
+import chap10.DictEvaluator;
+
+public class ImageRunner {
+    public static void main(String[] args) throws Throwable {
+        Loader.run(ImageInterpreter.class, args, DictEvaluator.class);
+    }
+}
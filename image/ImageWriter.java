@@ -0,0 +1,224 @@
+package image;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import stone.StoneException;
+import stone.Token;
+import stone.ast.*;
+import chap6.Environment;
+import chap6.Rope;
+import chap7.Function;
+import chap7.NestedEnv;
+import chap8.NativeFunction;
+import chap10.ArrayValue;
+import chap10.DictValue;
+
+/*
+ * 快照的写入. 每个对象 (值和 AST 节点) 只写一次, 再次出现时只写编号 (REF).
+ * 环境, 数组和字典先写头部, 内容放到最后统一写, 这样读取时总是可以先创建
+ * 对象再填入内容, 循环引用不需要特别处理.
+ */
+public class ImageWriter {
+    static final int NULL = 0, REF = 1, INT = 2, STRING = 3, FUNCTION = 4,
+                     NATIVE = 5, ARRAY = 6, DICT = 7, ENV = 8;
+
+    /* AST 节点的种类. 与 REF 区分开 */
+    static final int LEAF = 16, NAME = 17, NUMBER = 18, STRING_LITERAL = 19,
+                     LIST = 20, PRIMARY = 21, BINARY = 22, NEGATIVE = 23,
+                     BLOCK = 24, IF = 25, WHILE = 26, NULL_STMNT = 27, DEF = 28,
+                     PARAMS = 29, ARGUMENTS = 30, ARRAY_REF = 31,
+                     DICT_LITERAL = 32, DICT_ENTRY = 33;
+
+    static String nodeTable() {
+        return "ASTLeaf Name NumberLiteral StringLiteral ASTList PrimaryExpr"
+               + " BinaryExpr NegativeExpr BlockStmnt IfStmnt WhileStmnt"
+               + " NullStmnt DefStmnt ParameterList Arguments ArrayRef"
+               + " DictLiteral DictEntry";
+    }
+
+    protected DataOutputStream out;
+    protected IdentityHashMap<Object,Integer> ids
+        = new IdentityHashMap<Object,Integer>();
+    protected ArrayList<Object> pending = new ArrayList<Object>();
+
+    public ImageWriter(DataOutputStream out) { this.out = out; }
+
+    public void writeGlobal(NestedEnv global) throws IOException {
+        if (global.outer() != null)
+            throw new StoneException("cannot snapshot a nested environment");
+
+        writeValue(global, null);
+        for (int i = 0; i < pending.size(); i++)
+            writeContents(pending.get(i));
+
+        out.writeInt(-1);
+        out.flush();
+    }
+
+    protected boolean writeRef(Object obj) throws IOException {
+        Integer id = ids.get(obj);
+        if (id == null) {
+            ids.put(obj, ids.size());
+            return false;
+        }
+        else {
+            out.writeByte(REF);
+            out.writeInt(id);
+            return true;
+        }
+    }
+
+    /* name 是函数第一次出现时绑定的变量名 */
+    protected void writeValue(Object v, String name) throws IOException {
+        v = Rope.flatten(v);
+        if (v == null)
+            out.writeByte(NULL);
+        else if (v instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt(((Integer)v).intValue());
+        }
+        else if (v instanceof String) {
+            out.writeByte(STRING);
+            writeString((String)v);
+        }
+        else if (writeRef(v))
+            return;
+        else if (v instanceof Function) {
+            Function f = (Function)v;
+            out.writeByte(FUNCTION);
+            writeString(name == null ? "fun" : name);
+            writeNode(f.parameters());
+            writeNode(f.body());
+            writeValue(f.environment(), null);
+        }
+        else if (v instanceof NativeFunction) {
+            out.writeByte(NATIVE);
+            writeString(((NativeFunction)v).name());
+        }
+        else if (v instanceof ArrayValue) {
+            out.writeByte(ARRAY);
+            out.writeInt(((ArrayValue)v).length());
+            pending.add(v);
+        }
+        else if (v instanceof DictValue) {
+            out.writeByte(DICT);
+            pending.add(v);
+        }
+        else if (v.getClass() == NestedEnv.class
+                 || v.getClass() == chap7.SymbolEnv.class) {
+            out.writeByte(ENV);
+            writeValue(((NestedEnv)v).outer(), null);
+            pending.add(v);
+        }
+        else
+            throw new StoneException("cannot snapshot: "
+                                     + v.getClass().getName());
+    }
+
+    protected void writeContents(Object obj) throws IOException {
+        out.writeInt(ids.get(obj));
+        if (obj instanceof ArrayValue) {
+            ArrayValue a = (ArrayValue)obj;
+            int len = a.length();
+            for (int i = 0; i < len; i++)
+                writeValue(a.get(i, null), null);
+        }
+        else if (obj instanceof DictValue) {
+            DictValue d = (DictValue)obj;
+            ArrayValue keys = d.keys();
+            ArrayValue values = d.values();
+            out.writeInt(keys.length());
+            for (int i = 0; i < keys.length(); i++) {
+                writeValue(keys.get(i, null), null);
+                writeValue(values.get(i, null), null);
+            }
+        }
+        else {
+            NestedEnv env = (NestedEnv)obj;
+            String[] names = env.names();
+            out.writeInt(names.length);
+            for (String name: names) {
+                writeString(name);
+                writeValue(env.getLocal(name), name);
+            }
+        }
+    }
+
+    protected void writeNode(ASTree t) throws IOException {
+        if (writeRef(t))
+            return;
+
+        if (t instanceof ASTLeaf) {
+            Token token = ((ASTLeaf)t).token();
+            if (t instanceof NumberLiteral) {
+                out.writeByte(NUMBER);
+                out.writeInt(token.getLineNumber());
+                out.writeInt(token.getNumber());
+                return;
+            }
+            else if (t instanceof StringLiteral)
+                out.writeByte(STRING_LITERAL);
+            else if (t instanceof Name)
+                out.writeByte(NAME);
+            else if (t.getClass() == ASTLeaf.class)
+                out.writeByte(LEAF);
+            else
+                throw new StoneException("cannot snapshot: " + t.getClass());
+
+            out.writeInt(token.getLineNumber());
+            writeString(token.getText());
+        }
+        else {
+            out.writeByte(listTag(t));
+            int n = t.numChildren();
+            out.writeInt(n);
+            for (int i = 0; i < n; i++)
+                writeNode(t.child(i));
+        }
+    }
+
+    protected static int listTag(ASTree t) {
+        if (t instanceof PrimaryExpr)
+            return PRIMARY;
+        else if (t instanceof BinaryExpr)
+            return BINARY;
+        else if (t instanceof NegativeExpr)
+            return NEGATIVE;
+        else if (t instanceof BlockStmnt)
+            return BLOCK;
+        else if (t instanceof IfStmnt)
+            return IF;
+        else if (t instanceof WhileStmnt)
+            return WHILE;
+        else if (t instanceof NullStmnt)
+            return NULL_STMNT;
+        else if (t instanceof DefStmnt)
+            return DEF;
+        else if (t instanceof ParameterList)
+            return PARAMS;
+        else if (t instanceof Arguments)
+            return ARGUMENTS;
+        else if (t instanceof ArrayRef)
+            return ARRAY_REF;
+        else if (t instanceof DictLiteral)
+            return DICT_LITERAL;
+        else if (t instanceof DictEntry)
+            return DICT_ENTRY;
+        else if (t.getClass() == ASTList.class)
+            return LIST;
+        else
+            throw new StoneException("cannot snapshot: " + t.getClass());
+    }
+
+    /* writeUTF 只能写 64KB, 长的字符串分段写 */
+    static final int CHUNK = 8192;
+
+    protected void writeString(String s) throws IOException {
+        int len = s.length();
+        out.writeInt(len);
+        for (int i = 0; i < len; i += CHUNK)
+            out.writeUTF(s.substring(i, Math.min(len, i + CHUNK)));
+    }
+}
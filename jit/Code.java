@@ -0,0 +1,12 @@
+package jit;
+
+import chap6.Environment;
+
+/*
+ * 编译后的代码. 由 Compiler 把 AST 翻译成 Code 对象组成的树, 运算符, 分支,
+ * 调用方式等等在编译时就已经确定下来, 执行时不再需要 instanceof 判断节点类型
+ * 和逐个比较运算符字符串.
+ */
+public abstract class Code {
+    public abstract Object run(Environment env);
+}
@@ -0,0 +1,473 @@
+package jit;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import stone.StoneException;
+import stone.ast.*;
+import chap6.BasicEvaluator;
+import chap6.Environment;
+import chap6.Rope;
+import chap6.BasicEvaluator.ASTreeEx;
+import chap6.BasicEvaluator.BlockEx;
+import chap7.FrameEnv;
+import chap7.Function;
+import chap7.InlineCache;
+import chap7.MemoTable;
+import chap7.NestedEnv;
+import chap7.TailCall;
+import chap7.FuncEvaluator.ArgumentsEx;
+import chap7.FuncEvaluator.EnvEx;
+import chap10.Subscript;
+
+/*
+ * AST -> Code 的编译器.
+ *
+ * 能够编译的节点: 字面量, 变量, 单目负号, 二元运算, 赋值, block, if, while,
+ * 以及实参列表作为 postfix 的函数调用和下标访问 (数组和字典). 其他节点 (def 等) 编译成 Interpret,
+ * 直接交回解释器执行, 所以编译前后的语义完全相同.
+ *
+ * 顶层 def 的函数体中, 如果被调用的函数名既不是参数, 也没有在函数体内被赋值
+ * 或 def, 那么它一定解析到全局环境. 这样的调用点编译成 GlobalRef, 缓存查找
+ * 结果. 缓存以全局环境的 version 为条件, 并且记入 dependencies, 该名字被重新
+ * def 时整个编译结果作废 (见 Tier.invalidate).
+ */
+public class Compiler {
+    public static final int TRUE = BasicEvaluator.TRUE;
+    public static final int FALSE = BasicEvaluator.FALSE;
+
+    protected HashSet<String> locals;
+    protected Tier.Assumption assumption;
+    protected HashSet<String> dependencies = new HashSet<String>();
+
+    protected Compiler(HashSet<String> locals, Tier.Assumption a) {
+        this.locals = locals;
+        assumption = a;
+    }
+
+    public HashSet<String> dependencies() { return dependencies; }
+
+    /* 编译函数体. topLevel 为 false 时不做任何关于全局变量的假设 */
+    public static Compiler forFunction(DefStmnt def, boolean topLevel,
+                                       Tier.Assumption a)
+    {
+        HashSet<String> locals = null;
+        if (topLevel) {
+            locals = new HashSet<String>();
+            ParameterList params = def.parameters();
+            for (int i = 0; i < params.size(); i++)
+                locals.add(params.name(i));
+
+            collectLocals(def.body(), locals);
+        }
+        return new Compiler(locals, a);
+    }
+
+    public static Compiler forLoop() { return new Compiler(null, null); }
+
+    protected static void collectLocals(ASTree t, HashSet<String> locals) {
+        if (t instanceof DefStmnt)
+            locals.add(((DefStmnt)t).name());
+        else if (t instanceof BinaryExpr) {
+            BinaryExpr b = (BinaryExpr)t;
+            if ("=".equals(b.operator()) && b.left() instanceof Name)
+                locals.add(((Name)b.left()).name());
+        }
+
+        if (!(t instanceof DefStmnt))
+            for (ASTree c: t)
+                collectLocals(c, locals);
+    }
+
+    public Code compile(ASTree t) {
+        if (t instanceof NumberLiteral)
+            return new Const(Integer.valueOf(((NumberLiteral)t).value()));
+        else if (t instanceof StringLiteral)
+            return new Const(((StringLiteral)t).value());
+        else if (t instanceof Name)
+            return new Var((Name)t);
+        else if (t instanceof NegativeExpr)
+            return new Neg(t, compile(((NegativeExpr)t).operand()));
+        else if (t instanceof BinaryExpr)
+            return binary((BinaryExpr)t);
+        else if (t instanceof BlockStmnt)
+            return block(t);
+        else if (t instanceof IfStmnt) {
+            IfStmnt s = (IfStmnt)t;
+            ASTree e = s.elseBlock();
+            return new If(compile(s.condition()), compile(s.thenBlock()),
+                          e == null ? null : compile(e));
+        }
+        else if (t instanceof WhileStmnt)
+            return loop((WhileStmnt)t);
+        else if (t instanceof PrimaryExpr)
+            return primary(t);
+        else
+            return new Interpret(t);
+    }
+
+    public WhileCode loop(WhileStmnt s) {
+        return new WhileCode(compile(s.condition()), compile(s.body()));
+    }
+
+    protected Code block(ASTree t) {
+        ArrayList<Code> list = new ArrayList<Code>();
+        for (ASTree s: t)
+            if (!(s instanceof NullStmnt))
+                list.add(compile(s));
+
+        return new Block(list.toArray(new Code[list.size()]));
+    }
+
+    protected Code binary(BinaryExpr t) {
+        String op = t.operator();
+        if ("=".equals(op)) {
+            ASTree left = t.left();
+            if (left instanceof Name)
+                return new Assign(((Name)left).name(), compile(t.right()));
+
+            int n = left.numChildren();
+            if (left instanceof PrimaryExpr && left.child(n - 1) instanceof ArrayRef) {
+                Code target = postfixes(left, n - 1);
+                if (target != null) {
+                    ArrayRef ref = (ArrayRef)left.child(n - 1);
+                    return new IndexAssign(t, target, compile(ref.index()),
+                                           compile(t.right()));
+                }
+            }
+            return new Interpret(t);
+        }
+
+        int code = operatorCode(op);
+        if (code < 0)
+            return new Interpret(t);
+        else
+            return new Arith(t, code, compile(t.left()), compile(t.right()));
+    }
+
+    protected Code primary(ASTree t) {
+        Code c = postfixes(t, t.numChildren());
+        if (c == null)
+            return new Interpret(t);
+        else
+            return c;
+    }
+
+    /* t 的 operand 和前 n - 1 个 postfix. 不能编译时返回 null */
+    protected Code postfixes(ASTree t, int n) {
+        for (int i = 1; i < n; i++)
+            if (!(t.child(i) instanceof Arguments)
+                && !(t.child(i) instanceof ArrayRef))
+                return null;
+
+        ASTree operand = t.child(0);
+        Code target;
+        if (locals != null && operand instanceof Name && n > 1
+            && t.child(1) instanceof Arguments
+            && !locals.contains(((Name)operand).name()))
+        {
+            String name = ((Name)operand).name();
+            dependencies.add(name);
+            target = new GlobalRef((Name)operand, assumption);
+        }
+        else
+            target = compile(operand);
+
+        for (int i = 1; i < n; i++) {
+            if (t.child(i) instanceof ArrayRef) {
+                ArrayRef ref = (ArrayRef)t.child(i);
+                target = new Index(ref, target, compile(ref.index()));
+                continue;
+            }
+
+            Arguments args = (Arguments)t.child(i);
+            Code[] argCodes = new Code[args.size()];
+            for (int k = 0; k < argCodes.length; k++)
+                argCodes[k] = compile(args.child(k));
+
+            target = new Call(target, args, argCodes,
+                              ((ArgumentsEx)args).isTail());
+        }
+        return target;
+    }
+
+    protected static final int ADD = 0, SUB = 1, MUL = 2, DIV = 3, MOD = 4,
+                               EQ = 5, GT = 6, LT = 7;
+
+    protected static int operatorCode(String op) {
+        if (op.equals("+"))
+            return ADD;
+        else if (op.equals("-"))
+            return SUB;
+        else if (op.equals("*"))
+            return MUL;
+        else if (op.equals("/"))
+            return DIV;
+        else if (op.equals("%"))
+            return MOD;
+        else if (op.equals("=="))
+            return EQ;
+        else if (op.equals(">"))
+            return GT;
+        else if (op.equals("<"))
+            return LT;
+        else
+            return -1;
+    }
+
+    public static class Const extends Code {
+        protected Object value;
+        public Const(Object v) { value = v; }
+        public Object run(Environment env) { return value; }
+    }
+
+    public static class Var extends Code {
+        protected Name tree;
+        protected String name;
+        public Var(Name t) { tree = t; name = t.name(); }
+        public Object run(Environment env) {
+            Object value = env.get(name);
+            if (value == null)
+                throw new StoneException("undefined name: " + name, tree);
+            else
+                return value;
+        }
+    }
+
+    public static class GlobalRef extends Var {
+        protected static final class Cached {
+            final Environment global;
+            final int version;
+            final Object value;
+            Cached(Environment g, int v, Object obj) {
+                global = g;
+                version = v;
+                value = obj;
+            }
+        }
+
+        protected Tier.Assumption assumption;
+        protected volatile Cached cache;
+
+        public GlobalRef(Name t, Tier.Assumption a) {
+            super(t);
+            assumption = a;
+        }
+
+        public Object run(Environment env) {
+            if (assumption.isValid()) {
+                Environment g = null;
+                if (env instanceof FrameEnv)
+                    g = ((FrameEnv)env).enclosing();
+                else if (env instanceof NestedEnv)
+                    g = ((NestedEnv)env).outer();
+
+                if (g instanceof NestedEnv) {
+                    int v = ((NestedEnv)g).version();
+                    Cached c = cache;
+                    if (c != null && c.global == g && c.version == v)
+                        return c.value;
+
+                    Object value = super.run(env);
+                    cache = new Cached(g, v, value);
+                    return value;
+                }
+            }
+            return super.run(env);
+        }
+    }
+
+    public static class Assign extends Code {
+        protected String name;
+        protected Code right;
+        public Assign(String n, Code r) { name = n; right = r; }
+        public Object run(Environment env) {
+            Object value = right.run(env);
+            env.put(name, value);
+            return value;
+        }
+    }
+
+    public static class Neg extends Code {
+        protected ASTree tree;
+        protected Code operand;
+        public Neg(ASTree t, Code c) { tree = t; operand = c; }
+        public Object run(Environment env) {
+            Object v = operand.run(env);
+            if (v instanceof Integer)
+                return -((Integer)v).intValue();
+            else
+                throw new StoneException("bad type for -", tree);
+        }
+    }
+
+    public static class Arith extends Code {
+        protected ASTree tree;
+        protected int op;
+        protected Code left, right;
+        public Arith(ASTree t, int op, Code l, Code r) {
+            tree = t;
+            this.op = op;
+            left = l;
+            right = r;
+        }
+
+        public Object run(Environment env) {
+            Object l = left.run(env);
+            Object r = right.run(env);
+            if (l instanceof Integer && r instanceof Integer) {
+                int a = ((Integer)l).intValue();
+                int b = ((Integer)r).intValue();
+                switch (op) {
+                case ADD: return a + b;
+                case SUB: return a - b;
+                case MUL: return a * b;
+                case DIV: return a / b;
+                case MOD: return a % b;
+                case EQ: return a == b ? TRUE : FALSE;
+                case GT: return a > b ? TRUE : FALSE;
+                default: return a < b ? TRUE : FALSE;
+                }
+            }
+            else if (op == ADD)
+                return Rope.concat(l, r);
+            else if (op == EQ) {
+                l = Rope.flatten(l);
+                r = Rope.flatten(r);
+                if (l == null)
+                    return r == null ? TRUE : FALSE;
+                else
+                    return l.equals(r) ? TRUE : FALSE;
+            }
+            else
+                throw new StoneException("bad type", tree);
+        }
+    }
+
+    public static class Block extends Code {
+        protected Code[] statements;
+        public Block(Code[] s) { statements = s; }
+        public Object run(Environment env) {
+            Object result = 0;
+            for (int i = 0; i < statements.length; i++)
+                result = statements[i].run(env);
+
+            return result;
+        }
+    }
+
+    public static class If extends Code {
+        protected Code condition, thenBlock, elseBlock;
+        public If(Code c, Code t, Code e) {
+            condition = c;
+            thenBlock = t;
+            elseBlock = e;
+        }
+
+        public Object run(Environment env) {
+            Object c = condition.run(env);
+            if (c instanceof Integer && ((Integer)c).intValue() != FALSE)
+                return thenBlock.run(env);
+            else if (elseBlock == null)
+                return 0;
+            else
+                return elseBlock.run(env);
+        }
+    }
+
+    public static class WhileCode extends Code {
+        protected Code condition, body;
+        public WhileCode(Code c, Code b) { condition = c; body = b; }
+        public Object run(Environment env) { return resume(env, 0); }
+
+        /* 从解释执行的循环中途接手 (on-stack replacement) */
+        public Object resume(Environment env, Object result) {
+            for (;;) {
+                Object c = condition.run(env);
+                if (c instanceof Integer && ((Integer)c).intValue() == FALSE)
+                    return result;
+                else
+                    result = body.run(env);
+            }
+        }
+    }
+
+    public static class Call extends Code {
+        protected Code function;
+        protected ArgumentsEx tree;
+        protected Code[] args;
+        protected boolean tail;
+        protected InlineCache cache = new InlineCache();
+
+        public Call(Code f, Arguments t, Code[] a, boolean isTail) {
+            function = f;
+            tree = (ArgumentsEx)t;
+            args = a;
+            tail = isTail;
+        }
+
+        public Object run(Environment env) {
+            Object value = function.run(env);
+            if (!(value instanceof Function))
+                return tree.eval(env, value);
+
+            String[] names = cache.lookup(value);
+            if (names == null)
+                names = cache.miss(value, args.length, tree);
+
+            Function func = (Function)value;
+            MemoTable memo = tail ? null : MemoTable.of(func);
+            if (memo != null) {
+                Object[] values = new Object[names.length];
+                for (int i = 0; i < values.length; i++)
+                    values[i] = args[i].run(env);
+
+                return memo.invoke(func, names, values);
+            }
+
+            EnvEx newEnv = (EnvEx)func.makeEnv();
+            for (int i = 0; i < names.length; i++)
+                newEnv.putNew(names[i], args[i].run(env));
+
+            if (tail)
+                return new TailCall(func, newEnv);
+            else
+                return TailCall.trampoline(((BlockEx)func.body()).eval(newEnv));
+        }
+    }
+
+    public static class Index extends Code {
+        protected ASTree tree;
+        protected Code array, index;
+        public Index(ASTree t, Code a, Code i) { tree = t; array = a; index = i; }
+        public Object run(Environment env) {
+            Object a = array.run(env);
+            return Subscript.get(a, index.run(env), tree);
+        }
+    }
+
+    public static class IndexAssign extends Code {
+        protected ASTree tree;
+        protected Code array, index, right;
+        public IndexAssign(ASTree t, Code a, Code i, Code r) {
+            tree = t;
+            array = a;
+            index = i;
+            right = r;
+        }
+
+        public Object run(Environment env) {
+            Object value = right.run(env);
+            Object a = array.run(env);
+            Subscript.set(a, index.run(env), value, tree);
+            return value;
+        }
+    }
+
+    public static class Interpret extends Code {
+        protected ASTree tree;
+        public Interpret(ASTree t) { tree = t; }
+        public Object run(Environment env) {
+            return ((ASTreeEx)tree).eval(env);
+        }
+    }
+}
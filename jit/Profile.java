@@ -0,0 +1,64 @@
+package jit;
+
+import stone.ast.DefStmnt;
+
+/*
+ * 一个 def 的运行时信息. 同一个 def 产生的所有 Function (闭包) 共享同一个
+ * 函数体, 因此也共享同一个 Profile: 调用计数, 编译状态和编译结果.
+ */
+public class Profile {
+    protected DefStmnt def;
+    protected boolean topLevel;
+    protected int invocations;
+    protected volatile boolean queued;
+    protected volatile boolean failed;
+    protected volatile Code code;
+    protected volatile Tier.Assumption assumption;
+
+    public Profile(DefStmnt d, boolean top) {
+        def = d;
+        topLevel = top;
+    }
+
+    public DefStmnt def() { return def; }
+    public int invocations() { return invocations; }
+    public Code code() { return code; }
+    public boolean isCompiled() { return code != null; }
+
+    /* 调用计数. 返回 true 表示刚好越过阈值 */
+    public boolean count() {
+        return ++invocations == Tier.callThreshold;
+    }
+
+    protected void compile() {
+        long epoch = Tier.epoch();
+        Tier.Assumption a = new Tier.Assumption();
+        Code c;
+        Compiler compiler;
+        try {
+            compiler = Compiler.forFunction(def, topLevel, a);
+            c = compiler.compile(def.body());
+        } catch (RuntimeException e) {
+            failed = true;
+            Tier.failed(this, e);
+            return;
+        }
+
+        if (!Tier.install(this, a, c, compiler.dependencies(), epoch)) {
+            invocations = 0;
+            queued = false;
+        }
+    }
+
+    /* 丢弃编译结果, 回到解释执行并重新计数 */
+    protected void invalidate() {
+        Tier.Assumption a = assumption;
+        if (a != null)
+            a.invalidate();
+
+        code = null;
+        assumption = null;
+        invocations = 0;
+        queued = false;
+    }
+}
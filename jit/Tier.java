@@ -0,0 +1,147 @@
+package jit;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import stone.ast.WhileStmnt;
+
+/*
+ * 分层执行的策略.
+ *
+ * 所有 def 的函数体和 while 循环一开始都由解释器执行, 只维护一个计数器.
+ * 调用次数达到 callThreshold, 或者循环的回边 (back edge) 次数达到
+ * loopThreshold 之后, 才会交给后台线程编译, 编译期间继续解释执行.
+ * 编译完成后, 函数的下一次调用, 或者循环的下一次迭代, 切换到编译后的代码.
+ * 运行时间很短的脚本达不到阈值, 不会付出任何编译的代价.
+ *
+ * 编译结果依赖的全局函数名记录在 dependencies 中, 全局的 def 重新定义了
+ * 这样的名字时, 所有依赖它的编译结果都会作废, 回到解释执行重新计数.
+ */
+public class Tier {
+    public static volatile boolean enabled = true;
+    public static volatile boolean background = true;
+    public static int callThreshold = 1000;
+    public static int loopThreshold = 10000;
+
+    /* 编译时所做假设的有效性. 作废之后, 正在执行中的旧代码也不再使用缓存 */
+    public static class Assumption {
+        private volatile boolean valid = true;
+        public boolean isValid() { return valid; }
+        public void invalidate() { valid = false; }
+    }
+
+    private static final HashMap<String, ArrayList<Profile>> dependents
+        = new HashMap<String, ArrayList<Profile>>();
+    private static final AtomicLong epoch = new AtomicLong();
+    private static final AtomicLong compiledFunctions = new AtomicLong();
+    private static final AtomicLong compiledLoops = new AtomicLong();
+    private static final AtomicLong invalidations = new AtomicLong();
+    private static final AtomicLong failures = new AtomicLong();
+    private static ExecutorService executor;
+
+    public static long epoch() { return epoch.get(); }
+
+    public static void submit(final Profile p) {
+        if (!enabled || p.queued || p.failed)
+            return;
+
+        p.queued = true;
+        run(new Runnable() {
+            public void run() { p.compile(); }
+        });
+    }
+
+    public static void submit(final TieredEvaluator.WhileTierEx loop) {
+        if (!enabled || loop.queued)
+            return;
+
+        loop.queued = true;
+        run(new Runnable() {
+            public void run() {
+                try {
+                    loop.code = Compiler.forLoop().loop((WhileStmnt)loop);
+                    compiledLoops.incrementAndGet();
+                } catch (RuntimeException e) {
+                    failures.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    protected static void run(Runnable task) {
+        if (background)
+            executor().execute(task);
+        else
+            task.run();
+    }
+
+    protected static synchronized ExecutorService executor() {
+        if (executor == null)
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = Executors.defaultThreadFactory().newThread(r);
+                    t.setName("stone-compiler");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+        return executor;
+    }
+
+    /* 编译期间如果发生过作废, 编译结果可能已经过时, 放弃安装 */
+    protected static synchronized boolean install(Profile p, Assumption a,
+                                                  Code c, HashSet<String> deps,
+                                                  long startEpoch)
+    {
+        if (epoch.get() != startEpoch)
+            return false;
+
+        for (String name: deps) {
+            ArrayList<Profile> list = dependents.get(name);
+            if (list == null) {
+                list = new ArrayList<Profile>();
+                dependents.put(name, list);
+            }
+            list.add(p);
+        }
+
+        p.assumption = a;
+        p.code = c;
+        compiledFunctions.incrementAndGet();
+        return true;
+    }
+
+    /* 全局的 name 被 def 重新定义了 */
+    public static synchronized void invalidate(String name) {
+        ArrayList<Profile> list = dependents.remove(name);
+        if (list != null) {
+            epoch.incrementAndGet();
+            for (Profile p: list)
+                if (p.code != null) {
+                    p.invalidate();
+                    invalidations.incrementAndGet();
+                }
+        }
+    }
+
+    protected static void failed(Profile p, RuntimeException e) {
+        failures.incrementAndGet();
+    }
+
+    public static long compiledFunctions() { return compiledFunctions.get(); }
+    public static long compiledLoops() { return compiledLoops.get(); }
+    public static long invalidations() { return invalidations.get(); }
+    public static long failures() { return failures.get(); }
+
+    public static String stats() {
+        return "tier: compiled functions=" + compiledFunctions()
+               + " loops=" + compiledLoops()
+               + " invalidations=" + invalidations()
+               + " failures=" + failures();
+    }
+}
@@ -0,0 +1,91 @@
+package jit;
+
+import java.util.List;
+import javassist.gluonj.*;
+import stone.ast.*;
+import chap6.Environment;
+import chap6.BasicEvaluator;
+import chap6.BasicEvaluator.ASTreeEx;
+import chap6.BasicEvaluator.BlockEx;
+import chap6.BasicEvaluator.WhileEx;
+import chap7.FuncEvaluator;
+import chap7.Function;
+import chap7.NestedEnv;
+import chap7.FuncEvaluator.DefStmntEx;
+
+/*
+ * 在 FuncEvaluator 之上加入计数器和编译后代码的切换, 策略见 Tier.
+ */
+@Require(FuncEvaluator.class)
+@Reviser public class TieredEvaluator {
+    @Reviser
+    public static class DefTierEx extends DefStmntEx {
+        public DefTierEx(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) {
+            Object result = super.eval(env);
+            if (isGlobal(env))
+                Tier.invalidate(name());
+
+            return result;
+        }
+
+        public Function makeFunction(Environment env) {
+            BodyEx b = (BodyEx)body();
+            if (b.profile == null)
+                b.profile = new Profile(this, isGlobal(env));
+
+            return super.makeFunction(env);
+        }
+
+        protected static boolean isGlobal(Environment env) {
+            return env instanceof NestedEnv
+                   && ((NestedEnv)env).outer() == null;
+        }
+    }
+
+    /* 只有函数体的 block 才有 profile */
+    @Reviser
+    public static class BodyEx extends BlockEx {
+        protected Profile profile;
+        public BodyEx(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) {
+            Profile p = profile;
+            if (p != null) {
+                Code c = p.code;
+                if (c != null)
+                    return c.run(env);
+                else if (p.count())
+                    Tier.submit(p);
+            }
+            return super.eval(env);
+        }
+    }
+
+    @Reviser
+    public static class WhileTierEx extends WhileEx {
+        protected int backEdges;
+        protected volatile boolean queued;
+        protected volatile Compiler.WhileCode code;
+        public WhileTierEx(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) {
+            Compiler.WhileCode c = code;
+            if (c != null)
+                return c.run(env);
+
+            Object result = 0;
+            for (;;) {
+                Object cond = ((ASTreeEx)condition()).eval(env);
+                if (cond instanceof Integer
+                    && ((Integer)cond).intValue() == BasicEvaluator.FALSE)
+                    return result;
+                else
+                    result = ((ASTreeEx)body()).eval(env);
+
+                if (++backEdges == Tier.loopThreshold)
+                    Tier.submit(this);
+                else if ((c = code) != null)
+                    return c.resume(env, result);
+            }
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package jit;
+
+import javassist.gluonj.util.Loader;
+
+public class TieredRunner {
+    public static void main(String[] args) throws Throwable {
+        Loader.run(TieredInterpreter.class, args, TieredEvaluator.class);
+    }
+}
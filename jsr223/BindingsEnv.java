@@ -0,0 +1,74 @@
+package jsr223;
+
+import java.util.Map;
+import javax.script.Bindings;
+import chap6.Environment;
+import chap7.NestedEnv;
+import chap7.FuncEvaluator.EnvEx;
+
+/*
+ * 以 Bindings (ENGINE_SCOPE) 作为变量表的 NestedEnv. 脚本的全局变量和
+ * def 的函数都写入 Bindings, 宿主程序可以直接读取.
+ * 读取时 Long, Short, Byte 转换成 Integer, Boolean 转换成 1/0.
+ * outer 是 GLOBAL_SCOPE 之类的外层, 最外层是 natives 的环境.
+ */
+public class BindingsEnv extends NestedEnv {
+    protected Bindings bindings;
+
+    public BindingsEnv(Bindings b, Environment outer) {
+        super(outer, null);
+        bindings = b;
+    }
+
+    public Bindings bindings() { return bindings; }
+
+    public String[] names() {
+        return bindings.keySet().toArray(new String[bindings.size()]);
+    }
+
+    public Object getLocal(String name) { return toStone(bindings.get(name)); }
+
+    public Object get(String name) {
+        Object v = bindings.get(name);
+        if (v == null && outer != null)
+            return outer.get(name);
+        else
+            return toStone(v);
+    }
+
+    public void putNew(String name, Object value) {
+        bindings.put(name, value);
+        version++;
+    }
+
+    public Environment where(String name) {
+        if (bindings.get(name) != null)
+            return this;
+        else if (outer == null)
+            return null;
+        else
+            return ((EnvEx)outer).where(name);
+    }
+
+    public static Object toStone(Object v) {
+        if (v instanceof Long || v instanceof Short || v instanceof Byte)
+            return ((Number)v).intValue();
+        else if (v instanceof Boolean)
+            return ((Boolean)v).booleanValue() ? 1 : 0;
+        else
+            return v;
+    }
+
+    /* GLOBAL_SCOPE 等其他 Bindings 只读, 不写入 */
+    public static class ReadOnly extends BindingsEnv {
+        public ReadOnly(Bindings b, Environment outer) { super(b, outer); }
+
+        public void putNew(String name, Object value) {
+            throw new IllegalStateException("read-only scope: " + name);
+        }
+
+        public Environment where(String name) {
+            return outer == null ? null : ((EnvEx)outer).where(name);
+        }
+    }
+}
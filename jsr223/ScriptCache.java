@@ -0,0 +1,66 @@
+package jsr223;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import stone.ast.ASTree;
+
+/*
+ * 以源代码为键, 缓存解析好的程序的 LRU 缓存. 程序与引擎无关,
+ * 同一个工厂的引擎共享. 超过 capacity 时丢弃最久没有使用的脚本.
+ * 命中次数, 未命中次数和丢弃次数可以从外部读取.
+ */
+public class ScriptCache {
+    protected final int capacity;
+    protected final LinkedHashMap<String,List<ASTree>> map;
+    protected long hits, misses, evictions;
+
+    public ScriptCache(int capacity) {
+        this.capacity = capacity;
+        map = new LinkedHashMap<String,List<ASTree>>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(
+                            Map.Entry<String,List<ASTree>> e)
+            {
+                if (size() > ScriptCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                else
+                    return false;
+            }
+        };
+    }
+
+    public synchronized List<ASTree> get(String source) {
+        List<ASTree> s = map.get(source);
+        if (s == null)
+            misses++;
+        else
+            hits++;
+
+        return s;
+    }
+
+    public synchronized void put(String source, List<ASTree> s) {
+        map.put(source, s);
+    }
+
+    public synchronized void clear() { map.clear(); }
+
+    public int capacity() { return capacity; }
+    public synchronized int size() { return map.size(); }
+    public synchronized long hits() { return hits; }
+    public synchronized long misses() { return misses; }
+    public synchronized long evictions() { return evictions; }
+
+    public synchronized double hitRate() {
+        long n = hits + misses;
+        return n == 0 ? 0 : (double)hits / n;
+    }
+
+    public synchronized String toString() {
+        return String.format("size %d/%d, hits %d, misses %d (%.1f%%), evictions %d",
+                             map.size(), capacity, hits, misses,
+                             hitRate() * 100, evictions);
+    }
+}
@@ -0,0 +1,42 @@
+package jsr223;
+
+import java.util.List;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import stone.StoneException;
+import stone.ast.ASTree;
+import chap6.BasicEvaluator.ASTreeEx;
+
+/*
+ * 解析好的脚本. eval 时只求值, 不再词法分析和解析.
+ * AST 中的内联缓存等是共享的, 多个线程可以同时 eval 同一个脚本.
+ */
+public class StoneCompiledScript extends CompiledScript {
+    protected StoneScriptEngine engine;
+    protected List<ASTree> program;
+
+    public StoneCompiledScript(StoneScriptEngine e, List<ASTree> p) {
+        engine = e;
+        program = p;
+    }
+
+    public ScriptEngine getEngine() { return engine; }
+
+    public Object eval(ScriptContext context) throws ScriptException {
+        BindingsEnv env = engine.environment(context);
+        Object result = null;
+        try {
+            for (ASTree t: program)
+                result = ((ASTreeEx)t).eval(env);
+        } catch (StoneException e) {
+            throw StoneScriptEngine.error(e.getMessage(), e);
+        } catch (RuntimeException e) {
+            /* 例如 1 / 0 的 ArithmeticException */
+            String msg = e.getMessage();
+            throw StoneScriptEngine.error(msg == null ? e.toString() : msg, e);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,125 @@
+package jsr223;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+import stone.*;
+import stone.ast.ASTree;
+import stone.ast.NullStmnt;
+import chap6.Environment;
+import chap7.SymbolEnv;
+import chap10.DictNatives;
+
+/*
+ * javax.script 的 Stone 引擎.
+ *
+ * 解析的结果以源代码为键缓存在工厂的 ScriptCache 中 (同一个工厂的
+ * 引擎共享), compile 和 eval(String) 都经过这个缓存, 同样的脚本只解析一次.
+ * 变量查找的顺序: ENGINE_SCOPE, GLOBAL_SCOPE, natives.
+ *
+ * 求值需要修改后的 AST 类: 用 PreWeaver 预先修改, 或者宿主程序通过
+ * javassist.gluonj.util.Loader 以 DictEvaluator 启动. 后者的情况下
+ * ScriptEngineManager 不能使用, 直接用 new StoneScriptEngineFactory().
+ */
+public class StoneScriptEngine extends AbstractScriptEngine
+    implements Compilable
+{
+    protected StoneScriptEngineFactory factory;
+    protected Environment natives;
+
+    public StoneScriptEngine(StoneScriptEngineFactory f) {
+        factory = f;
+        natives = new DictNatives().environment(new SymbolEnv());
+    }
+
+    public ScriptEngineFactory getFactory() { return factory; }
+    public Bindings createBindings() { return new SimpleBindings(); }
+    public ScriptCache cache() { return factory.cache(); }
+
+    public Object eval(String script, ScriptContext context)
+        throws ScriptException
+    {
+        return compile(script).eval(context);
+    }
+
+    public Object eval(Reader reader, ScriptContext context)
+        throws ScriptException
+    {
+        return compile(reader).eval(context);
+    }
+
+    public CompiledScript compile(Reader reader) throws ScriptException {
+        StringBuilder sb = new StringBuilder();
+        char[] buf = new char[8192];
+        try {
+            int n;
+            while ((n = reader.read(buf)) >= 0)
+                sb.append(buf, 0, n);
+        } catch (IOException e) {
+            throw error(e.getMessage(), e);
+        }
+        return compile(sb.toString());
+    }
+
+    public StoneCompiledScript compile(String script) throws ScriptException {
+        ScriptCache cache = factory.cache();
+        List<ASTree> program = cache.get(script);
+        if (program == null) {
+            program = parse(script);
+            cache.put(script, program);
+        }
+        return new StoneCompiledScript(this, program);
+    }
+
+    protected ArrayList<ASTree> parse(String script) throws ScriptException {
+        FuncParser parser = new FuncParser();
+        Lexer lexer = new Lexer(new StringReader(script));
+        ArrayList<ASTree> program = new ArrayList<ASTree>();
+        try {
+            while (lexer.peek(0) != Token.EOF) {
+                ASTree t = parser.parse(lexer);
+                if (!(t instanceof NullStmnt))
+                    program.add(t);
+            }
+        } catch (ParseException e) {
+            throw error(e.getMessage(), e);
+        }
+        return program;
+    }
+
+    /*
+     * 在 javassist.gluonj.util.Loader 之下, 类中不能直接 new ScriptException:
+     * 这里的 javassist 读不了它的 class 文件 (含有 invokedynamic).
+     */
+    static ScriptException error(String message, Throwable cause) {
+        ScriptException e;
+        try {
+            e = ScriptException.class.getConstructor(String.class)
+                                     .newInstance(message);
+        } catch (ReflectiveOperationException x) {
+            throw new IllegalStateException(x);
+        }
+        e.initCause(cause);
+        return e;
+    }
+
+    protected BindingsEnv environment(ScriptContext context) {
+        Environment outer = natives;
+        Bindings global = context.getBindings(ScriptContext.GLOBAL_SCOPE);
+        if (global != null)
+            outer = new BindingsEnv.ReadOnly(global, outer);
+
+        Bindings engine = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        return new BindingsEnv(engine, outer);
+    }
+}
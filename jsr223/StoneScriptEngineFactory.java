@@ -0,0 +1,73 @@
+package jsr223;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+/*
+ * 通过 META-INF/services/javax.script.ScriptEngineFactory 登记.
+ * -Dstone.scriptCache=n 指定缓存的脚本数 (默认 256).
+ */
+public class StoneScriptEngineFactory implements ScriptEngineFactory {
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    protected ScriptCache cache
+        = new ScriptCache(Integer.getInteger("stone.scriptCache",
+                                             DEFAULT_CACHE_SIZE));
+
+    public ScriptCache cache() { return cache; }
+
+    public String getEngineName() { return "Stone"; }
+    public String getEngineVersion() { return "1.0"; }
+    public List<String> getExtensions() { return Collections.singletonList("st"); }
+    public List<String> getMimeTypes() {
+        return Collections.singletonList("text/x-stone");
+    }
+
+    public List<String> getNames() { return Arrays.asList("stone", "st"); }
+    public String getLanguageName() { return "Stone"; }
+    public String getLanguageVersion() { return "1.0"; }
+
+    public Object getParameter(String key) {
+        if (key.equals(ScriptEngine.NAME))
+            return "stone";
+        else if (key.equals(ScriptEngine.ENGINE))
+            return getEngineName();
+        else if (key.equals(ScriptEngine.ENGINE_VERSION))
+            return getEngineVersion();
+        else if (key.equals(ScriptEngine.LANGUAGE))
+            return getLanguageName();
+        else if (key.equals(ScriptEngine.LANGUAGE_VERSION))
+            return getLanguageVersion();
+        else
+            return null;
+    }
+
+    public String getMethodCallSyntax(String obj, String m, String... args) {
+        StringBuilder sb = new StringBuilder(m).append('(');
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0)
+                sb.append(", ");
+
+            sb.append(args[i]);
+        }
+        return sb.append(')').toString();
+    }
+
+    public String getOutputStatement(String toDisplay) {
+        return "print(\"" + toDisplay.replace("\\", "\\\\").replace("\"", "\\\"")
+               + "\")";
+    }
+
+    public String getProgram(String... statements) {
+        StringBuilder sb = new StringBuilder();
+        for (String s: statements)
+            sb.append(s).append('\n');
+
+        return sb.toString();
+    }
+
+    public ScriptEngine getScriptEngine() { return new StoneScriptEngine(this); }
+}
@@ -0,0 +1,69 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * 延迟的直方图. 第 i 个桶记录 [2^i, 2^(i+1)) 纳秒的样本.
+ * 每个桶是 LongAdder, 多个线程同时记录时不会争用同一个计数器.
+ * 百分位数返回所在桶的上界, 误差在 2 倍以内.
+ */
+public class Histogram {
+    private static final int BUCKETS = 64;
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder sum = new LongAdder();
+
+    public Histogram() {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    public void record(long nanos) {
+        if (nanos < 1)
+            nanos = 1;
+
+        buckets[63 - Long.numberOfLeadingZeros(nanos)].increment();
+        sum.add(nanos);
+    }
+
+    public long count() {
+        long n = 0;
+        for (LongAdder b: buckets)
+            n += b.sum();
+
+        return n;
+    }
+
+    public long totalNanos() { return sum.sum(); }
+
+    public long meanNanos() {
+        long n = count();
+        return n == 0 ? 0 : sum.sum() / n;
+    }
+
+    /* p 在 0 到 1 之间 */
+    public long percentileNanos(double p) {
+        long[] counts = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            n += counts[i] = buckets[i].sum();
+
+        if (n == 0)
+            return 0;
+
+        long rank = (long)Math.ceil(p * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    public void reset() {
+        for (LongAdder b: buckets)
+            b.reset();
+
+        sum.reset();
+    }
+}
@@ -0,0 +1,170 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import stone.Monitor;
+
+/*
+ * 解释器的运行时计数器.
+ *
+ * Lexer, 环境和 StoneException 中的钩子通过 stone.Monitor 调用这里,
+ * 装入这个类时 install Hook. ENABLED 与 Monitor.ENABLED 相同, 没有指定
+ * -Dstone.metrics=true 时 JIT 会把钩子整个删掉. 求值的计数由
+ * MetricsEvaluator 统计, 只在织入时才有开销.
+ *
+ * 计数器都是 LongAdder (按线程分散的计数单元), 多线程同时更新时不争用.
+ * register() 把这些计数以 stone:type=Metrics 的名字登记到 JMX.
+ */
+public class Metrics {
+    public static final boolean ENABLED = Monitor.ENABLED;
+    public static final String OBJECT_NAME = "stone:type=Metrics";
+
+    public static final int NUMBER = 0, STRING = 1, NAME = 2, NEGATIVE = 3,
+                            BINARY = 4, PRIMARY = 5, ARGUMENTS = 6,
+                            ARRAY_REF = 7, BLOCK = 8, IF = 9, WHILE = 10,
+                            DEF = 11, DICT = 12;
+    static final String[] NODE_NAMES = {
+        "NumberLiteral", "StringLiteral", "Name", "NegativeExpr", "BinaryExpr",
+        "PrimaryExpr", "Arguments", "ArrayRef", "BlockStmnt", "IfStmnt",
+        "WhileStmnt", "DefStmnt", "DictLiteral" };
+
+    static final LongAdder tokens = new LongAdder();
+    static final LongAdder lexNanos = new LongAdder();
+    static final LongAdder lookups = new LongAdder();
+    static final LongAdder levels = new LongAdder();
+    static final LongAdder calls = new LongAdder();
+    static final LongAdder environments = new LongAdder();
+    static final LongAdder[] nodes = new LongAdder[NODE_NAMES.length];
+    static final ConcurrentHashMap<String,LongAdder> errors
+        = new ConcurrentHashMap<String,LongAdder>();
+    static final Histogram parse = new Histogram();
+    static final Histogram eval = new Histogram();
+
+    static {
+        for (int i = 0; i < nodes.length; i++)
+            nodes[i] = new LongAdder();
+
+        if (ENABLED)
+            Monitor.install(new Hook());
+    }
+
+    static final class Hook extends Monitor {
+        public void lexed(int n, long nanos) { Metrics.lexed(n, nanos); }
+        public void parsed(long nanos) { Metrics.parsed(nanos); }
+        public void environment() { Metrics.environment(); }
+        public void level() { Metrics.level(); }
+        public void error(String message) { Metrics.error(message); }
+    }
+
+    private static boolean registered;
+
+    public static synchronized void register() {
+        if (registered)
+            return;
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(new StoneMetrics(), ObjectName.getInstance(OBJECT_NAME));
+            registered = true;
+        } catch (Exception e) {
+            throw new RuntimeException("cannot register " + OBJECT_NAME, e);
+        }
+    }
+
+    // hooks
+
+    public static void lexed(int n, long nanos) {
+        tokens.add(n);
+        lexNanos.add(nanos);
+    }
+
+    public static void parsed(long nanos) { parse.record(nanos); }
+    public static void evaluated(long nanos) { eval.record(nanos); }
+    public static void node(int kind) { nodes[kind].increment(); }
+    public static void lookup() { lookups.increment(); }
+    public static void level() { levels.increment(); }
+    public static void call() { calls.increment(); }
+    public static void environment() { environments.increment(); }
+
+    /* 消息中 "at line N" 之类的位置信息不区分 */
+    public static void error(String message) {
+        if (message == null)
+            message = "";
+        else {
+            int i = message.indexOf(" at line ");
+            if (i >= 0)
+                message = message.substring(0, i);
+        }
+
+        LongAdder a = errors.get(message);
+        if (a == null) {
+            LongAdder b = errors.putIfAbsent(message, a = new LongAdder());
+            if (b != null)
+                a = b;
+        }
+        a.increment();
+    }
+
+    // snapshots
+
+    public static Map<String,Long> nodeCounts() {
+        LinkedHashMap<String,Long> m = new LinkedHashMap<String,Long>();
+        for (int i = 0; i < nodes.length; i++)
+            m.put(NODE_NAMES[i], nodes[i].sum());
+
+        return m;
+    }
+
+    public static Map<String,Long> errorCounts() {
+        LinkedHashMap<String,Long> m = new LinkedHashMap<String,Long>();
+        for (Map.Entry<String,LongAdder> e: errors.entrySet())
+            m.put(e.getKey(), e.getValue().sum());
+
+        return m;
+    }
+
+    public static void reset() {
+        tokens.reset();
+        lexNanos.reset();
+        lookups.reset();
+        levels.reset();
+        calls.reset();
+        environments.reset();
+        for (LongAdder a: nodes)
+            a.reset();
+
+        errors.clear();
+        parse.reset();
+        eval.reset();
+    }
+
+    public static String report() {
+        StoneMetrics m = new StoneMetrics();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("tokens        %d (%.0f/s)%n", m.getTokens(),
+                                m.getTokensPerSecond()));
+        sb.append(String.format("parse         %d, mean %d us, p99 %d us%n",
+                                m.getParseCount(), m.getParseMeanMicros(),
+                                m.getParseP99Micros()));
+        sb.append(String.format("eval          %d, mean %d us, p99 %d us%n",
+                                m.getEvalCount(), m.getEvalMeanMicros(),
+                                m.getEvalP99Micros()));
+        sb.append(String.format("lookups       %d (%.2f levels each)%n",
+                                m.getLookups(), m.getMeanChainDepth()));
+        sb.append(String.format("calls         %d%n", m.getCalls()));
+        sb.append(String.format("environments  %d%n", m.getEnvironments()));
+        for (Map.Entry<String,Long> e: nodeCounts().entrySet())
+            if (e.getValue() > 0)
+                sb.append(String.format("  %-12s %d%n", e.getKey(), e.getValue()));
+
+        for (Map.Entry<String,Long> e: errorCounts().entrySet())
+            sb.append(String.format("error %d: %s%n", e.getValue(), e.getKey()));
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,141 @@
+package metrics;
+
+import java.util.List;
+import javassist.gluonj.*;
+import stone.Token;
+import stone.ast.*;
+import chap6.Environment;
+import chap7.FuncEvaluator.DefStmntEx;
+import chap7.FuncEvaluator.PrimaryEx;
+import chap8.NativeEvaluator.NativeArgEx;
+import chap10.ArrayEvaluator.ArrayRefEx;
+import chap10.ArrayEvaluator.AssignEx;
+import chap10.DictEvaluator;
+import chap10.DictEvaluator.DictLiteralEx;
+import chap6.BasicEvaluator.*;
+
+/*
+ * 按 AST 节点的种类统计求值的次数, 以及变量查找和函数调用的次数.
+ * 与 prof.ProfEvaluator 修改的是同样的类, 二者不能同时织入.
+ */
+@Require(DictEvaluator.class)
+@Reviser public class MetricsEvaluator {
+    @Reviser
+    public static class NumberMx extends NumberEx {
+        public NumberMx(Token t) { super(t); }
+        public Object eval(Environment env) {
+            Metrics.node(Metrics.NUMBER);
+            return super.eval(env);
+        }
+    }
+
+    @Reviser
+    public static class StringMx extends StringEx {
+        public StringMx(Token t) { super(t); }
+        public Object eval(Environment env) {
+            Metrics.node(Metrics.STRING);
+            return super.eval(env);
+        }
+    }
+
+    @Reviser
+    public static class NameMx extends NameEx {
+        public NameMx(Token t) { super(t); }
+        public Object eval(Environment env) {
+            Metrics.node(Metrics.NAME);
+            Metrics.lookup();
+            return super.eval(env);
+        }
+    }
+
+    @Reviser
+    public static class NegativeMx extends NegativeEx {
+        public NegativeMx(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) {
+            Metrics.node(Metrics.NEGATIVE);
+            return super.eval(env);
+        }
+    }
+
+    @Reviser
+    public static class BinaryMx extends AssignEx {
+        public BinaryMx(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) {
+            Metrics.node(Metrics.BINARY);
+            return super.eval(env);
+        }
+    }
+
+    @Reviser
+    public static class PrimaryMx extends PrimaryEx {
+        public PrimaryMx(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) {
+            Metrics.node(Metrics.PRIMARY);
+            return super.eval(env);
+        }
+    }
+
+    @Reviser
+    public static class ArgumentsMx extends NativeArgEx {
+        public ArgumentsMx(List<ASTree> c) { super(c); }
+        public Object eval(Environment callerEnv, Object value) {
+            Metrics.node(Metrics.ARGUMENTS);
+            Metrics.call();
+            return super.eval(callerEnv, value);
+        }
+    }
+
+    @Reviser
+    public static class ArrayRefMx extends ArrayRefEx {
+        public ArrayRefMx(List<ASTree> c) { super(c); }
+        public Object eval(Environment env, Object value) {
+            Metrics.node(Metrics.ARRAY_REF);
+            return super.eval(env, value);
+        }
+    }
+
+    @Reviser
+    public static class BlockMx extends BlockEx {
+        public BlockMx(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) {
+            Metrics.node(Metrics.BLOCK);
+            return super.eval(env);
+        }
+    }
+
+    @Reviser
+    public static class IfMx extends IfEx {
+        public IfMx(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) {
+            Metrics.node(Metrics.IF);
+            return super.eval(env);
+        }
+    }
+
+    @Reviser
+    public static class WhileMx extends WhileEx {
+        public WhileMx(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) {
+            Metrics.node(Metrics.WHILE);
+            return super.eval(env);
+        }
+    }
+
+    @Reviser
+    public static class DefStmntMx extends DefStmntEx {
+        public DefStmntMx(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) {
+            Metrics.node(Metrics.DEF);
+            return super.eval(env);
+        }
+    }
+
+    @Reviser
+    public static class DictLiteralMx extends DictLiteralEx {
+        public DictLiteralMx(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) {
+            Metrics.node(Metrics.DICT);
+            return super.eval(env);
+        }
+    }
+}
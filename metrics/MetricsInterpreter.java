@@ -0,0 +1,65 @@
+package metrics;
+
+import java.io.IOException;
+import java.io.StringReader;
+import stone.*;
+import stone.ast.ASTree;
+import stone.ast.NullStmnt;
+import chap6.Environment;
+import chap6.BasicEvaluator.ASTreeEx;
+import chap7.SymbolEnv;
+import chap10.DictNatives;
+
+/*
+ * 用法: MetricsInterpreter [-wait seconds] script.st ...
+ *
+ * 把计数登记到 JMX (stone:type=Metrics) 后依次执行脚本, 最后把计数输出到
+ * stderr. -wait 指定时结束前等待, 以便用 jconsole 等工具查看.
+ * 需要 -Dstone.metrics=true, MetricsRunner 会设置它.
+ */
+public class MetricsInterpreter {
+    public static void main(String[] args)
+        throws ParseException, IOException, InterruptedException
+    {
+        int wait = 0;
+        int i = 0;
+        if (args.length > 1 && args[0].equals("-wait")) {
+            wait = Integer.parseInt(args[1]);
+            i = 2;
+        }
+
+        if (!Metrics.ENABLED)
+            System.err.println("metrics: -Dstone.metrics=true is not set");
+
+        Metrics.register();
+        SymbolEnv env = new SymbolEnv();
+        new DictNatives().environment(env);
+        for (; i < args.length; i++) {
+            try {
+                run(Scripts.read(args[i]), env);
+            } catch (StoneException e) {
+                System.err.println(args[i] + ": " + e.getMessage());
+            }
+        }
+
+        System.err.print(Metrics.report());
+        if (wait > 0)
+            Thread.sleep(wait * 1000L);
+    }
+
+    public static void run(String source, Environment env)
+        throws ParseException
+    {
+        FuncParser parser = new FuncParser();
+        Lexer lexer = new Lexer(new StringReader(source));
+        while (lexer.peek(0) != Token.EOF) {
+            ASTree t = parser.parse(lexer);
+            if (!(t instanceof NullStmnt)) {
+                long start = System.nanoTime();
+                Object r = ((ASTreeEx)t).eval(env);
+                Metrics.evaluated(System.nanoTime() - start);
+                System.out.println("=> " + r);
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package metrics;
+
+import javassist.gluonj.util.Loader;
+
+public class MetricsRunner {
+    public static void main(String[] args) throws Throwable {
+        if (System.getProperty("stone.metrics") == null)
+            System.setProperty("stone.metrics", "true");
+
+        Loader.run(MetricsInterpreter.class, args, MetricsEvaluator.class);
+    }
+}
@@ -0,0 +1,46 @@
+package metrics;
+
+import java.util.Map;
+
+/* JMX 看到的 Metrics. 每次读取时把各计数器合计一遍 */
+public class StoneMetrics implements StoneMetricsMXBean {
+    public long getTokens() { return Metrics.tokens.sum(); }
+
+    public double getTokensPerSecond() {
+        long nanos = Metrics.lexNanos.sum();
+        return nanos == 0 ? 0 : Metrics.tokens.sum() * 1e9 / nanos;
+    }
+
+    public long getParseCount() { return Metrics.parse.count(); }
+    public long getParseMeanMicros() { return Metrics.parse.meanNanos() / 1000; }
+    public long getParseP50Micros() {
+        return Metrics.parse.percentileNanos(0.5) / 1000;
+    }
+
+    public long getParseP99Micros() {
+        return Metrics.parse.percentileNanos(0.99) / 1000;
+    }
+
+    public long getEvalCount() { return Metrics.eval.count(); }
+    public long getEvalMeanMicros() { return Metrics.eval.meanNanos() / 1000; }
+    public long getEvalP50Micros() {
+        return Metrics.eval.percentileNanos(0.5) / 1000;
+    }
+
+    public long getEvalP99Micros() {
+        return Metrics.eval.percentileNanos(0.99) / 1000;
+    }
+
+    public long getLookups() { return Metrics.lookups.sum(); }
+
+    public double getMeanChainDepth() {
+        long n = Metrics.lookups.sum();
+        return n == 0 ? 0 : (double)Metrics.levels.sum() / n;
+    }
+
+    public long getCalls() { return Metrics.calls.sum(); }
+    public long getEnvironments() { return Metrics.environments.sum(); }
+    public Map<String,Long> getNodeCounts() { return Metrics.nodeCounts(); }
+    public Map<String,Long> getErrorCounts() { return Metrics.errorCounts(); }
+    public void reset() { Metrics.reset(); }
+}
@@ -0,0 +1,23 @@
+package metrics;
+
+import java.util.Map;
+
+public interface StoneMetricsMXBean {
+    long getTokens();
+    double getTokensPerSecond();
+    long getParseCount();
+    long getParseMeanMicros();
+    long getParseP50Micros();
+    long getParseP99Micros();
+    long getEvalCount();
+    long getEvalMeanMicros();
+    long getEvalP50Micros();
+    long getEvalP99Micros();
+    long getLookups();
+    double getMeanChainDepth();
+    long getCalls();
+    long getEnvironments();
+    Map<String,Long> getNodeCounts();
+    Map<String,Long> getErrorCounts();
+    void reset();
+}
@@ -0,0 +1,174 @@
+package parallel;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import stone.StoneException;
+import stone.ast.ParameterList;
+import chap6.BasicEvaluator.BlockEx;
+import chap7.Function;
+import chap7.TailCall;
+import chap7.FuncEvaluator.EnvEx;
+import chap8.NativeFunction;
+import chap10.ArrayValue;
+import chap10.Owner;
+
+/*
+ * 数据并行: pmap 和 preduce.
+ *
+ * 数组按长度分成最多 CHUNKS 块, 每块是 ForkJoinPool 中的一个任务. 调用方
+ * 等待全部任务完成 (fork/join), 所以任务执行期间不会有别的代码写环境.
+ * 任务中的函数通过 TaskEnv 看到外层环境, 只能读, 不能赋值. 任务也不能修改
+ * 别处创建的数组和字典 (Owner), 只能修改自己创建的.
+ * 分块只取决于数组的长度, 与线程数和执行的先后无关, 所以 preduce 的结果
+ * 是确定的. 多块出错时抛出下标最小的那一块的异常.
+ * 线程数由 stone.parallelism 指定, 默认是 CPU 数.
+ */
+public class Parallel {
+    public static final int CHUNKS = 256;
+
+    private static ForkJoinPool pool;
+
+    public static synchronized ForkJoinPool pool() {
+        if (pool == null)
+            pool = new ForkJoinPool(Integer.getInteger("stone.parallelism",
+                                    Runtime.getRuntime().availableProcessors()));
+        return pool;
+    }
+
+    /* 各元素调用 f 的结果组成的新数组 */
+    public static ArrayValue map(ArrayValue a, Object f) {
+        int n = a.length();
+        Chunk[] chunks = split(a, f, false);
+        Object[] values = new Object[n];
+        for (Chunk c: chunks)
+            System.arraycopy(c.results, 0, values, c.from, c.results.length);
+
+        ArrayValue result = new ArrayValue(n);
+        for (int i = 0; i < n; i++)
+            result.set(i, values[i], null);
+
+        return result;
+    }
+
+    /*
+     * 每块 a[from..to) 先从它的第一个元素开始归约, 得到
+     * p = f(...f(a[from], a[from+1])..., a[to-1]), 各块的结果再按顺序归约:
+     * f(...f(f(init, p0), p1)..., pk). f 满足结合律时与顺序执行的
+     * f(...f(init, a[0])..., a[n-1]) 相同, 否则结果不同 (但仍是确定的).
+     */
+    public static Object reduce(ArrayValue a, Object f, Object init) {
+        Chunk[] chunks = split(a, f, true);
+        Object fn = isolate(f);
+        Object acc = init;
+        for (Chunk c: chunks)
+            acc = call(fn, acc, c.partial);
+
+        return acc;
+    }
+
+    protected static Chunk[] split(ArrayValue a, Object f, boolean reduce) {
+        if (!(f instanceof Function || f instanceof NativeFunction))
+            throw new StoneException("bad function");
+
+        int n = a.length();
+        int count = Math.min(n, CHUNKS);
+        Chunk[] chunks = new Chunk[count];
+        for (int i = 0; i < count; i++)
+            chunks[i] = new Chunk(a, f, (int)((long)n * i / count),
+                                  (int)((long)n * (i + 1) / count), reduce);
+
+        if (count == 1)
+            chunks[0].compute();
+        else if (count == 0)
+            return chunks;
+        else if (ForkJoinTask.inForkJoinPool())
+            ForkJoinTask.invokeAll(chunks);
+        else
+            pool().invoke(new Fork(chunks));
+
+        for (Chunk c: chunks)
+            if (c.error != null)
+                throw c.error;
+
+        return chunks;
+    }
+
+    /* 任务中使用的 f */
+    protected static Object isolate(Object f) {
+        if (f instanceof Function)
+            return new TaskEnv(((Function)f).environment()).bind((Function)f);
+        else
+            return f;
+    }
+
+    protected static Object call(Object f, Object... args) {
+        if (f instanceof NativeFunction) {
+            NativeFunction nf = (NativeFunction)f;
+            if (nf.numOfParameters() != args.length)
+                throw new StoneException("bad number of arguments");
+
+            return nf.invoke(args, null);
+        }
+
+        Function func = (Function)f;
+        ParameterList params = func.parameters();
+        if (params.size() != args.length)
+            throw new StoneException("bad number of arguments");
+
+        EnvEx env = (EnvEx)func.makeEnv();
+        for (int i = 0; i < args.length; i++)
+            env.putNew(params.name(i), args[i]);
+
+        return TailCall.trampoline(((BlockEx)func.body()).eval(env));
+    }
+
+    static class Fork extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        transient Chunk[] chunks;
+        Fork(Chunk[] c) { chunks = c; }
+        protected void compute() { invokeAll(chunks); }
+    }
+
+    static class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        transient ArrayValue array;
+        transient Object function;
+        int from, to;
+        boolean reduce;
+        transient Object[] results;
+        transient Object partial;
+        RuntimeException error;
+
+        Chunk(ArrayValue a, Object f, int from, int to, boolean reduce) {
+            array = a;
+            function = f;
+            this.from = from;
+            this.to = to;
+            this.reduce = reduce;
+        }
+
+        protected void compute() {
+            Object saved = Owner.enter(this);
+            try {
+                Object f = isolate(function);
+                if (reduce) {
+                    Object acc = array.get(from, null);
+                    for (int i = from + 1; i < to; i++)
+                        acc = call(f, acc, array.get(i, null));
+
+                    partial = acc;
+                }
+                else {
+                    results = new Object[to - from];
+                    for (int i = from; i < to; i++)
+                        results[i - from] = call(f, array.get(i, null));
+                }
+            } catch (RuntimeException e) {
+                error = e;
+            } finally {
+                Owner.exit(saved);
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package parallel;
+
+import java.util.List;
+import javassist.gluonj.*;
+import stone.StoneException;
+import stone.ast.ASTree;
+import chap6.Environment;
+import chap10.DictEvaluator;
+import chap10.ArrayEvaluator.AssignEx;
+
+/*
+ * TaskEnv 不知道是哪个赋值语句, 在这里加上赋值语句的位置.
+ * 不在并行任务中时只多一个 try.
+ */
+@Require(DictEvaluator.class)
+@Reviser public class ParallelEvaluator {
+    @Reviser
+    public static class TaskAssignEx extends AssignEx {
+        public TaskAssignEx(List<ASTree> c) { super(c); }
+        protected Object computeAssign(Environment env, Object rvalue) {
+            try {
+                return super.computeAssign(env, rvalue);
+            } catch (TaskEnv.AssignmentException e) {
+                throw new StoneException(e.getMessage(), this);
+            }
+        }
+    }
+}
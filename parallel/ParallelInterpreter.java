@@ -0,0 +1,13 @@
+package parallel;
+
+import batch.BatchInterpreter;
+import chap8.Natives;
+
+/* 带有 pmap 和 preduce 的 BatchInterpreter */
+public class ParallelInterpreter extends BatchInterpreter {
+    public static void main(String[] args) {
+        System.exit(new ParallelInterpreter().run(args));
+    }
+
+    protected Natives natives() { return new ParallelNatives(); }
+}
@@ -0,0 +1,37 @@
+package parallel;
+
+import stone.StoneException;
+import chap10.ArrayValue;
+import chap10.DictNatives;
+
+/*
+ * pmap(array, f)            f(array[i]) 组成的新数组
+ * preduce(array, f, init)   用 f 归约 init 和 array 的各元素. 数组分块归约,
+ *                           各块的结果再按顺序归约, 所以 f 必须满足结合律
+ *                           才与顺序的 f(...f(init, array[0])..., array[n-1])
+ *                           相同. 例如 f 是减法时结果不同.
+ * 两者都在 ForkJoinPool 中并行执行 f, 见 Parallel.
+ */
+public class ParallelNatives extends DictNatives {
+    protected void appendNatives() {
+        super.appendNatives();
+        append("pmap", ParallelNatives.class, "pmap", Object.class, Object.class);
+        append("preduce", ParallelNatives.class, "preduce", Object.class,
+               Object.class, Object.class);
+    }
+
+    public static ArrayValue pmap(Object array, Object f) {
+        return Parallel.map(toArray(array), f);
+    }
+
+    public static Object preduce(Object array, Object f, Object init) {
+        return Parallel.reduce(toArray(array), f, init);
+    }
+
+    protected static ArrayValue toArray(Object value) {
+        if (value instanceof ArrayValue)
+            return (ArrayValue)value;
+        else
+            throw new StoneException("bad type: array is expected");
+    }
+}
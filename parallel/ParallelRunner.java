@@ -0,0 +1,9 @@
+package parallel;
+
+import javassist.gluonj.util.Loader;
+
+public class ParallelRunner {
+    public static void main(String[] args) throws Throwable {
+        Loader.run(ParallelInterpreter.class, args, ParallelEvaluator.class);
+    }
+}
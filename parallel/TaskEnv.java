@@ -0,0 +1,90 @@
+package parallel;
+
+import java.util.IdentityHashMap;
+import stone.StoneException;
+import chap6.Environment;
+import chap7.Function;
+import chap7.NestedEnv;
+
+/*
+ * 并行任务看到的外层环境.
+ *
+ * 读取时委托给原来的环境 env. 读到的 Function 重新绑定到它的定义环境的
+ * TaskEnv 上 (同一个任务中只绑定一次), 所以任务中无论经过多少层调用, 能
+ * 写到的只有各次调用自己的局部环境. 对外层已有变量的赋值抛出
+ * AssignmentException (ParallelEvaluator 加上赋值语句的位置), 外层没有的
+ * 变量照常成为调用环境中的局部变量.
+ * 一个任务的 TaskEnv 和绑定只在执行这个任务的线程中使用.
+ */
+public class TaskEnv extends NestedEnv {
+    protected Environment env;
+    protected IdentityHashMap<Object,Object> bindings;
+
+    public TaskEnv(Environment env) {
+        this(env, new IdentityHashMap<Object,Object>());
+    }
+
+    protected TaskEnv(Environment env, IdentityHashMap<Object,Object> bindings) {
+        super(null, null);
+        this.env = env;
+        this.bindings = bindings;
+        bindings.put(env, this);
+    }
+
+    public Object get(String name) {
+        Object v = env.get(name);
+        if (v instanceof Function)
+            return bind((Function)v);
+        else
+            return v;
+    }
+
+    public static class AssignmentException extends StoneException {
+        private static final long serialVersionUID = 1L;
+        public AssignmentException(String name) {
+            super("cannot assign to " + name + " in a parallel task");
+        }
+    }
+
+    public void putNew(String name, Object value) {
+        throw new AssignmentException(name);
+    }
+
+    public void put(String name, Object value) { putNew(name, value); }
+
+    public Environment where(String name) {
+        return env.get(name) == null ? null : this;
+    }
+
+    public int version() {
+        return env instanceof NestedEnv ? ((NestedEnv)env).version() : 0;
+    }
+
+    public String[] names() {
+        return env instanceof NestedEnv ? ((NestedEnv)env).names()
+                                        : new String[0];
+    }
+
+    /* f 的定义环境换成 TaskEnv 的 Function */
+    public Function bind(Function f) {
+        Object g = bindings.get(f);
+        if (g == null) {
+            Function h = new Function(f.parameters(), f.body(),
+                                      view(f.environment()));
+            h.setPurity(f.purity());
+            h.setCapture(f.capture());
+            bindings.put(f, h);
+            bindings.put(h, h);
+            g = h;
+        }
+        return (Function)g;
+    }
+
+    protected TaskEnv view(Environment e) {
+        if (e instanceof TaskEnv)
+            return (TaskEnv)e;
+
+        Object v = bindings.get(e);
+        return v != null ? (TaskEnv)v : new TaskEnv(e, bindings);
+    }
+}
@@ -0,0 +1,51 @@
+package perf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import stone.ParseException;
+import stone.StoneException;
+import chap7.SymbolEnv;
+import aot.AotCache;
+import aot.Rt;
+import aot.Script;
+
+/* aot: 编译成 class 后执行. 缓存放在临时目录中, 结束时删除 */
+public class AotProbe extends PerfProbe {
+    protected File dir;
+    protected Script script;
+
+    protected void prepare(String source) throws ParseException, IOException {
+        if (dir == null) {
+            dir = File.createTempFile("stone-aot", "");
+            dir.delete();
+        }
+
+        AotCache cache = new AotCache(dir);
+        cache.compile(source);
+        script = cache.load(source);
+        if (script == null)
+            throw new StoneException("cannot load the compiled class");
+    }
+
+    protected void run(PrintStream out) {
+        SymbolEnv env = new SymbolEnv();
+        Rt.install(env, natives().functions());
+        int n = script.size();
+        for (int i = 0; i < n; i++) {
+            Object value = script.run(i, env);
+            out.println("=> " + value);
+        }
+    }
+
+    protected void cleanup() {
+        if (dir != null) {
+            File[] files = dir.listFiles();
+            if (files != null)
+                for (File f: files)
+                    f.delete();
+
+            dir.delete();
+        }
+    }
+}
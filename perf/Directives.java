@@ -0,0 +1,71 @@
+package perf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import budget.Budget;
+
+/*
+ * corpus 中程序开头的 "//" 注释行里的指令.
+ *   // skip: path ...       不在这些求值方式中执行 (例如 jit 不支持 natives)
+ *   // only: path ...       只在这些求值方式中执行 (例如只有 stackless 能执行
+ *                           很深的非尾递归)
+ *   // iterations: n        计时的执行次数的上限, 用于很慢的程序
+ *   // budget: -fuel n -time ms -memory size
+ *                           budget 的执行使用的限制 (默认没有限制)
+ * 预期的输出 (x.out) 中可以有 "error: 说明" 行, 即执行在这里出错停止.
+ */
+public class Directives {
+    public List<String> skip = new ArrayList<String>();
+    public List<String> only = new ArrayList<String>();
+    public int iterations;
+    public long fuel, millis, memory;
+
+    public static Directives parse(String source) {
+        Directives d = new Directives();
+        for (String line: source.replace("\r\n", "\n").split("\n")) {
+            if (!line.startsWith("//"))
+                break;
+
+            String text = line.substring(2).trim();
+            if (text.startsWith("skip:"))
+                d.skip.addAll(words(text.substring(5)));
+            else if (text.startsWith("only:"))
+                d.only.addAll(words(text.substring(5)));
+            else if (text.startsWith("iterations:"))
+                d.iterations = Integer.parseInt(text.substring(11).trim());
+            else if (text.startsWith("budget:"))
+                d.budget(words(text.substring(7)));
+        }
+        return d;
+    }
+
+    private static List<String> words(String s) {
+        s = s.trim();
+        return s.length() == 0 ? new ArrayList<String>()
+                               : Arrays.asList(s.split("[ ,]+"));
+    }
+
+    private void budget(List<String> args) {
+        for (int i = 0; i + 1 < args.size(); i += 2) {
+            String a = args.get(i), v = args.get(i + 1);
+            if (a.equals("-fuel"))
+                fuel = Long.parseLong(v);
+            else if (a.equals("-time"))
+                millis = Long.parseLong(v);
+            else if (a.equals("-memory"))
+                memory = Budget.parseSize(v);
+            else
+                throw new IllegalArgumentException("bad budget option: " + a);
+        }
+    }
+
+    /* path 是否执行这个程序 */
+    public boolean runs(String path) {
+        return !skip.contains(path) && (only.isEmpty() || only.contains(path));
+    }
+
+    public int iterations(int n) {
+        return iterations > 0 ? Math.min(n, iterations) : n;
+    }
+}
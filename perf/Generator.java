@@ -0,0 +1,56 @@
+package perf;
+
+/*
+ * 生成大的程序 (语法分析和大量 def 的负载).
+ *
+ *   def gI(x) { y = x * 3 + I; if y % 2 == 0 { y / 2 } else { ... } }
+ *
+ * I 不是 10 的倍数时 else 调用 g(I-1), 因此调用链最长 10 层.
+ * main 依次调用全部函数并求和. 期待的输出由 expected 直接计算.
+ */
+public class Generator {
+    public static String program(int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append("def g").append(i).append("(x) { y = x * 3 + ").append(i)
+              .append("; if y % 2 == 0 { y / 2 } else { ");
+            if (i % 10 != 0)
+                sb.append("g").append(i - 1).append("(y % 100)");
+            else
+                sb.append("y + 1");
+
+            sb.append(" } }\n");
+        }
+
+        sb.append("def main() {\n    total = 0\n");
+        for (int i = 0; i < n; i++)
+            sb.append("    total = total + g").append(i).append("(").append(i)
+              .append(")\n");
+
+        sb.append("    total\n}\nmain()\n");
+        return sb.toString();
+    }
+
+    public static String expected(int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++)
+            sb.append("=> g").append(i).append('\n');
+
+        int total = 0;
+        for (int i = 0; i < n; i++)
+            total += g(i, i);
+
+        sb.append("=> main\n=> ").append(total).append('\n');
+        return sb.toString();
+    }
+
+    static int g(int i, int x) {
+        int y = x * 3 + i;
+        if (y % 2 == 0)
+            return y / 2;
+        else if (i % 10 != 0)
+            return g(i - 1, y % 100);
+        else
+            return y + 1;
+    }
+}
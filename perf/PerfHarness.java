@@ -0,0 +1,358 @@
+package perf;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import stone.Scripts;
+
+/*
+ * 用法: PerfHarness [-corpus dir] [-paths p,p...] [-woven dir] [-iterations n]
+ *                   [-generate n] [-timeout s] [-o results.tsv]
+ *                   [-baseline file] [-tolerance pct] [-memory-tolerance pct]
+ *                   [-update]
+ *
+ * 以各种求值方式执行 corpus 中的每个程序 (x.st, 期待的输出是 x.out), 每个组合
+ * 一个子进程 (PerfRunner), 结果写成制表符分隔的表 (HEADER).
+ *   -paths      interp, stackless, budget, jit, aot, parallel 中的若干个
+ *               (默认全部),
+ *               -woven 指定 PreWeaver 的输出目录时加上 prewoven
+ *   -generate   加上一个有 n 个 def 的生成程序 (见 Generator), 0 表示不加
+ *   -baseline   与这个文件比较, 超出容差的项算作退化.
+ *               -update 时改为把这次的结果写入这个文件
+ *   -tolerance  时间 (steady, parse) 的容差, 百分比, 默认 10
+ *   -memory-tolerance  分配量和 heap 峰值的容差, 默认 20
+ * 程序开头的注释可以指定不适用的求值方式, 执行次数和 budget 的限制, 见
+ * Directives. 子进程的 JVM 选项与本进程相同.
+ *
+ * 退出码: 0 没有问题, 1 有退化, 2 输出不对或执行出错.
+ */
+public class PerfHarness {
+    public static final int OK = 0, REGRESSION = 1, FAILURE = 2;
+    public static final String[] PATHS
+        = { "interp", "stackless", "budget", "jit", "aot", "parallel" };
+    public static final String HEADER
+        = "program\tpath\tstatus\tparse_ms\tfirst_ms\tsteady_ms\truns_per_s"
+          + "\talloc_kb\tpeak_heap_kb";
+
+    /* 绝对值小于这些的差不算退化, 避免很小的数受噪声影响 */
+    static final double MIN_DELTA_MS = 0.5;
+    static final double MIN_DELTA_KB = 256;
+
+    protected File corpus = new File("perf/corpus");
+    protected List<String> paths = new ArrayList<String>(Arrays.asList(PATHS));
+    protected String woven;
+    protected int iterations = 10;
+    protected int generate = 2000;
+    protected long timeout = 600;
+    protected File output;
+    protected File baseline;
+    protected double tolerance = 10;
+    protected double memoryTolerance = 20;
+    protected boolean update;
+
+    public static class Result {
+        public String program, path, status;
+        public double parseMs, firstMs, steadyMs;
+        public long allocKb, peakHeapKb;
+
+        public String key() { return program + "\t" + path; }
+        public boolean ok() { return status.equals("ok"); }
+
+        public double runsPerSecond() {
+            return steadyMs > 0 ? 1000 / steadyMs : 0;
+        }
+
+        public String toLine() {
+            return program + "\t" + path + "\t" + status.replace('\t', ' ')
+                   + String.format("\t%.3f\t%.3f\t%.3f\t%.2f\t%d\t%d", parseMs,
+                                   firstMs, steadyMs, runsPerSecond(), allocKb,
+                                   peakHeapKb);
+        }
+
+        public static Result parse(String line) {
+            String[] f = line.split("\t");
+            Result r = new Result();
+            r.program = f[0];
+            r.path = f[1];
+            r.status = f[2];
+            r.parseMs = Double.parseDouble(f[3]);
+            r.firstMs = Double.parseDouble(f[4]);
+            r.steadyMs = Double.parseDouble(f[5]);
+            r.allocKb = Long.parseLong(f[7]);
+            r.peakHeapKb = Long.parseLong(f[8]);
+            return r;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        PerfHarness h = new PerfHarness();
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            if (a.equals("-update"))
+                h.update = true;
+            else if (i + 1 == args.length) {
+                usage();
+                System.exit(FAILURE);
+            }
+            else if (a.equals("-corpus"))
+                h.corpus = new File(args[++i]);
+            else if (a.equals("-paths"))
+                h.paths = new ArrayList<String>(Arrays.asList(args[++i].split(",")));
+            else if (a.equals("-woven"))
+                h.woven = args[++i];
+            else if (a.equals("-iterations"))
+                h.iterations = Integer.parseInt(args[++i]);
+            else if (a.equals("-generate"))
+                h.generate = Integer.parseInt(args[++i]);
+            else if (a.equals("-timeout"))
+                h.timeout = Long.parseLong(args[++i]);
+            else if (a.equals("-o"))
+                h.output = new File(args[++i]);
+            else if (a.equals("-baseline"))
+                h.baseline = new File(args[++i]);
+            else if (a.equals("-tolerance"))
+                h.tolerance = Double.parseDouble(args[++i]);
+            else if (a.equals("-memory-tolerance"))
+                h.memoryTolerance = Double.parseDouble(args[++i]);
+            else {
+                usage();
+                System.exit(FAILURE);
+            }
+        }
+
+        if (h.woven != null && !h.paths.contains("prewoven"))
+            h.paths.add("prewoven");
+
+        System.exit(h.run());
+    }
+
+    static void usage() {
+        System.err.println("usage: PerfHarness [-corpus dir] [-paths p,p...]"
+                           + " [-woven dir] [-iterations n] [-generate n]"
+                           + " [-timeout s] [-o results.tsv] [-baseline file]"
+                           + " [-tolerance pct] [-memory-tolerance pct]"
+                           + " [-update]");
+    }
+
+    public int run() throws IOException, InterruptedException {
+        List<File> programs = programs();
+        List<Result> results = new ArrayList<Result>();
+        int status = OK;
+        System.out.println(HEADER);
+        for (File p: programs) {
+            Directives d = Directives.parse(Scripts.read(p.getPath()));
+            for (String path: paths) {
+                if (!d.runs(path))
+                    continue;
+
+                Result r = measure(p, path, d.iterations(iterations));
+                results.add(r);
+                System.out.println(r.toLine());
+                if (!r.ok() && !r.status.startsWith("unsupported"))
+                    status = FAILURE;
+            }
+        }
+
+        if (output != null)
+            write(output, results);
+
+        if (baseline != null) {
+            if (update) {
+                write(baseline, results);
+                System.out.println("baseline written to " + baseline);
+            }
+            else if (compare(read(baseline), results) > 0 && status == OK)
+                status = REGRESSION;
+        }
+        return status;
+    }
+
+    protected List<File> programs() throws IOException {
+        List<File> list = new ArrayList<File>();
+        File[] files = corpus.listFiles();
+        if (files == null)
+            throw new IOException("no corpus: " + corpus);
+
+        Arrays.sort(files);
+        for (File f: files)
+            if (f.getName().endsWith(".st"))
+                list.add(f);
+
+        if (generate > 0) {
+            File dir = File.createTempFile("stone-perf", "");
+            dir.delete();
+            dir.mkdirs();
+            /* deleteOnExit 按登记的逆序删除, 所以目录要先登记 */
+            dir.deleteOnExit();
+            File st = new File(dir, "generated.st");
+            File out = new File(dir, "generated.out");
+            st.deleteOnExit();
+            out.deleteOnExit();
+            write(st, Generator.program(generate));
+            write(out, Generator.expected(generate));
+            list.add(st);
+        }
+        return list;
+    }
+
+    protected Result measure(File program, String path, int iterations)
+        throws IOException, InterruptedException
+    {
+        String name = program.getName();
+        File expected = new File(program.getParentFile(),
+                                 name.substring(0, name.length() - 3) + ".out");
+        String cp = System.getProperty("java.class.path");
+        if (path.equals("prewoven"))
+            cp = woven + File.pathSeparator + gluonjJar(cp);
+
+        List<String> cmd = new ArrayList<String>();
+        cmd.add(System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java");
+        cmd.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        cmd.add("-cp");
+        cmd.add(cp);
+        cmd.add(PerfRunner.class.getName());
+        cmd.add(path);
+        cmd.add(program.getPath());
+        cmd.add(expected.getPath());
+        cmd.add(Integer.toString(iterations));
+
+        File log = File.createTempFile("stone-perf", ".log");
+        Result r = new Result();
+        r.program = name.substring(0, name.length() - 3);
+        r.path = path;
+        try {
+            Process p = new ProcessBuilder(cmd).redirectErrorStream(true)
+                            .redirectOutput(log).start();
+            if (!p.waitFor(timeout, TimeUnit.SECONDS)) {
+                p.destroyForcibly();
+                r.status = "error timeout";
+                return r;
+            }
+
+            LinkedHashMap<String,String> values = new LinkedHashMap<String,String>();
+            String text = Scripts.read(log.getPath());
+            for (String line: text.split("\n")) {
+                int sp = line.indexOf(' ');
+                if (sp > 0 && !values.containsKey(line.substring(0, sp)))
+                    values.put(line.substring(0, sp), line.substring(sp + 1));
+            }
+
+            r.status = values.get("status");
+            if (r.status == null) {
+                String first = text.trim().split("\n")[0];
+                r.status = "error " + (first.length() > 0 ? first
+                                       : "exit code " + p.exitValue());
+            }
+            else if (r.ok()) {
+                r.parseMs = Long.parseLong(values.get("parse_ns")) / 1e6;
+                r.firstMs = Long.parseLong(values.get("first_ns")) / 1e6;
+                r.steadyMs = Long.parseLong(values.get("steady_ns")) / 1e6;
+                r.allocKb = Long.parseLong(values.get("alloc_bytes")) / 1024;
+                r.peakHeapKb = Long.parseLong(values.get("peak_heap_bytes")) / 1024;
+            }
+            return r;
+        } finally {
+            log.delete();
+        }
+    }
+
+    /* 输出退化的项, 返回退化的数目 */
+    protected int compare(List<Result> base, List<Result> results) {
+        LinkedHashMap<String,Result> map = new LinkedHashMap<String,Result>();
+        for (Result b: base)
+            map.put(b.key(), b);
+
+        int regressions = 0;
+        for (Result r: results) {
+            Result b = map.get(r.key());
+            String label = r.program + "/" + r.path;
+            if (b == null)
+                System.out.println("new       " + label);
+            else if (b.ok() && !r.ok()) {
+                System.out.println("REGRESSED " + label + ": " + r.status);
+                regressions++;
+            }
+            else if (b.ok()) {
+                regressions += check(label, "steady_ms", b.steadyMs, r.steadyMs,
+                                     tolerance, MIN_DELTA_MS);
+                regressions += check(label, "parse_ms", b.parseMs, r.parseMs,
+                                     tolerance, MIN_DELTA_MS);
+                regressions += check(label, "alloc_kb", b.allocKb, r.allocKb,
+                                     memoryTolerance, MIN_DELTA_KB);
+                regressions += check(label, "peak_heap_kb", b.peakHeapKb,
+                                     r.peakHeapKb, memoryTolerance, MIN_DELTA_KB);
+            }
+        }
+
+        System.out.println(regressions + " regression(s) against " + baseline
+                           + " (tolerance " + tolerance + "%, memory "
+                           + memoryTolerance + "%)");
+        return regressions;
+    }
+
+    static int check(String label, String metric, double base, double value,
+                     double tolerance, double minDelta)
+    {
+        if (value - base > minDelta && value > base * (1 + tolerance / 100)) {
+            System.out.println(String.format("REGRESSED %s: %s %.3f -> %.3f"
+                                             + " (+%.1f%%)", label, metric, base,
+                                             value, (value / base - 1) * 100));
+            return 1;
+        }
+        else
+            return 0;
+    }
+
+    static List<Result> read(File f) throws IOException {
+        List<Result> list = new ArrayList<Result>();
+        BufferedReader in = new BufferedReader(new FileReader(f));
+        try {
+            String line;
+            while ((line = in.readLine()) != null)
+                if (line.length() > 0 && !line.equals(HEADER))
+                    list.add(Result.parse(line));
+        } finally {
+            in.close();
+        }
+        return list;
+    }
+
+    static void write(File f, List<Result> results) throws IOException {
+        PrintWriter out = new PrintWriter(new FileWriter(f));
+        try {
+            out.println(HEADER);
+            for (Result r: results)
+                out.println(r.toLine());
+        } finally {
+            out.close();
+        }
+    }
+
+    static void write(File f, String text) throws IOException {
+        Writer out = new FileWriter(f);
+        try {
+            out.write(text);
+        } finally {
+            out.close();
+        }
+    }
+
+    static String gluonjJar(String cp) {
+        for (String e: cp.split(File.pathSeparator))
+            if (e.endsWith("gluonj.jar"))
+                return e;
+
+        return "gluonj.jar";
+    }
+}
@@ -0,0 +1,198 @@
+package perf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Arrays;
+import java.util.List;
+import stone.*;
+import stone.ast.ASTree;
+import chap6.BasicEvaluator.ASTreeEx;
+import chap7.SymbolEnv;
+import chap8.Natives;
+import chap10.DictNatives;
+import budget.Budget;
+import budget.BudgetEnv;
+import budget.BudgetNatives;
+import parallel.ParallelNatives;
+
+/*
+ * 用法: PerfProbe path program.st expected.out iterations
+ *
+ * 在当前 JVM 中执行一个程序 (求值方式由 PerfRunner 准备好), 向标准输出写
+ *     status ok | mismatch 说明 | unsupported 说明 | error 说明
+ *     parse_ns        语法分析的时间 (aot 是编译和载入的时间), 5 次的中位数
+ *     first_ns        第一次执行的时间
+ *     steady_ns       执行 iterations 次, 后一半的中位数
+ *     alloc_bytes     最后一次执行中本线程分配的字节数
+ *     peak_heap_bytes 计时的执行期间各个 heap 区的峰值之和
+ * 每次执行都在新的全局环境中, 输出 "=> 值" 和 print 的内容, 与
+ * BatchInterpreter 相同. StoneException 输出为 "error: 说明" 并停止执行.
+ * 第一次执行的输出与 expected.out 比较.
+ * budget 使用 program.st 开头的 budget: 指令的限制 (见 Directives),
+ * parallel 的 natives 中有 pmap 和 preduce.
+ */
+public class PerfProbe {
+    protected boolean budget, parallel;
+    protected Directives directives;
+    protected List<ASTree> program;
+
+    public static void main(String[] args) throws IOException {
+        String path = args[0];
+        String source = Scripts.read(args[1]);
+        String expected = Scripts.read(args[2]);
+        int n = Integer.parseInt(args[3]);
+        PerfProbe probe = path.equals("aot") ? new AotProbe() : new PerfProbe();
+        probe.budget = path.equals("budget");
+        probe.parallel = path.equals("parallel");
+        probe.directives = Directives.parse(source);
+        PrintStream stdout = System.out;
+        try {
+            probe.measure(source, expected, Math.max(n, 1), stdout);
+        } finally {
+            System.setOut(stdout);
+            probe.cleanup();
+        }
+    }
+
+    protected void measure(String source, String expected, int n,
+                           PrintStream report)
+    {
+        long[] parse = new long[5];
+        try {
+            for (int i = 0; i < parse.length; i++) {
+                long start = System.nanoTime();
+                prepare(source);
+                parse[i] = System.nanoTime() - start;
+            }
+        } catch (ParseException e) {
+            report.println("status error " + e.getMessage());
+            return;
+        } catch (StoneException e) {
+            report.println("status unsupported " + e.getMessage());
+            return;
+        } catch (IOException e) {
+            report.println("status error " + e.getMessage());
+            return;
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(buffer, true);
+        System.setOut(out);
+        long[] times = new long[n];
+        long first, alloc = 0;
+        try {
+            long start = System.nanoTime();
+            execute(out);
+            first = System.nanoTime() - start;
+            String diff = compare(expected, buffer.toString());
+            if (diff != null) {
+                report.println("status mismatch " + diff);
+                return;
+            }
+
+            System.gc();
+            resetPeaks();
+            for (int i = 0; i < n; i++) {
+                buffer.reset();
+                long bytes = allocatedBytes();
+                start = System.nanoTime();
+                execute(out);
+                times[i] = System.nanoTime() - start;
+                alloc = allocatedBytes() - bytes;
+            }
+        } catch (RuntimeException e) {
+            report.println("status error " + e);
+            return;
+        }
+
+        long[] tail = Arrays.copyOfRange(times, n / 2, n);
+        Arrays.sort(tail);
+        Arrays.sort(parse);
+        report.println("status ok");
+        report.println("parse_ns " + parse[parse.length / 2]);
+        report.println("first_ns " + first);
+        report.println("steady_ns " + tail[tail.length / 2]);
+        report.println("alloc_bytes " + alloc);
+        report.println("peak_heap_bytes " + peakHeap());
+    }
+
+    protected void prepare(String source) throws ParseException, IOException {
+        program = Scripts.parse(source);
+    }
+
+    /* 出错也是预期的输出的一部分 */
+    protected void execute(PrintStream out) {
+        try {
+            run(out);
+        } catch (StoneException e) {
+            out.println("error: " + e.getMessage());
+        }
+    }
+
+    protected void run(PrintStream out) {
+        Budget b = null;
+        if (budget)
+            b = new Budget(directives.fuel, directives.millis,
+                           directives.memory);
+
+        if (b != null)
+            b.enter();
+        try {
+            SymbolEnv env = b == null ? new SymbolEnv() : new BudgetEnv(b);
+            natives().environment(env);
+            for (ASTree t: program) {
+                Object value = ((ASTreeEx)t).eval(env);
+                out.println("=> " + value);
+            }
+        } finally {
+            if (b != null)
+                b.exit();
+        }
+    }
+
+    protected Natives natives() {
+        if (parallel)
+            return new ParallelNatives();
+        else
+            return budget ? new BudgetNatives() : new DictNatives();
+    }
+
+    protected void cleanup() {}
+
+    /* 相同时返回 null, 否则返回第一个不同的行 */
+    static String compare(String expected, String actual) {
+        String[] e = expected.replace("\r\n", "\n").split("\n");
+        String[] a = actual.replace("\r\n", "\n").split("\n");
+        for (int i = 0; i < Math.max(e.length, a.length); i++) {
+            String x = i < e.length ? e[i] : "<eof>";
+            String y = i < a.length ? a[i] : "<eof>";
+            if (!x.equals(y))
+                return "line " + (i + 1) + ": expected " + x + ", got " + y;
+        }
+        return null;
+    }
+
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean())
+                   .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static void resetPeaks() {
+        for (MemoryPoolMXBean p: ManagementFactory.getMemoryPoolMXBeans())
+            if (p.getType() == MemoryType.HEAP)
+                p.resetPeakUsage();
+    }
+
+    static long peakHeap() {
+        long sum = 0;
+        for (MemoryPoolMXBean p: ManagementFactory.getMemoryPoolMXBeans())
+            if (p.getType() == MemoryType.HEAP)
+                sum += p.getPeakUsage().getUsed();
+
+        return sum;
+    }
+}
@@ -0,0 +1,37 @@
+package perf;
+
+import javassist.gluonj.util.Loader;
+import budget.BudgetEvaluator;
+import chap10.DictEvaluator;
+import jit.TieredEvaluator;
+import parallel.ParallelEvaluator;
+import stackless.StacklessEvaluator;
+
+/*
+ * PerfHarness 的子进程: PerfRunner path PerfProbe 的其余参数...
+ * aot 和 prewoven (PreWeaver 修改好的类) 不需要 GluonJ, 直接执行 PerfProbe.
+ */
+public class PerfRunner {
+    public static void main(String[] args) throws Throwable {
+        String path = args[0];
+        if (path.equals("aot") || path.equals("prewoven"))
+            PerfProbe.main(args);
+        else
+            Loader.run(PerfProbe.class, args, reviser(path));
+    }
+
+    static Class<?> reviser(String path) {
+        if (path.equals("interp"))
+            return DictEvaluator.class;
+        else if (path.equals("stackless"))
+            return StacklessEvaluator.class;
+        else if (path.equals("budget"))
+            return BudgetEvaluator.class;
+        else if (path.equals("jit"))
+            return TieredEvaluator.class;
+        else if (path.equals("parallel"))
+            return ParallelEvaluator.class;
+        else
+            throw new IllegalArgumentException("unknown path: " + path);
+    }
+}
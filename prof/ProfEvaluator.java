@@ -0,0 +1,92 @@
+package prof;
+
+import java.util.List;
+import javassist.gluonj.*;
+import stone.ast.*;
+import chap6.Environment;
+import chap6.BasicEvaluator.ASTreeEx;
+import chap7.Function;
+import chap6.BasicEvaluator.BlockEx;
+import chap7.FuncEvaluator.DefStmntEx;
+import chap8.NativeEvaluator.NativeArgEx;
+import chap10.DictEvaluator;
+
+/*
+ * 在函数调用, 语句和 def 上插入 Profiler 的钩子.
+ * Profiler 关闭时每个钩子只多一次 mode 的检查.
+ * 与 jit.TieredEvaluator 同时使用时, 编译后的代码不经过这些钩子.
+ */
+@Require(DictEvaluator.class)
+@Reviser public class ProfEvaluator {
+    @Reviser
+    public static class ProfArgEx extends NativeArgEx {
+        public ProfArgEx(List<ASTree> c) { super(c); }
+        public Object eval(Environment callerEnv, Object value) {
+            if (Profiler.mode == Profiler.OFF || !(value instanceof Function))
+                return super.eval(callerEnv, value);
+
+            /* 尾调用返回 TailCall, 函数体在调用者的 trampoline 中执行 */
+            if (tail) {
+                Object result = super.eval(callerEnv, value);
+                Profiler.replace(((Function)value).body());
+                return result;
+            }
+
+            Profiler.enter(((Function)value).body());
+            try {
+                return super.eval(callerEnv, value);
+            } finally {
+                Profiler.exit();
+            }
+        }
+    }
+
+    @Reviser
+    public static class ProfBlockEx extends BlockEx {
+        protected int[] lines;
+        public ProfBlockEx(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) {
+            if (Profiler.mode == Profiler.OFF)
+                return super.eval(env);
+
+            int[] ls = lines;
+            if (ls == null) {
+                ls = new int[numChildren()];
+                for (int i = 0; i < ls.length; i++)
+                    ls[i] = child(i).lineNumber();
+
+                lines = ls;
+            }
+
+            Object result = 0;
+            int saved = -1;
+            try {
+                for (int i = 0; i < ls.length; i++) {
+                    ASTree t = child(i);
+                    if (!(t instanceof NullStmnt)) {
+                        int old = Profiler.line(ls[i]);
+                        if (saved < 0)
+                            saved = old;
+
+                        result = ((ASTreeEx)t).eval(env);
+                    }
+                }
+            } finally {
+                if (saved >= 0)
+                    Profiler.restoreLine(saved);
+            }
+            return result;
+        }
+    }
+
+    @Reviser
+    public static class ProfDefEx extends DefStmntEx {
+        public ProfDefEx(List<ASTree> c) { super(c); }
+        public Function makeFunction(Environment env) {
+            if (Profiler.mode != Profiler.OFF)
+                Profiler.define(body(), name() + ":" + lineNumber());
+
+            return super.makeFunction(env);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package prof;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+import stone.*;
+import stone.ast.ASTree;
+import chap6.Environment;
+import chap6.BasicEvaluator.ASTreeEx;
+import chap7.SymbolEnv;
+import chap10.DictNatives;
+
+/*
+ * 用法: ProfInterpreter [-sample] [-interval ms] [-alloc] [-top n]
+ *                       [-o file] script.st
+ *
+ * 执行脚本后把 top n 的函数和行输出到 stderr.
+ * 先解析整个脚本再开始 profile, 解析的时间不计入.
+ * -alloc 时统计分配的字节数 (ThreadMXBean, 开销较大).
+ * -o 指定时把 collapsed stack (flame graph 的输入) 写入 file.
+ */
+public class ProfInterpreter {
+    public static void main(String[] args) throws ParseException, IOException {
+        int mode = Profiler.INSTRUMENTED;
+        int top = 20;
+        String out = null;
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-"); i++) {
+            String opt = args[i];
+            if (opt.equals("-sample"))
+                mode = Profiler.SAMPLING;
+            else if (opt.equals("-alloc"))
+                Profiler.allocations = true;
+            else if (opt.equals("-interval") && i + 1 < args.length)
+                Profiler.sampleInterval = Integer.parseInt(args[++i]);
+            else if (opt.equals("-top") && i + 1 < args.length)
+                top = Integer.parseInt(args[++i]);
+            else if (opt.equals("-o") && i + 1 < args.length)
+                out = args[++i];
+            else {
+                usage();
+                return;
+            }
+        }
+
+        if (i != args.length - 1) {
+            usage();
+            return;
+        }
+
+        SymbolEnv env = new SymbolEnv();
+        new DictNatives().environment(env);
+        List<ASTree> program = Scripts.parse(Scripts.read(args[i]));
+        Profiler.start(mode);
+        try {
+            run(program, env);
+        } finally {
+            Profiler.stop();
+        }
+
+        System.err.print(Profiler.report(top));
+        if (out != null) {
+            FileWriter w = new FileWriter(out);
+            try {
+                w.write(Profiler.collapsed());
+            } finally {
+                w.close();
+            }
+        }
+    }
+
+    static void usage() {
+        System.err.println("usage: ProfInterpreter [-sample] [-interval ms]"
+                           + " [-alloc] [-top n] [-o file] script.st");
+    }
+
+    /* 顶层的语句不在 block 中, 在这里记录行号 */
+    public static void run(List<ASTree> program, Environment env) {
+        for (ASTree t: program) {
+            Profiler.line(t.lineNumber());
+            Object r = ((ASTreeEx)t).eval(env);
+            System.out.println("=> " + r);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package prof;
+
+import javassist.gluonj.util.Loader;
+
+public class ProfRunner {
+    public static void main(String[] args) throws Throwable {
+        Loader.run(ProfInterpreter.class, args, ProfEvaluator.class);
+    }
+}
@@ -0,0 +1,490 @@
+package prof;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import stone.ast.ASTree;
+
+/*
+ * Stone 层面的 profiler. 以函数 (def) 和源代码的行为单位统计.
+ *
+ * 每个线程维护一个影子栈 (shadow stack), 栈中的每一层对应 calling context
+ * tree 的一个节点, 节点以函数体的 AST 为键. 钩子 (ProfEvaluator) 在函数调用
+ * 的进出 (enter/exit) 和每个语句的开始 (line) 时调用.
+ *
+ * INSTRUMENTED: 每个事件都读取时钟, 两个事件之间的时间算作栈顶函数和当前行
+ *               的 self 时间. 可选地用 ThreadMXBean 统计分配的字节数.
+ * SAMPLING:     钩子只维护影子栈, 由后台线程每隔 sampleInterval 毫秒读取
+ *               各线程的栈顶, 对所在的节点和行计数.
+ * OFF 时钩子只检查一次 mode. 不织入 ProfEvaluator 时没有任何开销.
+ */
+public class Profiler {
+    public static final int OFF = 0, INSTRUMENTED = 1, SAMPLING = 2;
+
+    public static boolean allocations = false;
+    public static int sampleInterval = 1;
+
+    static volatile int mode = OFF;
+
+    private static final ThreadLocal<ThreadState> state
+        = new ThreadLocal<ThreadState>();
+    private static final ArrayList<ThreadState> threads
+        = new ArrayList<ThreadState>();
+    private static final IdentityHashMap<ASTree,String> names
+        = new IdentityHashMap<ASTree,String>();
+    private static long[] lineSamples = new long[64];
+    private static Thread sampler;
+
+    static final class Node {
+        final Object key;
+        HashMap<Object,Node> children;
+        long calls, self, total, alloc, samples;
+
+        Node(Object k) { key = k; }
+
+        Node child(Object k) {
+            if (children == null)
+                children = new HashMap<Object,Node>();
+
+            Node n = children.get(k);
+            if (n == null) {
+                n = new Node(k);
+                children.put(k, n);
+            }
+            return n;
+        }
+    }
+
+    static final class ThreadState {
+        final Thread thread = Thread.currentThread();
+        final Node root = new Node(null);
+        Node[] stack = new Node[64];
+        int[] lines = new int[64];
+        long[] starts = new long[64];
+        volatile int depth;
+        long mark, allocMark;
+        long[] lineSelf = new long[64];
+        long[] lineCount = new long[64];
+        long[] lineAlloc = new long[64];
+
+        ThreadState() {
+            stack[0] = root;
+            mark = System.nanoTime();
+            allocMark = allocatedBytes();
+        }
+
+        /* 上一个事件以来的时间和分配算在栈顶 */
+        void charge() {
+            long now = System.nanoTime();
+            int d = depth;
+            long t = now - mark;
+            mark = now;
+            stack[d].self += t;
+            int line = lines[d];
+            ensure(line);
+            lineSelf[line] += t;
+            if (allocations) {
+                long a = allocatedBytes();
+                stack[d].alloc += a - allocMark;
+                lineAlloc[line] += a - allocMark;
+                allocMark = a;
+            }
+        }
+
+        void ensure(int line) {
+            if (line >= lineSelf.length) {
+                int n = Math.max(line + 1, lineSelf.length * 2);
+                lineSelf = java.util.Arrays.copyOf(lineSelf, n);
+                lineCount = java.util.Arrays.copyOf(lineCount, n);
+                lineAlloc = java.util.Arrays.copyOf(lineAlloc, n);
+            }
+        }
+
+        /*
+         * 采样线程先读 depth 再读数组, 所以数组 (可能是扩大后的新数组)
+         * 和 stack[d] 必须在写 depth 之前写好.
+         */
+        void push(Object key, long now) {
+            int d = depth + 1;
+            if (d == stack.length) {
+                stack = java.util.Arrays.copyOf(stack, d * 2);
+                lines = java.util.Arrays.copyOf(lines, d * 2);
+                starts = java.util.Arrays.copyOf(starts, d * 2);
+            }
+            Node n = stack[d - 1].child(key);
+            n.calls++;
+            stack[d] = n;
+            lines[d] = lines[d - 1];
+            starts[d] = now;
+            depth = d;
+        }
+    }
+
+    static ThreadState state() {
+        ThreadState s = state.get();
+        if (s == null) {
+            s = new ThreadState();
+            state.set(s);
+            synchronized (threads) {
+                threads.add(s);
+            }
+        }
+        return s;
+    }
+
+    public static boolean isEnabled() { return mode != OFF; }
+    public static int mode() { return mode; }
+
+    public static synchronized void start(int m) {
+        stop();
+        reset();
+        mode = m;
+        if (m == SAMPLING) {
+            sampler = new Thread(new Runnable() {
+                public void run() { sample(); }
+            }, "stone-profiler");
+            sampler.setDaemon(true);
+            sampler.start();
+        }
+    }
+
+    public static synchronized void stop() {
+        int m = mode;
+        mode = OFF;
+        if (m == INSTRUMENTED) {
+            ThreadState s = state.get();
+            if (s != null)
+                s.charge();
+        }
+
+        Thread t = sampler;
+        sampler = null;
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join();
+            } catch (InterruptedException e) {}
+        }
+    }
+
+    public static synchronized void reset() {
+        synchronized (threads) {
+            threads.clear();
+        }
+        state.remove();
+        lineSamples = new long[64];
+    }
+
+    // hooks
+
+    public static void define(ASTree body, String name) {
+        synchronized (names) {
+            names.put(body, name);
+        }
+    }
+
+    public static void enter(ASTree body) {
+        ThreadState s = state();
+        if (mode == INSTRUMENTED) {
+            s.charge();
+            s.push(body, s.mark);
+        }
+        else
+            s.push(body, 0);
+    }
+
+    public static void exit() {
+        ThreadState s = state();
+        int d = s.depth;
+        if (d == 0)
+            return;
+
+        if (mode == INSTRUMENTED) {
+            s.charge();
+            s.stack[d].total += s.mark - s.starts[d];
+        }
+        s.depth = d - 1;
+    }
+
+    /*
+     * 尾调用: 栈顶的函数被 body 替换, 与 TailCall 的 trampoline 一样不使
+     * 影子栈变深. 被调用的函数算作调用者的调用者 (栈的下一层) 的子节点.
+     */
+    public static void replace(ASTree body) {
+        ThreadState s = state();
+        if (s.depth == 0)
+            return;
+
+        exit();
+        enter(body);
+    }
+
+    /* 开始执行第 line 行的语句. 返回之前的行, 用来在 block 结束时恢复 */
+    public static int line(int line) {
+        ThreadState s = state();
+        int d = s.depth;
+        int old = s.lines[d];
+        if (mode == INSTRUMENTED)
+            s.charge();
+
+        s.ensure(line);
+        s.lineCount[line]++;
+        s.lines[d] = line;
+        return old;
+    }
+
+    public static void restoreLine(int line) {
+        ThreadState s = state();
+        if (mode == INSTRUMENTED)
+            s.charge();
+
+        s.lines[s.depth] = line;
+    }
+
+    static long allocatedBytes() {
+        if (!allocations)
+            return 0;
+
+        java.lang.management.ThreadMXBean bean
+            = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean)bean)
+                        .getThreadAllocatedBytes(Thread.currentThread().getId());
+        else
+            return 0;
+    }
+
+    static void sample() {
+        for (;;) {
+            try {
+                Thread.sleep(sampleInterval);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            ThreadState[] ts;
+            synchronized (threads) {
+                ts = threads.toArray(new ThreadState[threads.size()]);
+            }
+            for (ThreadState s: ts) {
+                if (!s.thread.isAlive())
+                    continue;
+
+                /* 不加锁读取其他线程的栈, 所以读到的值可能已经过时 */
+                try {
+                    int d = s.depth;
+                    Node[] stack = s.stack;
+                    int[] lines = s.lines;
+                    if (d < 0 || d >= stack.length || d >= lines.length)
+                        continue;
+
+                    Node n = stack[d];
+                    if (n == null)
+                        continue;
+
+                    n.samples++;
+                    int line = lines[d];
+                    if (line < 0)
+                        continue;
+
+                    if (line >= lineSamples.length)
+                        lineSamples = java.util.Arrays.copyOf(lineSamples,
+                                        Math.max(line + 1, lineSamples.length * 2));
+                    lineSamples[line]++;
+                } catch (RuntimeException e) {
+                    /* 这次的采样作废, 采样线程继续 */
+                }
+            }
+        }
+    }
+
+    // reports
+
+    static String name(Object key) {
+        if (key == null)
+            return "<main>";
+
+        synchronized (names) {
+            String n = names.get(key);
+            if (n == null)
+                return "<fun " + ((ASTree)key).location() + ">";
+            else
+                return n;
+        }
+    }
+
+    /* flame graph 用的 collapsed stack 格式. 值是 self 微秒或采样数 */
+    public static String collapsed() {
+        StringBuilder sb = new StringBuilder();
+        boolean sampled = mode == SAMPLING || totalSamples() > 0;
+        for (ThreadState s: snapshot())
+            collapse(s.root, "", sampled, sb);
+
+        return sb.toString();
+    }
+
+    private static void collapse(Node n, String path, boolean sampled,
+                                 StringBuilder sb)
+    {
+        String p = path.length() == 0 ? name(n.key) : path + ";" + name(n.key);
+        long v = sampled ? n.samples : n.self / 1000;
+        if (v > 0)
+            sb.append(p).append(' ').append(v).append('\n');
+
+        if (n.children != null)
+            for (Node c: n.children.values())
+                collapse(c, p, sampled, sb);
+    }
+
+    static final class FunctionStat {
+        String name;
+        long calls, self, total, alloc, samples;
+    }
+
+    /* 按 self 时间 (或采样数) 排序的前 top 个函数和行 */
+    public static String report(int top) {
+        HashMap<String,FunctionStat> stats = new HashMap<String,FunctionStat>();
+        long[] lineSelf = new long[0], lineCount = new long[0],
+               lineAlloc = new long[0];
+        for (ThreadState s: snapshot()) {
+            aggregate(s.root, stats, new HashMap<String,Integer>());
+            lineSelf = add(lineSelf, s.lineSelf);
+            lineCount = add(lineCount, s.lineCount);
+            lineAlloc = add(lineAlloc, s.lineAlloc);
+        }
+
+        boolean sampled = totalSamples() > 0;
+        FunctionStat[] list = stats.values().toArray(new FunctionStat[stats.size()]);
+        long[] fweight = new long[list.length];
+        for (int i = 0; i < list.length; i++)
+            fweight[i] = sampled ? list[i].samples : list[i].self;
+
+        StringBuilder sb = new StringBuilder();
+        if (sampled)
+            sb.append(String.format("%10s %10s  %s%n", "samples", "calls",
+                                    "function"));
+        else
+            sb.append(String.format("%10s %10s %10s %12s  %s%n", "self ms",
+                                    "total ms", "calls", "alloc KB",
+                                    "function"));
+
+        for (int i: top(fweight, top)) {
+            FunctionStat f = list[i];
+            if (sampled)
+                sb.append(String.format("%10d %10d  %s%n", f.samples, f.calls,
+                                        f.name));
+            else
+                sb.append(String.format("%10.1f %10.1f %10d %12d  %s%n",
+                                        f.self / 1e6, f.total / 1e6, f.calls,
+                                        f.alloc / 1024, f.name));
+        }
+
+        long[] weight = sampled ? lineSamples : lineSelf;
+        weight[0] = 0;
+        sb.append('\n');
+        if (sampled)
+            sb.append(String.format("%10s  %s%n", "samples", "line"));
+        else
+            sb.append(String.format("%10s %10s %12s  %s%n", "self ms", "count",
+                                    "alloc KB", "line"));
+
+        for (int line: top(weight, top)) {
+            if (sampled)
+                sb.append(String.format("%10d  %d%n", weight[line], line));
+            else
+                sb.append(String.format("%10.1f %10d %12d  %d%n",
+                                        lineSelf[line] / 1e6,
+                                        line < lineCount.length ? lineCount[line] : 0,
+                                        (line < lineAlloc.length ? lineAlloc[line] : 0) / 1024,
+                                        line));
+        }
+        return sb.toString();
+    }
+
+    /* weight 最大的前 n 个 (weight > 0) 的下标, 按降序 */
+    static int[] top(long[] weight, int n) {
+        int[] idx = new int[Math.min(n, weight.length)];
+        int size = 0;
+        for (int i = 0; i < weight.length; i++) {
+            if (weight[i] <= 0)
+                continue;
+
+            int j = size < idx.length ? size++ : idx.length;
+            while (j > 0 && weight[idx[j - 1]] < weight[i]) {
+                if (j < idx.length)
+                    idx[j] = idx[j - 1];
+
+                j--;
+            }
+            if (j < idx.length)
+                idx[j] = i;
+        }
+        return java.util.Arrays.copyOf(idx, size);
+    }
+
+    private static void aggregate(Node n, HashMap<String,FunctionStat> stats,
+                                  HashMap<String,Integer> active)
+    {
+        String name = name(n.key);
+        FunctionStat f = stats.get(name);
+        if (f == null) {
+            f = new FunctionStat();
+            f.name = name;
+            stats.put(name, f);
+        }
+        f.calls += n.calls;
+        f.self += n.self;
+        f.alloc += n.alloc;
+        f.samples += n.samples;
+
+        /* 递归调用的时间只在最外层计入 total */
+        Integer depth = active.get(name);
+        if (depth == null) {
+            f.total += n.key == null ? inclusive(n) : n.total;
+            active.put(name, 1);
+        }
+        else
+            active.put(name, depth + 1);
+
+        if (n.children != null)
+            for (Node c: n.children.values())
+                aggregate(c, stats, active);
+
+        if (depth == null)
+            active.remove(name);
+        else
+            active.put(name, depth);
+    }
+
+    private static long inclusive(Node n) {
+        long t = n.self;
+        if (n.children != null)
+            for (Node c: n.children.values())
+                t += c.total;
+
+        return t;
+    }
+
+    private static long[] add(long[] a, long[] b) {
+        long[] r = java.util.Arrays.copyOf(a, Math.max(a.length, b.length));
+        for (int i = 0; i < b.length; i++)
+            r[i] += b[i];
+
+        return r;
+    }
+
+    private static long totalSamples() {
+        long n = 0;
+        for (long s: lineSamples)
+            n += s;
+
+        return n;
+    }
+
+    private static ThreadState[] snapshot() {
+        synchronized (threads) {
+            return threads.toArray(new ThreadState[threads.size()]);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import stone.ParseException;
+import stone.ast.ASTree;
+
+/*
+ * 一个客户端连接. 协议以行为单位 (UTF-8), 一个连接上可以有多个请求:
+ *
+ *   SET name value      请求的变量. value 是整数或 "字符串"
+ *   EVAL n              其后的 n 行是源代码, 执行它
+ *   RUN id              执行预先登记的脚本
+ *   DEFINE id n         其后的 n 行登记为脚本 id
+ *   STATS               服务器的统计
+ *   QUIT
+ *
+ * EVAL 和 RUN 执行时 print 的输出以 "OUT 行" 的形式逐行送回, 然后是
+ *   OK 值 | ERR 消息 | TIMEOUT | BUSY
+ * 中的一行. SET 的变量只用于下一个 EVAL 或 RUN.
+ * 送回的文本中的 \ 和换行写成 \\ 和 \n.
+ */
+public class Connection implements Runnable {
+    protected ScriptServer server;
+    protected Socket socket;
+    protected BufferedReader in;
+    protected Writer out;
+    protected HashMap<String,Object> bindings = new HashMap<String,Object>();
+
+    public Connection(ScriptServer server, Socket socket) {
+        this.server = server;
+        this.socket = socket;
+    }
+
+    public void run() {
+        try {
+            in = new BufferedReader(new InputStreamReader(
+                                        socket.getInputStream(), "UTF-8"));
+            out = new BufferedWriter(new OutputStreamWriter(
+                                        socket.getOutputStream(), "UTF-8"));
+            String line;
+            while ((line = in.readLine()) != null)
+                if (!request(line))
+                    break;
+        } catch (IOException e) {
+            /* 客户端断开 */
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {}
+        }
+    }
+
+    /* 返回 false 时关闭连接 */
+    protected boolean request(String line) throws IOException {
+        String[] words = line.trim().split(" ", 3);
+        String cmd = words[0];
+        if (cmd.equals("QUIT"))
+            return false;
+        else if (cmd.equals("STATS"))
+            send("OK " + server.stats());
+        else if (cmd.equals("SET") && words.length == 3)
+            set(words[1], words[2]);
+        else if (cmd.equals("EVAL") && words.length == 2)
+            eval(readSource(words[1]));
+        else if (cmd.equals("RUN") && words.length == 2) {
+            List<ASTree> program = server.script(words[1]);
+            if (program == null)
+                send("ERR no such script: " + words[1]);
+            else
+                execute(program);
+        }
+        else if (cmd.equals("DEFINE") && words.length == 3) {
+            String source = readSource(words[2]);
+            try {
+                server.define(words[1], source);
+                send("OK " + words[1]);
+            } catch (ParseException e) {
+                send("ERR " + e.getMessage());
+            }
+        }
+        else if (cmd.length() > 0)
+            send("ERR bad request: " + line);
+
+        return true;
+    }
+
+    protected void set(String name, String value) throws IOException {
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\""))
+            bindings.put(name, unescape(value.substring(1, value.length() - 1)));
+        else
+            try {
+                bindings.put(name, Integer.valueOf(value));
+            } catch (NumberFormatException e) {
+                send("ERR bad value: " + value);
+            }
+    }
+
+    protected String readSource(String lines) throws IOException {
+        int n;
+        try {
+            n = Integer.parseInt(lines);
+        } catch (NumberFormatException e) {
+            n = 0;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            String s = in.readLine();
+            if (s == null)
+                break;
+
+            sb.append(s).append('\n');
+        }
+        return sb.toString();
+    }
+
+    protected void eval(String source) throws IOException {
+        List<ASTree> program;
+        try {
+            program = server.parse(source);
+        } catch (ParseException e) {
+            bindings.clear();
+            send("ERR " + e.getMessage());
+            return;
+        }
+        execute(program);
+    }
+
+    protected void execute(List<ASTree> program) throws IOException {
+        HashMap<String,Object> b = bindings;
+        bindings = new HashMap<String,Object>();
+        LineOutput lines = new LineOutput();
+        String reply;
+        try {
+            Object value = server.execute(program, b.isEmpty() ? null : b, lines);
+            lines.close();
+            reply = "OK " + escape(String.valueOf(value));
+        } catch (RejectedExecutionException e) {
+            reply = "BUSY";
+        } catch (TimeoutException e) {
+            reply = "TIMEOUT";
+        } catch (ExecutionException e) {
+            reply = "ERR " + escape(String.valueOf(e.getCause().getMessage()));
+        } catch (InterruptedException e) {
+            reply = "ERR interrupted";
+        }
+        lines.close();
+        send(reply);
+    }
+
+    protected void send(String line) throws IOException {
+        synchronized (this) {
+            out.write(line);
+            out.write('\n');
+            out.flush();
+        }
+    }
+
+    static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    static String unescape(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char d = s.charAt(++i);
+                sb.append(d == 'n' ? '\n' : d);
+            }
+            else
+                sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /*
+     * print 的输出. 每满一行送回一个 OUT. close 之后 (请求已经回答, 例如超时)
+     * 不再送回.
+     */
+    class LineOutput extends OutputStream {
+        private ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private boolean closed;
+
+        public synchronized void write(int b) throws IOException {
+            if (closed)
+                return;
+
+            if (b == '\n') {
+                send("OUT " + escape(line.toString("UTF-8")));
+                line.reset();
+            }
+            else
+                line.write(b);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (int i = 0; i < len; i++)
+                write(b[off + i]);
+        }
+
+        public synchronized void close() throws IOException {
+            if (!closed && line.size() > 0) {
+                send("OUT " + escape(line.toString("UTF-8")));
+                line.reset();
+            }
+            closed = true;
+        }
+    }
+}
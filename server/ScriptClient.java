@@ -0,0 +1,84 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import stone.Scripts;
+
+/*
+ * 用法: ScriptClient [-port n] [-n times] script.st [name=value ...]
+ *
+ * 把 script.st 送到 ScriptServer 执行, 输出送回的结果. -n 指定时在同一个
+ * 连接上重复 times 次, 并输出平均的往返时间.
+ * 退出码: 0 成功, 1 脚本出错 (ERR), 2 超时或服务器忙.
+ */
+public class ScriptClient {
+    public static void main(String[] args) throws IOException {
+        int port = ScriptServer.DEFAULT_PORT;
+        int times = 1;
+        int i = 0;
+        for (; i < args.length - 1 && args[i].startsWith("-"); i += 2)
+            if (args[i].equals("-port"))
+                port = Integer.parseInt(args[i + 1]);
+            else if (args[i].equals("-n"))
+                times = Integer.parseInt(args[i + 1]);
+
+        if (i >= args.length) {
+            System.err.println("usage: ScriptClient [-port n] [-n times]"
+                               + " script.st [name=value ...]");
+            System.exit(2);
+        }
+
+        String source = Scripts.read(args[i]);
+        String[] lines = source.split("\n", -1);
+        int n = source.endsWith("\n") ? lines.length - 1 : lines.length;
+        StringBuilder request = new StringBuilder();
+        for (int k = i + 1; k < args.length; k++) {
+            int eq = args[k].indexOf('=');
+            request.append("SET ").append(args[k].substring(0, eq)).append(' ')
+                   .append(args[k].substring(eq + 1)).append('\n');
+        }
+        request.append("EVAL ").append(n).append('\n');
+        for (int k = 0; k < n; k++)
+            request.append(lines[k]).append('\n');
+
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                                    socket.getInputStream(), "UTF-8"));
+        Writer out = new BufferedWriter(new OutputStreamWriter(
+                                    socket.getOutputStream(), "UTF-8"));
+        int status = 0;
+        long start = System.nanoTime();
+        for (int t = 0; t < times; t++) {
+            out.write(request.toString());
+            out.flush();
+            String line;
+            while ((line = in.readLine()) != null) {
+                boolean last = !line.startsWith("OUT ");
+                if (t == times - 1)
+                    System.out.println(line);
+
+                if (last) {
+                    status = line.startsWith("OK") ? 0
+                             : line.startsWith("ERR") ? 1 : 2;
+                    break;
+                }
+            }
+        }
+
+        if (times > 1)
+            System.err.println(String.format("%d requests, %.3f ms each", times,
+                               (System.nanoTime() - start) / 1e6 / times));
+
+        out.write("QUIT\n");
+        out.flush();
+        socket.close();
+        System.exit(status);
+    }
+}
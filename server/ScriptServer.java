@@ -0,0 +1,363 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import stone.*;
+import stone.ast.ASTree;
+import stone.ast.NullStmnt;
+import chap6.BasicEvaluator.ASTreeEx;
+import budget.Budget;
+import budget.BudgetNatives;
+import budget.Metered;
+import jsr223.ScriptCache;
+import session.OverlayEnv;
+import session.SharedEnv;
+
+/*
+ * 常驻的脚本执行服务器. 只监听 localhost 的 TCP 端口.
+ *
+ * 用法: ScriptServer [-port n] [-pool n] [-queue n] [-timeout ms]
+ *                    [-fuel steps] [-memory size] [-l library.st] [-s dir]
+ *   -pool     执行脚本的线程数 (默认 CPU 数)
+ *   -queue    等待执行的请求数的上限, 超过时立即回答 BUSY
+ *   -timeout  每个请求的时限, 超过时回答 TIMEOUT 并 interrupt 执行的线程
+ *   -fuel     每个请求的步数上限 (见 budget.Budget)
+ *   -memory   每个请求的分配量上限, 例如 16m
+ *   -l        启动时载入的共享库 (只能定义函数和常量, 见 SharedEnv.load)
+ *   -s        目录中的 *.st 以文件名 (不含 .st) 作为 id 预先解析好
+ *
+ * natives 和共享库在启动时载入到一个 SharedEnv 中, 每个请求的全局环境是
+ * 叠在它上面的 OverlayEnv, 请求之间互不影响. 线程在启动时全部创建, 并用
+ * 一个小脚本预热. 请求的源代码经过 LRU 缓存, 相同的脚本只解析一次.
+ * 协议见 Connection.
+ */
+public class ScriptServer {
+    public static final int DEFAULT_PORT = 7207;
+
+    protected int port = DEFAULT_PORT;
+    protected int poolSize = Runtime.getRuntime().availableProcessors();
+    protected int queueSize = 64;
+    protected long timeout = 5000;
+    protected long fuel;
+    protected long memory;
+
+    protected FuncParser parser = new FuncParser();
+    protected SharedEnv shared = new SharedEnv();
+    protected ScriptCache cache = new ScriptCache(1024);
+    protected ConcurrentHashMap<String,List<ASTree>> scripts
+        = new ConcurrentHashMap<String,List<ASTree>>();
+    protected ThreadOutput output;
+    protected ThreadPoolExecutor pool;
+    protected Semaphore admitted;
+
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong completed = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    final AtomicLong rejected = new AtomicLong();
+    final AtomicLong timeouts = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        ScriptServer server = new ScriptServer();
+        String lib = null, dir = null;
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            if (i + 1 == args.length) {
+                usage();
+                return;
+            }
+            else if (a.equals("-port"))
+                server.port = Integer.parseInt(args[++i]);
+            else if (a.equals("-pool"))
+                server.poolSize = Integer.parseInt(args[++i]);
+            else if (a.equals("-queue"))
+                server.queueSize = Integer.parseInt(args[++i]);
+            else if (a.equals("-timeout"))
+                server.timeout = Long.parseLong(args[++i]);
+            else if (a.equals("-fuel"))
+                server.fuel = Long.parseLong(args[++i]);
+            else if (a.equals("-memory"))
+                server.memory = Budget.parseSize(args[++i]);
+            else if (a.equals("-l"))
+                lib = args[++i];
+            else if (a.equals("-s"))
+                dir = args[++i];
+            else {
+                usage();
+                return;
+            }
+        }
+
+        server.start(lib == null ? null : Scripts.read(lib));
+        if (dir != null)
+            server.loadScripts(new File(dir));
+
+        server.serve();
+    }
+
+    static void usage() {
+        System.err.println("usage: ScriptServer [-port n] [-pool n] [-queue n]"
+                           + " [-timeout ms] [-fuel steps] [-memory size]"
+                           + " [-l library.st] [-s dir]");
+    }
+
+    public void start(String library) throws ParseException {
+        HashMap<String,Object> natives
+            = new HashMap<String,Object>(new BudgetNatives().functions());
+        shared.defineAll(natives);
+        if (library != null)
+            shared.load(library, parser);
+
+        output = new ThreadOutput(System.out);
+        System.setOut(new PrintStream(output, true));
+        admitted = new Semaphore(poolSize + queueSize);
+        pool = (ThreadPoolExecutor)Executors.newFixedThreadPool(poolSize,
+                                                                daemonThreads());
+        pool.prestartAllCoreThreads();
+        warmUp();
+    }
+
+    /* 在各个线程上执行几次小脚本, 让类的载入和 JIT 在接受请求之前完成 */
+    protected void warmUp() {
+        List<ASTree> program;
+        try {
+            program = parse("def warm(n) { if n < 2 { n } else { warm(n - 1)"
+                            + " + warm(n - 2) } }\ns = \"\" + warm(12)\n"
+                            + "i = 0\nwhile i < 100 { i = i + 1 }\n");
+        } catch (ParseException e) {
+            throw new IllegalStateException(e);
+        }
+
+        for (int i = 0; i < poolSize * 50; i++)
+            try {
+                execute(program, null, null);
+            } catch (Exception e) {}
+
+        completed.set(0);
+        requests.set(0);
+    }
+
+    public void loadScripts(File dir) throws IOException, ParseException {
+        File[] files = dir.listFiles();
+        if (files == null)
+            throw new IOException("cannot read " + dir);
+
+        for (File f: files) {
+            String n = f.getName();
+            if (n.endsWith(".st"))
+                define(n.substring(0, n.length() - 3),
+                       Scripts.read(f.getPath()));
+        }
+    }
+
+    public void define(String id, String source) throws ParseException {
+        scripts.put(id, parse(source));
+    }
+
+    public List<ASTree> script(String id) { return scripts.get(id); }
+
+    /* 解析 source. 结果缓存在 LRU 中 */
+    public List<ASTree> parse(String source) throws ParseException {
+        List<ASTree> program = cache.get(source);
+        if (program == null) {
+            Lexer lexer = new Lexer(new StringReader(source));
+            ArrayList<ASTree> list = new ArrayList<ASTree>();
+            while (lexer.peek(0) != Token.EOF) {
+                ASTree t = parser.parse(lexer);
+                if (!(t instanceof NullStmnt))
+                    list.add(t);
+            }
+            cache.put(source, list);
+            program = list;
+        }
+        return program;
+    }
+
+    /*
+     * 在线程池中执行 program, 返回最后一个语句的值. print 的输出写到 out.
+     * 已经满了时抛出 RejectedExecutionException, 超时时抛出 TimeoutException,
+     * 执行出错时抛出 ExecutionException.
+     */
+    public Object execute(final List<ASTree> program,
+                          final Map<String,Object> bindings,
+                          final OutputStream out)
+        throws InterruptedException, ExecutionException, TimeoutException
+    {
+        requests.incrementAndGet();
+        if (!admitted.tryAcquire()) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("busy");
+        }
+
+        Request f = new Request(program, bindings, out);
+        try {
+            pool.execute(f);
+        } catch (RejectedExecutionException e) {
+            f.release();
+            rejected.incrementAndGet();
+            throw e;
+        }
+
+        try {
+            Object value = f.get(timeout, TimeUnit.MILLISECONDS);
+            completed.incrementAndGet();
+            return value;
+        } catch (TimeoutException e) {
+            f.cancel(true);
+            timeouts.incrementAndGet();
+            throw e;
+        } catch (ExecutionException e) {
+            failed.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /*
+     * 占用 admitted 的一个许可的请求. 执行结束时归还; 还没开始执行就被
+     * cancel (在队列中超时) 时 call 不会被调用, 由 done 归还. 两者都可能
+     * 发生时 held 保证只归还一次.
+     */
+    protected class Request extends FutureTask<Object> {
+        private final AtomicBoolean held = new AtomicBoolean(true);
+        private final Job job;
+
+        Request(List<ASTree> program, Map<String,Object> bindings,
+                OutputStream out)
+        {
+            this(new Job(program, bindings, out));
+        }
+
+        private Request(Job job) {
+            super(job);
+            this.job = job;
+            job.request = this;
+        }
+
+        protected void done() {
+            if (!job.started)
+                release();
+        }
+
+        void release() {
+            if (held.compareAndSet(true, false))
+                admitted.release();
+        }
+    }
+
+    protected class Job implements Callable<Object> {
+        final List<ASTree> program;
+        final Map<String,Object> bindings;
+        final OutputStream out;
+        volatile boolean started;
+        Request request;
+
+        Job(List<ASTree> p, Map<String,Object> b, OutputStream o) {
+            program = p;
+            bindings = b;
+            out = o;
+        }
+
+        public Object call() {
+            started = true;
+            try {
+                return run(program, bindings, out);
+            } finally {
+                request.release();
+            }
+        }
+    }
+
+    /* 请求的全局环境. 带着这个请求的 Budget (见 Budget.of) */
+    static class MeteredEnv extends OverlayEnv implements Metered {
+        private final Budget budget;
+
+        MeteredEnv(SharedEnv shared, Budget b) {
+            super(shared);
+            budget = b;
+        }
+
+        public Budget budget() { return budget; }
+    }
+
+    protected Object run(List<ASTree> program, Map<String,Object> bindings,
+                         OutputStream out)
+    {
+        Budget budget = new Budget(fuel, timeout, memory);
+        OverlayEnv env = new MeteredEnv(shared, budget);
+        if (bindings != null)
+            for (Map.Entry<String,Object> e: bindings.entrySet())
+                env.putNew(e.getKey(), e.getValue());
+
+        if (out != null)
+            output.set(out);
+
+        budget.enter();
+        try {
+            Object value = null;
+            for (ASTree t: program)
+                value = ((ASTreeEx)t).eval(env);
+
+            return value;
+        } finally {
+            budget.exit();
+            if (out != null) {
+                System.out.flush();
+                output.clear();
+            }
+        }
+    }
+
+    public void serve() throws IOException {
+        ServerSocket socket = new ServerSocket(port, 128,
+                                               InetAddress.getLoopbackAddress());
+        System.err.println("stone server: port " + socket.getLocalPort()
+                           + ", pool " + poolSize + ", queue " + queueSize
+                           + ", timeout " + timeout + " ms");
+        for (;;) {
+            Socket s = socket.accept();
+            s.setTcpNoDelay(true);
+            Thread t = new Thread(new Connection(this, s), "stone-connection");
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    public String stats() {
+        return "requests=" + requests.get() + " completed=" + completed.get()
+               + " failed=" + failed.get() + " timeouts=" + timeouts.get()
+               + " rejected=" + rejected.get() + " active=" + pool.getActiveCount()
+               + " scripts=" + scripts.size() + " cache: " + cache;
+    }
+
+    private static ThreadFactory daemonThreads() {
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = Executors.defaultThreadFactory().newThread(r);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+}
@@ -0,0 +1,10 @@
+package server;
+
+import javassist.gluonj.util.Loader;
+import budget.BudgetEvaluator;
+
+public class ServerRunner {
+    public static void main(String[] args) throws Throwable {
+        Loader.run(ScriptServer.class, args, BudgetEvaluator.class);
+    }
+}
@@ -0,0 +1,31 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/*
+ * 按线程分发的 System.out. 执行请求的线程设置了目标时写到那里 (流回客户端),
+ * 其他线程写到原来的 System.out.
+ */
+public class ThreadOutput extends OutputStream {
+    protected OutputStream fallback;
+    protected ThreadLocal<OutputStream> target = new ThreadLocal<OutputStream>();
+
+    public ThreadOutput(OutputStream fallback) { this.fallback = fallback; }
+
+    public void set(OutputStream out) { target.set(out); }
+    public void clear() { target.remove(); }
+
+    protected OutputStream out() {
+        OutputStream out = target.get();
+        return out == null ? fallback : out;
+    }
+
+    public void write(int b) throws IOException { out().write(b); }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        out().write(b, off, len);
+    }
+
+    public void flush() throws IOException { out().flush(); }
+}
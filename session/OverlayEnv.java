@@ -0,0 +1,89 @@
+package session;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import stone.StoneException;
+import chap6.Environment;
+import chap7.Function;
+import chap7.NestedEnv;
+
+/*
+ * Session 的全局环境: 本地的一层 (NestedEnv 本身的 values) 叠在 SharedEnv
+ * 之上. 创建时只分配一个空的 HashMap, 与共享库的大小无关.
+ *
+ * 读取时先找本地, 再找共享的一层. 写入一律写到本地 (copy-on-write), 包括
+ * 对共享变量的赋值. 共享库中定义的函数在读取时重新绑定到这个 OverlayEnv 上,
+ * 这样函数体中对全局变量的读写也落到本 Session 中, 绑定后的 Function 按原
+ * Function 缓存, 共享的函数被重新定义之后自然得到新的绑定.
+ *
+ * SharedEnv.load 执行共享库时使用 staging 的 OverlayEnv, 执行结束后冻结
+ * (freeze), 之后不再接受写入. 执行期间调用已经发布的函数同样重新绑定到
+ * staging 上, 不会写到以前的共享库的 staging 中.
+ */
+public class OverlayEnv extends NestedEnv {
+    protected SharedEnv shared;
+    protected boolean staging;
+    protected boolean frozen;
+    protected IdentityHashMap<Function, Function> bound;
+
+    public OverlayEnv(SharedEnv shared) { this(shared, false); }
+
+    protected OverlayEnv(SharedEnv shared, boolean staging) {
+        this.shared = shared;
+        this.staging = staging;
+    }
+
+    public SharedEnv shared() { return shared; }
+
+    public Object get(String name) {
+        Object v = values.get(name);
+        if (v != null)
+            return v;
+
+        v = shared.get(name);
+        if (v instanceof Function)
+            return bind((Function)v);
+        else
+            return v;
+    }
+
+    public Environment where(String name) {
+        if (values.get(name) != null || shared.get(name) != null)
+            return this;
+        else
+            return null;
+    }
+
+    /* 本地或共享的一层发生变化, 都要让缓存的查找结果失效 */
+    public int version() { return version + shared.version(); }
+
+    public void putNew(String name, Object value) {
+        if (frozen)
+            throw new StoneException("shared environment is read-only: "
+                                     + name);
+        super.putNew(name, value);
+    }
+
+    protected HashMap<String, Object> localValues() { return values; }
+
+    protected void freeze() { frozen = true; }
+
+    protected Function bind(Function f) {
+        Environment home = f.environment();
+        if (home == this || !(home instanceof OverlayEnv)
+            || !((OverlayEnv)home).staging)
+            return f;
+
+        if (bound == null)
+            bound = new IdentityHashMap<Function, Function>();
+
+        Function g = bound.get(f);
+        if (g == null) {
+            g = new Function(f.parameters(), f.body(), this);
+            g.setPurity(f.purity());
+            g.setCapture(f.capture());
+            bound.put(f, g);
+        }
+        return g;
+    }
+}
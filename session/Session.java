@@ -0,0 +1,67 @@
+package session;
+
+import java.io.StringReader;
+import java.util.concurrent.CompletableFuture;
+import stone.FuncParser;
+import stone.Lexer;
+import stone.Token;
+import stone.ast.ASTree;
+import stone.ast.NullStmnt;
+import chap6.Environment;
+import chap6.BasicEvaluator.ASTreeEx;
+
+/*
+ * 一次脚本执行. 每个 Session 有自己的 Lexer, AST 和 Environment, 互不共享
+ * 可变状态. 最后一条语句的值, 或者执行中发生的异常, 通过 result() 取得.
+ */
+public class Session {
+    protected String name;
+    protected String source;
+    protected Environment env;
+    protected CompletableFuture<Object> result = new CompletableFuture<Object>();
+    protected long elapsed;
+    protected Object value;
+    protected Throwable error;
+
+    public Session(String name, String source, Environment env) {
+        this.name = name;
+        this.source = source;
+        this.env = env;
+    }
+
+    public String name() { return name; }
+    public Environment environment() { return env; }
+    public CompletableFuture<Object> result() { return result; }
+
+    /* 执行所用的时间 (纳秒), 执行结束之前为 0 */
+    public long elapsed() { return elapsed; }
+
+    /* 执行脚本, 返回是否成功. 结果要等 finish() 之后才对外可见 */
+    protected boolean run(FuncParser parser) {
+        long start = System.nanoTime();
+        try {
+            Lexer lexer = new Lexer(new StringReader(source));
+            source = null;
+            while (lexer.peek(0) != Token.EOF) {
+                ASTree t = parser.parse(lexer);
+                if (!(t instanceof NullStmnt))
+                    value = ((ASTreeEx)t).eval(env);
+            }
+            return true;
+        } catch (Throwable e) {
+            error = e;
+            return false;
+        } finally {
+            elapsed = System.nanoTime() - start;
+        }
+    }
+
+    protected void finish() {
+        if (error == null)
+            result.complete(value);
+        else
+            result.completeExceptionally(error);
+    }
+
+    public String toString() { return "<session:" + name + ">"; }
+}
@@ -0,0 +1,43 @@
+package session;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import stone.FuncParser;
+import stone.ParseException;
+import stone.Scripts;
+
+/*
+ * 命令行参数中的每个文件作为一个 Session 并发执行, 然后按顺序打印结果.
+ * -l library 先载入共享库, 各 Session 都能使用其中的定义.
+ */
+public class SessionInterpreter {
+    public static void main(String[] args)
+        throws IOException, InterruptedException, ParseException
+    {
+        int first = 0;
+        SharedEnv shared = null;
+        if (args.length > 1 && args[0].equals("-l")) {
+            shared = new SharedEnv();
+            shared.load(Scripts.read(args[1]), new FuncParser());
+            first = 2;
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        SessionManager manager = new SessionManager(cores * 64, 10000, shared);
+        Session[] sessions = new Session[args.length - first];
+        for (int i = 0; i < sessions.length; i++)
+            sessions[i] = manager.submit(args[first + i],
+                                         Scripts.read(args[first + i]));
+
+        for (Session s: sessions) {
+            try {
+                System.out.println(s.name() + " => " + s.result().get());
+            } catch (ExecutionException e) {
+                System.out.println(s.name() + " !! " + e.getCause().getMessage());
+            }
+        }
+
+        System.out.println(manager.stats());
+        manager.shutdown();
+    }
+}
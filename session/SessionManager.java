@@ -0,0 +1,147 @@
+package session;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import stone.FuncParser;
+import chap6.Environment;
+import chap7.SymbolEnv;
+
+/*
+ * 并发执行大量互相独立的短脚本.
+ *
+ * 每个 Session 在自己的线程上运行. JVM 支持 virtual thread 时 (Java 21 以后)
+ * 每个 Session 一个 virtual thread, 否则退回到大小为 maxConcurrent 的线程池.
+ *
+ * 准入控制: 同时执行的 Session 不超过 maxConcurrent 个, 等待执行的不超过
+ * maxQueued 个. 超出的 Session 不会执行, 其 result() 以
+ * RejectedExecutionException 结束.
+ *
+ * FuncParser 构造完成后没有可变状态, 所有 Session 共用一个.
+ * 给出 SharedEnv 时, 每个 Session 的全局环境是叠在它上面的 OverlayEnv.
+ */
+public class SessionManager {
+    protected FuncParser parser = new FuncParser();
+    protected ExecutorService executor;
+    protected Semaphore admitted;
+    protected Semaphore running;
+    protected boolean virtual;
+    protected int maxConcurrent;
+    protected SharedEnv shared;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public SessionManager(int maxConcurrent, int maxQueued) {
+        this.maxConcurrent = maxConcurrent;
+        admitted = new Semaphore(maxConcurrent + maxQueued);
+        running = new Semaphore(maxConcurrent);
+        executor = virtualThreadExecutor();
+        virtual = executor != null;
+        if (!virtual)
+            executor = Executors.newFixedThreadPool(maxConcurrent,
+                                                    daemonThreads());
+    }
+
+    public SessionManager(int maxConcurrent, int maxQueued, SharedEnv shared) {
+        this(maxConcurrent, maxQueued);
+        this.shared = shared;
+    }
+
+    public SessionManager() {
+        this(Runtime.getRuntime().availableProcessors() * 64, 10000);
+    }
+
+    public SharedEnv shared() { return shared; }
+    public FuncParser parser() { return parser; }
+
+    /* 每个 Session 的全局环境. 有共享库时是叠在共享库上的 OverlayEnv */
+    protected Environment newEnvironment() {
+        if (shared == null)
+            return new SymbolEnv();
+        else
+            return new OverlayEnv(shared);
+    }
+
+    public Session submit(String name, String source) {
+        final Session s = new Session(name, source, newEnvironment());
+        submitted.incrementAndGet();
+        if (!admitted.tryAcquire()) {
+            rejected.incrementAndGet();
+            s.result().completeExceptionally(
+                new RejectedExecutionException("too many sessions"));
+            return s;
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                public void run() { execute(s); }
+            });
+        } catch (RejectedExecutionException e) {
+            admitted.release();
+            rejected.incrementAndGet();
+            s.result().completeExceptionally(e);
+        }
+        return s;
+    }
+
+    protected void execute(Session s) {
+        try {
+            boolean ok;
+            running.acquireUninterruptibly();
+            try {
+                ok = s.run(parser);
+            } finally {
+                running.release();
+            }
+
+            if (ok)
+                completed.incrementAndGet();
+            else
+                failed.incrementAndGet();
+        } finally {
+            admitted.release();
+            s.finish();
+        }
+    }
+
+    public void shutdown() { executor.shutdown(); }
+
+    public boolean usesVirtualThreads() { return virtual; }
+    public int running() { return maxConcurrent - running.availablePermits(); }
+    public long submitted() { return submitted.get(); }
+    public long rejected() { return rejected.get(); }
+    public long completed() { return completed.get(); }
+    public long failed() { return failed.get(); }
+
+    public String stats() {
+        return "sessions: submitted=" + submitted() + " completed=" + completed()
+               + " failed=" + failed() + " rejected=" + rejected()
+               + (virtual ? " (virtual threads)" : " (thread pool)");
+    }
+
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)m.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonThreads() {
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = Executors.defaultThreadFactory().newThread(r);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+}
@@ -0,0 +1,10 @@
+package session;
+
+import javassist.gluonj.util.Loader;
+import chap7.FuncEvaluator;
+
+public class SessionRunner {
+    public static void main(String[] args) throws Throwable {
+        Loader.run(SessionInterpreter.class, args, FuncEvaluator.class);
+    }
+}
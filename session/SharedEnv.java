@@ -0,0 +1,106 @@
+package session;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import stone.FuncParser;
+import stone.Lexer;
+import stone.ParseException;
+import stone.StoneException;
+import stone.Token;
+import stone.ast.ASTree;
+import stone.ast.NullStmnt;
+import chap6.Environment;
+import chap6.Rope;
+import chap6.BasicEvaluator.ASTreeEx;
+import chap7.Function;
+import chap8.NativeFunction;
+
+/*
+ * 多个 Session 共享的全局定义 (例如公共的函数库).
+ *
+ * 内容是一个不可变的快照, 读取时不需要加锁. 修改 (define / load) 时复制一份
+ * 新的快照, 整体替换 volatile 引用, 所以重新定义一个共享函数对所有 Session
+ * 是原子地可见的. 各 Session 通过 OverlayEnv 读取这里的定义, 赋值只写到
+ * Session 自己的 OverlayEnv 中, 共享的一层永远不会被 Session 修改.
+ */
+public class SharedEnv implements Environment {
+    private volatile HashMap<String, Object> snapshot
+        = new HashMap<String, Object>();
+    private volatile int version;
+
+    public Object get(String name) { return snapshot.get(name); }
+
+    public void put(String name, Object value) { putNew(name, value); }
+
+    public void putNew(String name, Object value) {
+        throw new StoneException("shared environment is read-only: " + name);
+    }
+
+    public Environment where(String name) {
+        return snapshot.get(name) != null ? this : null;
+    }
+
+    public void setOuter(Environment e) {
+        throw new StoneException("shared environment has no outer");
+    }
+
+    public int version() { return version; }
+    public int size() { return snapshot.size(); }
+
+    public synchronized void define(String name, Object value) {
+        HashMap<String, Object> map = new HashMap<String, Object>(snapshot);
+        map.put(name, value);
+        publish(map);
+    }
+
+    public synchronized void defineAll(Map<String, Object> values) {
+        HashMap<String, Object> map = new HashMap<String, Object>(snapshot);
+        map.putAll(values);
+        publish(map);
+    }
+
+    private void publish(HashMap<String, Object> map) {
+        snapshot = map;
+        version++;
+    }
+
+    /*
+     * 执行 source, 把其中的定义一次性发布出去. 执行期间可以读到已经发布的
+     * 定义, 执行失败时什么也不发布.
+     *
+     * 发布的值必须是不可变的: 数, 字符串, native 函数, 或者在共享库顶层
+     * 定义的函数 (各 Session 读取时重新绑定). 闭包 (例如 makeCounter() 的
+     * 返回值) 捕获的环境会被所有 Session 共同修改, 数组和字典也一样, 所以
+     * 都不能发布.
+     */
+    public void load(String source, FuncParser parser) throws ParseException {
+        OverlayEnv staging = new OverlayEnv(this, true);
+        Lexer lexer = new Lexer(new StringReader(source));
+        while (lexer.peek(0) != Token.EOF) {
+            ASTree t = parser.parse(lexer);
+            if (!(t instanceof NullStmnt))
+                ((ASTreeEx)t).eval(staging);
+        }
+
+        HashMap<String, Object> values = staging.localValues();
+        for (Map.Entry<String, Object> e: values.entrySet())
+            checkImmutable(e.getKey(), e.getValue(), staging);
+
+        staging.freeze();
+        defineAll(values);
+    }
+
+    private static void checkImmutable(String name, Object value,
+                                       OverlayEnv staging)
+    {
+        if (value instanceof Function) {
+            if (((Function)value).environment() != staging)
+                throw new StoneException("cannot share a closure: " + name);
+        }
+        else if (!(value instanceof Integer || value instanceof String
+                   || value instanceof Rope
+                   || value instanceof NativeFunction))
+            throw new StoneException("cannot share a mutable value: " + name);
+    }
+}
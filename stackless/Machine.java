@@ -0,0 +1,482 @@
+package stackless;
+
+import java.util.Arrays;
+import stone.StoneException;
+import stone.ast.*;
+import chap6.Environment;
+import chap6.BasicEvaluator.ASTreeEx;
+import chap7.Function;
+import chap7.FuncEvaluator.EnvEx;
+import chap7.FuncEvaluator.PostfixEx;
+import chap8.NativeFunction;
+import chap10.DictValue;
+import chap10.Subscript;
+import stackless.StacklessEvaluator.HeapArgEx;
+import stackless.StacklessEvaluator.HeapBinaryEx;
+import static chap6.BasicEvaluator.FALSE;
+
+/*
+ * 用显式的帧栈遍历 AST.
+ *
+ * 每个尚未求值完毕的非叶子节点占一个 Frame, pc 记录它进行到哪一步, 子表达式
+ * 的值放在值栈 values 上. 子节点求值完毕时恰好在值栈上留下一个值, 然后弹出
+ * 自己的帧, 回到父节点的帧继续. 函数调用只是压入函数体的帧 (call 为 true),
+ * 所以 Stone 的调用深度与 Java 栈无关.
+ *
+ * 帧数超过 maxFrames 时抛出 StoneException. maxFrames 由内存预算 stone.stack
+ * (字节数, 可以带 k/m/g) 换算, 未指定时为最大堆的 1/4.
+ * 处于尾部位置的调用 (见 chap7.TailCall) 直接替换当前函数体的帧.
+ * 每个线程一个 Machine. 帧和值栈重复使用, 最外层的 run 结束时清除引用.
+ */
+public class Machine {
+    /* 一帧连同被调函数的环境大约占用的字节数 */
+    public static final int FRAME_BYTES = 160;
+    public static volatile int maxFrames = frames(System.getProperty("stone.stack"));
+
+    protected static final int INITIAL = 256;
+    protected static final Integer ZERO = 0;
+
+    protected static final int DIRECT = 0;
+    protected static final int BLOCK = 1;
+    protected static final int IF = 2;
+    protected static final int WHILE = 3;
+    protected static final int NEGATIVE = 4;
+    protected static final int BINARY = 5;
+    protected static final int ASSIGN = 6;
+    protected static final int PRIMARY = 7;
+    protected static final int DICT = 8;
+
+    protected static final class Frame {
+        ASTree node;
+        Environment env;
+        int kind;
+        int pc;
+        int arg;
+        int end;
+        int sp;
+        boolean call;
+        String[] names;
+    }
+
+    private static final ThreadLocal<Machine> machines = new ThreadLocal<Machine>();
+
+    private Frame[] frames = new Frame[INITIAL];
+    private int fp;
+    private int bottom;
+    private int high;
+    private Object[] values = new Object[INITIAL];
+    private int sp;
+    private int highValue;
+
+    public static Object run(ASTree t, Environment env) {
+        Machine m = machines.get();
+        if (m == null)
+            machines.set(m = new Machine());
+
+        return m.execute(t, env);
+    }
+
+    /* 内存预算换算成帧数 */
+    public static int frames(String budget) {
+        long bytes;
+        if (budget == null || budget.length() == 0)
+            bytes = Runtime.getRuntime().maxMemory() / 4;
+        else {
+            char unit = Character.toLowerCase(budget.charAt(budget.length() - 1));
+            long scale = unit == 'k' ? 1L << 10 : unit == 'm' ? 1L << 20
+                         : unit == 'g' ? 1L << 30 : 1;
+            String digits = scale == 1 ? budget
+                            : budget.substring(0, budget.length() - 1);
+            bytes = Long.parseLong(digits) * scale;
+        }
+        return (int)Math.max(INITIAL, Math.min(Integer.MAX_VALUE - 8,
+                                               bytes / FRAME_BYTES));
+    }
+
+    public int depth() { return fp; }
+
+    public Object execute(ASTree t, Environment env) {
+        int base = fp;
+        int savedBottom = bottom;
+        int savedSp = sp;
+        bottom = base;
+        try {
+            enter(t, env);
+            loop(base);
+            return values[--sp];
+        } catch (RuntimeException e) {
+            fp = base;
+            sp = savedSp;
+            throw e;
+        } finally {
+            bottom = savedBottom;
+            if (base == 0)
+                clear();
+        }
+    }
+
+    /* 求值 t. 叶子节点直接把值压入值栈, 其他节点压入一帧 */
+    protected void enter(ASTree t, Environment env) {
+        int kind;
+        if (t instanceof Name || t instanceof NumberLiteral
+            || t instanceof StringLiteral)
+            kind = DIRECT;
+        else if (t instanceof PrimaryExpr)
+            kind = PRIMARY;
+        else if (t instanceof BinaryExpr)
+            kind = "=".equals(((BinaryExpr)t).operator()) ? ASSIGN : BINARY;
+        else if (t instanceof BlockStmnt)
+            kind = BLOCK;
+        else if (t instanceof IfStmnt)
+            kind = IF;
+        else if (t instanceof WhileStmnt)
+            kind = WHILE;
+        else if (t instanceof NegativeExpr)
+            kind = NEGATIVE;
+        else if (t instanceof DictLiteral)
+            kind = DICT;
+        else
+            kind = DIRECT;
+
+        if (kind == DIRECT)
+            push(((ASTreeEx)t).eval(env));
+        else
+            frame(t, env, kind);
+    }
+
+    protected Frame frame(ASTree t, Environment env, int kind) {
+        if (fp == frames.length)
+            grow(t);
+
+        Frame f = frames[fp];
+        if (f == null)
+            frames[fp] = f = new Frame();
+
+        if (++fp > high)
+            high = fp;
+
+        f.node = t;
+        f.env = env;
+        f.kind = kind;
+        f.pc = 0;
+        f.arg = 0;
+        f.sp = sp;
+        f.call = false;
+        if (kind == PRIMARY)
+            f.end = t.numChildren();
+        else if (kind == BLOCK)
+            push(ZERO);
+
+        return f;
+    }
+
+    private void grow(ASTree t) {
+        int limit = maxFrames;
+        if (frames.length >= limit)
+            throw new StoneException("stack overflow: more than " + limit
+                                     + " frames", t);
+
+        int size = (int)Math.min(limit, frames.length * 2L);
+        frames = Arrays.copyOf(frames, size);
+    }
+
+    protected void push(Object v) {
+        if (sp == values.length)
+            values = Arrays.copyOf(values, sp * 2);
+
+        values[sp++] = v;
+        if (sp > highValue)
+            highValue = sp;
+    }
+
+    protected Object pop() { return values[--sp]; }
+
+    private void clear() {
+        for (int i = 0; i < high; i++) {
+            Frame f = frames[i];
+            f.node = null;
+            f.env = null;
+            f.names = null;
+        }
+        Arrays.fill(values, 0, highValue, null);
+        high = highValue = 0;
+        if (frames.length > INITIAL * 64) {
+            frames = new Frame[INITIAL];
+            values = new Object[INITIAL];
+        }
+    }
+
+    protected void loop(int base) {
+        while (fp > base) {
+            Frame f = frames[fp - 1];
+            ASTree t = f.node;
+            switch (f.kind) {
+            case BLOCK: {
+                int n = t.numChildren();
+                int i = f.pc;
+                while (i < n && t.child(i) instanceof NullStmnt)
+                    i++;
+
+                if (i < n) {
+                    f.pc = i + 1;
+                    sp--;
+                    enter(t.child(i), f.env);
+                }
+                else
+                    fp--;
+                break;
+            }
+            case PRIMARY:
+                primary(f, (PrimaryExpr)t);
+                break;
+            case BINARY:
+                if (f.pc == 0) {
+                    f.pc = 1;
+                    enter(((BinaryExpr)t).left(), f.env);
+                }
+                else if (f.pc == 1) {
+                    f.pc = 2;
+                    enter(((BinaryExpr)t).right(), f.env);
+                }
+                else {
+                    Object right = pop();
+                    Object left = pop();
+                    push(((HeapBinaryEx)t).operate(left, right));
+                    fp--;
+                }
+                break;
+            case IF: {
+                IfStmnt s = (IfStmnt)t;
+                if (f.pc == 0) {
+                    f.pc = 1;
+                    enter(s.condition(), f.env);
+                    break;
+                }
+                Object c = pop();
+                Environment env = f.env;
+                fp--;
+                if (c instanceof Integer && ((Integer)c).intValue() != FALSE)
+                    enter(s.thenBlock(), env);
+                else if (s.elseBlock() != null)
+                    enter(s.elseBlock(), env);
+                else
+                    push(ZERO);
+                break;
+            }
+            case WHILE: {
+                WhileStmnt s = (WhileStmnt)t;
+                if (f.pc == 0) {
+                    push(ZERO);
+                    f.pc = 1;
+                    enter(s.condition(), f.env);
+                }
+                else if (f.pc == 1) {
+                    Object c = pop();
+                    if (c instanceof Integer && ((Integer)c).intValue() == FALSE)
+                        fp--;
+                    else {
+                        sp--;
+                        f.pc = 2;
+                        enter(s.body(), f.env);
+                    }
+                }
+                else {
+                    f.pc = 1;
+                    enter(s.condition(), f.env);
+                }
+                break;
+            }
+            case ASSIGN:
+                assign(f, (BinaryExpr)t);
+                break;
+            case NEGATIVE:
+                if (f.pc == 0) {
+                    f.pc = 1;
+                    enter(((NegativeExpr)t).operand(), f.env);
+                }
+                else {
+                    Object v = pop();
+                    if (!(v instanceof Integer))
+                        throw new StoneException("bad type for -", t);
+
+                    push(-((Integer)v).intValue());
+                    fp--;
+                }
+                break;
+            case DICT:
+                dict(f, (DictLiteral)t);
+                break;
+            default:
+                throw new StoneException("cannot eval: " + t, t);
+            }
+        }
+    }
+
+    /* 依次求出 operand 和 f.end 之前的各个 postfix */
+    protected void primary(Frame f, PrimaryExpr p) {
+        int i = f.pc;
+        if (i == 0) {
+            f.pc = 1;
+            enter(p.child(0), f.env);
+            return;
+        }
+        else if (i >= f.end) {
+            fp--;
+            return;
+        }
+
+        ASTree post = p.child(i);
+        if (post instanceof Arguments) {
+            int a = f.arg;
+            if (a == 0) {
+                prepare(f, (HeapArgEx)post, values[sp - 1]);
+                a = 1;
+            }
+
+            if (a <= post.numChildren()) {
+                f.arg = a + 1;
+                enter(post.child(a - 1), f.env);
+            }
+            else {
+                f.arg = 0;
+                f.pc = i + 1;
+                call(f, (HeapArgEx)post);
+            }
+        }
+        else if (post instanceof ArrayRef) {
+            if (f.arg == 0) {
+                f.arg = 1;
+                enter(((ArrayRef)post).index(), f.env);
+            }
+            else {
+                f.arg = 0;
+                f.pc = i + 1;
+                Object index = pop();
+                Object target = pop();
+                push(Subscript.get(target, index, post));
+            }
+        }
+        else {
+            f.pc = i + 1;
+            push(((PostfixEx)post).eval(f.env, pop()));
+        }
+    }
+
+    /* 求实参之前的检查, 与 NativeArgEx / ArgumentsEx 相同 */
+    protected void prepare(Frame f, HeapArgEx args, Object target) {
+        if (target instanceof NativeFunction) {
+            if (args.size() != ((NativeFunction)target).numOfParameters())
+                throw new StoneException("bad number of arguments", args);
+
+            f.names = null;
+        }
+        else
+            f.names = args.bind(target);
+    }
+
+    protected void call(Frame f, HeapArgEx args) {
+        int n = args.size();
+        int base = sp - n;
+        Object target = values[base - 1];
+        if (target instanceof NativeFunction) {
+            Object[] a = new Object[n];
+            System.arraycopy(values, base, a, 0, n);
+            sp = base - 1;
+            push(((NativeFunction)target).invoke(a, args));
+            return;
+        }
+
+        Function func = (Function)target;
+        String[] names = f.names;
+        f.names = null;
+        EnvEx env = (EnvEx)func.makeEnv();
+        for (int k = 0; k < n; k++)
+            env.putNew(names[k], values[base + k]);
+
+        sp = base - 1;
+        if (args.isTail())
+            for (int k = fp - 1; k >= bottom; k--) {
+                Frame c = frames[k];
+                if (c.call) {
+                    fp = k + 1;
+                    sp = c.sp;
+                    c.node = func.body();
+                    c.env = env;
+                    c.pc = 0;
+                    push(ZERO);
+                    return;
+                }
+            }
+
+        frame(func.body(), env, BLOCK).call = true;
+    }
+
+    /*
+     * 右侧, 数组 (去掉最后一个 postfix 的 primary), 下标的顺序求值,
+     * 与 ArrayEvaluator.AssignEx 相同.
+     */
+    protected void assign(Frame f, BinaryExpr b) {
+        switch (f.pc) {
+        case 0:
+            f.pc = 1;
+            enter(b.right(), f.env);
+            return;
+        case 1: {
+            ASTree left = b.left();
+            if (left instanceof PrimaryExpr && left.numChildren() > 1
+                && left.child(left.numChildren() - 1) instanceof ArrayRef) {
+                f.pc = 2;
+                frame(left, f.env, PRIMARY).end = left.numChildren() - 1;
+            }
+            else {
+                Object rvalue = pop();
+                push(((HeapBinaryEx)b).assign(f.env, rvalue));
+                fp--;
+            }
+            return;
+        }
+        case 2: {
+            f.pc = 3;
+            ASTree left = b.left();
+            ArrayRef aref = (ArrayRef)left.child(left.numChildren() - 1);
+            enter(aref.index(), f.env);
+            return;
+        }
+        default: {
+            Object index = pop();
+            Object array = pop();
+            Object rvalue = values[sp - 1];
+            Subscript.set(array, index, rvalue, b);
+            fp--;
+        }
+        }
+    }
+
+    protected void dict(Frame f, DictLiteral d) {
+        switch (f.pc) {
+        case 0:
+            push(new DictValue());
+            f.pc = 1;
+            return;
+        case 1:
+            if (f.arg == d.size())
+                fp--;
+            else {
+                f.pc = 2;
+                enter(d.entry(f.arg).key(), f.env);
+            }
+            return;
+        case 2:
+            f.pc = 3;
+            enter(d.entry(f.arg).value(), f.env);
+            return;
+        default: {
+            Object value = pop();
+            Object key = pop();
+            ((DictValue)values[sp - 1]).put(key, value, d.entry(f.arg));
+            f.arg++;
+            f.pc = 1;
+        }
+        }
+    }
+}
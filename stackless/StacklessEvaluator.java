@@ -0,0 +1,94 @@
+package stackless;
+
+import java.util.List;
+import javassist.gluonj.*;
+import stone.ast.*;
+import chap6.Environment;
+import chap6.BasicEvaluator.BlockEx;
+import chap6.BasicEvaluator.IfEx;
+import chap6.BasicEvaluator.NegativeEx;
+import chap6.BasicEvaluator.WhileEx;
+import chap7.InlineCache;
+import chap7.FuncEvaluator.PrimaryEx;
+import chap8.NativeEvaluator.NativeArgEx;
+import chap10.DictEvaluator;
+import chap10.DictEvaluator.DictLiteralEx;
+import chap10.ArrayEvaluator.AssignEx;
+
+/*
+ * 不占用 Java 栈的求值方式.
+ * 含有子表达式的节点的 eval 都交给 Machine, Machine 用堆上的帧栈代替 Java
+ * 的递归, 因此 Stone 的递归深度只受 Machine.maxFrames (内存预算) 限制.
+ * 叶子节点 (名字, 字面量, def) 的 eval 不变.
+ */
+@Require(DictEvaluator.class)
+@Reviser public class StacklessEvaluator {
+    @Reviser
+    public static class HeapBlockEx extends BlockEx {
+        public HeapBlockEx(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) { return Machine.run(this, env); }
+    }
+
+    @Reviser
+    public static class HeapIfEx extends IfEx {
+        public HeapIfEx(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) { return Machine.run(this, env); }
+    }
+
+    @Reviser
+    public static class HeapWhileEx extends WhileEx {
+        public HeapWhileEx(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) { return Machine.run(this, env); }
+    }
+
+    @Reviser
+    public static class HeapNegativeEx extends NegativeEx {
+        public HeapNegativeEx(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) { return Machine.run(this, env); }
+    }
+
+    @Reviser
+    public static class HeapPrimaryEx extends PrimaryEx {
+        public HeapPrimaryEx(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) { return Machine.run(this, env); }
+    }
+
+    @Reviser
+    public static class HeapDictEx extends DictLiteralEx {
+        public HeapDictEx(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) { return Machine.run(this, env); }
+    }
+
+    @Reviser
+    public static class HeapBinaryEx extends AssignEx {
+        public HeapBinaryEx(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) { return Machine.run(this, env); }
+
+        /* Machine 求出两侧的值之后调用 */
+        public Object operate(Object left, Object right) {
+            return computeOp(left, operator(), right);
+        }
+
+        /* 左侧不是数组元素时的赋值 */
+        public Object assign(Environment env, Object rvalue) {
+            return computeAssign(env, rvalue);
+        }
+    }
+
+    @Reviser
+    public static class HeapArgEx extends NativeArgEx {
+        public HeapArgEx(List<ASTree> c) { super(c); }
+
+        /* 被调函数的参数名, 与 ArgumentsEx.eval 共用内联缓存 */
+        public String[] bind(Object value) {
+            if (cache == null)
+                cache = new InlineCache();
+
+            String[] names = cache.lookup(value);
+            if (names == null)
+                names = cache.miss(value, size(), this);
+
+            return names;
+        }
+    }
+}
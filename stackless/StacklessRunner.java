@@ -0,0 +1,19 @@
+package stackless;
+
+import java.util.Arrays;
+import javassist.gluonj.util.Loader;
+import batch.BatchInterpreter;
+
+/*
+ * 用法: StacklessRunner [-stack size] BatchInterpreter 的参数...
+ * size 是帧栈的内存预算, 例如 64m, 也可以用 -Dstone.stack 指定.
+ */
+public class StacklessRunner {
+    public static void main(String[] args) throws Throwable {
+        if (args.length >= 2 && args[0].equals("-stack")) {
+            System.setProperty("stone.stack", args[1]);
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        Loader.run(BatchInterpreter.class, args, StacklessEvaluator.class);
+    }
+}
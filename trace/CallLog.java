@@ -0,0 +1,75 @@
+package trace;
+
+import java.io.PrintStream;
+import java.util.IdentityHashMap;
+import stone.ast.ASTree;
+import stone.ast.DefStmnt;
+import chap7.Function;
+import chap8.NativeFunction;
+
+/*
+ * 把函数调用, 返回, 变量赋值和异常按调用的深度缩进输出.
+ * 函数名从 def 的执行 (DefStmnt 的 EXIT 事件) 中得到.
+ */
+public class CallLog extends TraceAdapter {
+    protected PrintStream out;
+    protected int level;
+    protected IdentityHashMap<ASTree,String> names
+        = new IdentityHashMap<ASTree,String>();
+
+    public CallLog(PrintStream out) { this.out = out; }
+
+    public void nodeExit(TraceEvent e) {
+        if (e.node() instanceof DefStmnt) {
+            DefStmnt def = (DefStmnt)e.node();
+            Object f = e.environment().get(def.name());
+            if (f instanceof Function)
+                names.put(((Function)f).body(), def.name());
+        }
+    }
+
+    public void functionCall(TraceEvent e) {
+        line().append("call ").append(name(e.function()));
+        out.println(line);
+        level++;
+    }
+
+    public void functionReturn(TraceEvent e) {
+        level--;
+        line().append("return ").append(name(e.function())).append(" => ")
+              .append(e.value());
+        out.println(line);
+    }
+
+    public void variableWrite(TraceEvent e) {
+        line().append(e.name()).append(" = ").append(e.value());
+        out.println(line);
+    }
+
+    public void exception(TraceEvent e) {
+        line().append("exception ").append(e.exception().getMessage());
+        out.println(line);
+    }
+
+    private StringBuilder line = new StringBuilder();
+
+    protected StringBuilder line() {
+        line.setLength(0);
+        for (int i = 0; i < level; i++)
+            line.append("  ");
+
+        return line;
+    }
+
+    protected String name(Object f) {
+        if (f instanceof NativeFunction)
+            return ((NativeFunction)f).name();
+        else if (f instanceof Function) {
+            ASTree body = ((Function)f).body();
+            String n = names.get(body);
+            return n == null ? "<fun " + body.location() + ">" : n;
+        }
+        else
+            return String.valueOf(f);
+    }
+}
@@ -0,0 +1,40 @@
+package trace;
+
+import java.util.Arrays;
+
+/* 每一行上有节点被求值的次数. 只用于单线程 */
+public class Coverage extends TraceAdapter {
+    protected long[] counts = new long[64];
+
+    public void nodeEnter(TraceEvent e) {
+        int line = e.node().lineNumber();
+        if (line >= counts.length)
+            counts = Arrays.copyOf(counts, Math.max(line + 1, counts.length * 2));
+
+        counts[line]++;
+    }
+
+    public long count(int line) {
+        return line < counts.length ? counts[line] : 0;
+    }
+
+    /* source 的每一行前面加上执行的次数, 没有执行的代码行标上 #####.
+     只有括号和 else 的行不算代码行 */
+    public String annotate(String source) {
+        StringBuilder sb = new StringBuilder();
+        String[] lines = source.split("\n", -1);
+        for (int i = 0; i < lines.length; i++) {
+            long n = count(i + 1);
+            String text = lines[i];
+            if (n > 0)
+                sb.append(String.format("%9d: ", n));
+            else if (text.replaceAll("[{}\\s]|else", "").length() == 0)
+                sb.append("         : ");
+            else
+                sb.append("    #####: ");
+
+            sb.append(text).append('\n');
+        }
+        return sb.toString();
+    }
+}
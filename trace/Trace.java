@@ -0,0 +1,184 @@
+package trace;
+
+import stone.ast.ASTree;
+import chap6.Environment;
+
+/*
+ * 求值事件的分发.
+ *
+ * TraceEvaluator 没有织入时没有任何钩子. 织入后, 没有监听器时每个钩子只读
+ * 一次 listeners 并与 null 比较. 有监听器时每个线程使用同一个 TraceEvent,
+ * 通知时不分配对象.
+ *
+ * listeners 是 copy-on-write 的数组, 通知中也可以 add/remove.
+ */
+public class Trace {
+    static volatile TraceListener[] listeners;
+
+    private static final ThreadLocal<TraceEvent> events
+        = new ThreadLocal<TraceEvent>();
+
+    /* TraceEvaluator 修改的节点. untraced 是没有钩子的 eval */
+    public interface Node {
+        Object untraced(Environment env, Object value);
+    }
+
+    public static boolean isActive() { return listeners != null; }
+
+    public static synchronized void add(TraceListener l) {
+        TraceListener[] ls = listeners;
+        int n = ls == null ? 0 : ls.length;
+        TraceListener[] r = new TraceListener[n + 1];
+        if (n > 0)
+            System.arraycopy(ls, 0, r, 0, n);
+
+        r[n] = l;
+        listeners = r;
+    }
+
+    public static synchronized void remove(TraceListener l) {
+        TraceListener[] ls = listeners;
+        if (ls == null)
+            return;
+
+        for (int i = 0; i < ls.length; i++)
+            if (ls[i] == l) {
+                if (ls.length == 1)
+                    listeners = null;
+                else {
+                    TraceListener[] r = new TraceListener[ls.length - 1];
+                    System.arraycopy(ls, 0, r, 0, i);
+                    System.arraycopy(ls, i + 1, r, i, r.length - i);
+                    listeners = r;
+                }
+                return;
+            }
+    }
+
+    static TraceEvent event() {
+        TraceEvent e = events.get();
+        if (e == null) {
+            e = new TraceEvent();
+            events.set(e);
+        }
+        return e;
+    }
+
+    /* 节点 t 的求值. 前后通知 ENTER 和 EXIT, 出错时通知 EXCEPTION */
+    static Object eval(Node t, Environment env, Object value) {
+        ASTree tree = (ASTree)t;
+        enter(tree, env);
+        Object r = null;
+        try {
+            r = t.untraced(env, value);
+            return r;
+        } catch (RuntimeException e) {
+            exception(tree, env, e);
+            throw e;
+        } finally {
+            exit(tree, env, r);
+        }
+    }
+
+    public static void enter(ASTree t, Environment env) {
+        TraceListener[] ls = listeners;
+        if (ls == null)
+            return;
+
+        TraceEvent e = event();
+        e.depth++;
+        e.set(TraceEvent.ENTER, t, env);
+        for (TraceListener l: ls)
+            l.nodeEnter(e);
+    }
+
+    public static void exit(ASTree t, Environment env, Object result) {
+        TraceListener[] ls = listeners;
+        if (ls == null)
+            return;
+
+        TraceEvent e = event();
+        e.set(TraceEvent.EXIT, t, env);
+        e.value = result;
+        for (TraceListener l: ls)
+            l.nodeExit(e);
+
+        e.depth--;
+    }
+
+    public static void call(ASTree t, Environment env, Object func) {
+        TraceListener[] ls = listeners;
+        if (ls == null)
+            return;
+
+        TraceEvent e = event();
+        e.set(TraceEvent.CALL, t, env);
+        e.function = func;
+        for (TraceListener l: ls)
+            l.functionCall(e);
+    }
+
+    public static void ret(ASTree t, Environment env, Object func,
+                           Object result)
+    {
+        TraceListener[] ls = listeners;
+        if (ls == null)
+            return;
+
+        TraceEvent e = event();
+        e.set(TraceEvent.RETURN, t, env);
+        e.function = func;
+        e.value = result;
+        for (TraceListener l: ls)
+            l.functionReturn(e);
+    }
+
+    public static void read(ASTree t, Environment env, String name,
+                            Object value)
+    {
+        TraceListener[] ls = listeners;
+        if (ls == null)
+            return;
+
+        TraceEvent e = event();
+        e.set(TraceEvent.READ, t, env);
+        e.name = name;
+        e.value = value;
+        for (TraceListener l: ls)
+            l.variableRead(e);
+    }
+
+    public static void write(ASTree t, Environment env, String name,
+                             Object value)
+    {
+        TraceListener[] ls = listeners;
+        if (ls == null)
+            return;
+
+        TraceEvent e = event();
+        e.set(TraceEvent.WRITE, t, env);
+        e.name = name;
+        e.value = value;
+        for (TraceListener l: ls)
+            l.variableWrite(e);
+    }
+
+    /* 异常穿过外层的节点时不再通知, 只在最内层通知一次 */
+    public static void exception(ASTree t, Environment env,
+                                 RuntimeException ex)
+    {
+        TraceListener[] ls = listeners;
+        if (ls == null)
+            return;
+
+        TraceEvent e = event();
+        if (e.reported == ex)
+            return;
+
+        e.reported = ex;
+        e.set(TraceEvent.EXCEPTION, t, env);
+        e.exception = ex;
+        for (TraceListener l: ls)
+            l.exception(e);
+    }
+}
@@ -0,0 +1,12 @@
+package trace;
+
+/* 只需要部分事件的监听器继承这个类 */
+public class TraceAdapter implements TraceListener {
+    public void nodeEnter(TraceEvent e) {}
+    public void nodeExit(TraceEvent e) {}
+    public void functionCall(TraceEvent e) {}
+    public void functionReturn(TraceEvent e) {}
+    public void variableRead(TraceEvent e) {}
+    public void variableWrite(TraceEvent e) {}
+    public void exception(TraceEvent e) {}
+}
@@ -0,0 +1,245 @@
+package trace;
+
+import java.util.List;
+import javassist.gluonj.*;
+import stone.Token;
+import stone.ast.*;
+import chap6.Environment;
+import chap6.BasicEvaluator.*;
+import chap7.FuncEvaluator.DefStmntEx;
+import chap7.FuncEvaluator.PrimaryEx;
+import chap8.NativeEvaluator.NativeArgEx;
+import chap10.ArrayEvaluator.ArrayRefEx;
+import chap10.ArrayEvaluator.AssignEx;
+import chap10.DictEvaluator;
+import chap10.DictEvaluator.DictLiteralEx;
+
+/*
+ * 在各个节点的 eval 上插入 Trace 的钩子. 有监听器时 eval 交给 Trace.eval,
+ * 它在 untraced (原来的 eval) 前后通知.
+ * 变量的读取在 Name, 赋值在 BinaryExpr 的 computeAssign 和 def 中通知.
+ * 尾调用不单独通知 CALL/RETURN, 它的执行算在发起调用的那一层.
+ * 与 prof.ProfEvaluator, metrics.MetricsEvaluator 修改的是同样的类,
+ * 不能同时织入.
+ */
+@Require(DictEvaluator.class)
+@Reviser public class TraceEvaluator {
+    @Reviser
+    public static class NumberTr extends NumberEx implements Trace.Node {
+        public NumberTr(Token t) { super(t); }
+        public Object eval(Environment env) {
+            if (Trace.listeners == null)
+                return super.eval(env);
+            else
+                return Trace.eval(this, env, null);
+        }
+
+        public Object untraced(Environment env, Object value) {
+            return super.eval(env);
+        }
+    }
+
+    @Reviser
+    public static class StringTr extends StringEx implements Trace.Node {
+        public StringTr(Token t) { super(t); }
+        public Object eval(Environment env) {
+            if (Trace.listeners == null)
+                return super.eval(env);
+            else
+                return Trace.eval(this, env, null);
+        }
+
+        public Object untraced(Environment env, Object value) {
+            return super.eval(env);
+        }
+    }
+
+    @Reviser
+    public static class NameTr extends NameEx implements Trace.Node {
+        public NameTr(Token t) { super(t); }
+        public Object eval(Environment env) {
+            if (Trace.listeners == null)
+                return super.eval(env);
+            else
+                return Trace.eval(this, env, null);
+        }
+
+        public Object untraced(Environment env, Object value) {
+            Object r = super.eval(env);
+            Trace.read(this, env, name(), r);
+            return r;
+        }
+    }
+
+    @Reviser
+    public static class NegativeTr extends NegativeEx implements Trace.Node {
+        public NegativeTr(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) {
+            if (Trace.listeners == null)
+                return super.eval(env);
+            else
+                return Trace.eval(this, env, null);
+        }
+
+        public Object untraced(Environment env, Object value) {
+            return super.eval(env);
+        }
+    }
+
+    @Reviser
+    public static class BinaryTr extends AssignEx implements Trace.Node {
+        public BinaryTr(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) {
+            if (Trace.listeners == null)
+                return super.eval(env);
+            else
+                return Trace.eval(this, env, null);
+        }
+
+        public Object untraced(Environment env, Object value) {
+            return super.eval(env);
+        }
+
+        protected Object computeAssign(Environment env, Object rvalue) {
+            Object r = super.computeAssign(env, rvalue);
+            if (Trace.listeners != null && left() instanceof Name)
+                Trace.write(this, env, ((Name)left()).name(), rvalue);
+
+            return r;
+        }
+    }
+
+    @Reviser
+    public static class PrimaryTr extends PrimaryEx implements Trace.Node {
+        public PrimaryTr(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) {
+            if (Trace.listeners == null)
+                return super.eval(env);
+            else
+                return Trace.eval(this, env, null);
+        }
+
+        public Object untraced(Environment env, Object value) {
+            return super.eval(env);
+        }
+    }
+
+    @Reviser
+    public static class ArgumentsTr extends NativeArgEx implements Trace.Node {
+        public ArgumentsTr(List<ASTree> c) { super(c); }
+        public Object eval(Environment callerEnv, Object value) {
+            if (Trace.listeners == null)
+                return super.eval(callerEnv, value);
+            else
+                return Trace.eval(this, callerEnv, value);
+        }
+
+        public Object untraced(Environment callerEnv, Object value) {
+            if (tail)
+                return super.eval(callerEnv, value);
+
+            Trace.call(this, callerEnv, value);
+            Object r = null;
+            try {
+                r = super.eval(callerEnv, value);
+                return r;
+            } finally {
+                Trace.ret(this, callerEnv, value, r);
+            }
+        }
+    }
+
+    @Reviser
+    public static class ArrayRefTr extends ArrayRefEx implements Trace.Node {
+        public ArrayRefTr(List<ASTree> c) { super(c); }
+        public Object eval(Environment env, Object value) {
+            if (Trace.listeners == null)
+                return super.eval(env, value);
+            else
+                return Trace.eval(this, env, value);
+        }
+
+        public Object untraced(Environment env, Object value) {
+            return super.eval(env, value);
+        }
+    }
+
+    @Reviser
+    public static class BlockTr extends BlockEx implements Trace.Node {
+        public BlockTr(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) {
+            if (Trace.listeners == null)
+                return super.eval(env);
+            else
+                return Trace.eval(this, env, null);
+        }
+
+        public Object untraced(Environment env, Object value) {
+            return super.eval(env);
+        }
+    }
+
+    @Reviser
+    public static class IfTr extends IfEx implements Trace.Node {
+        public IfTr(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) {
+            if (Trace.listeners == null)
+                return super.eval(env);
+            else
+                return Trace.eval(this, env, null);
+        }
+
+        public Object untraced(Environment env, Object value) {
+            return super.eval(env);
+        }
+    }
+
+    @Reviser
+    public static class WhileTr extends WhileEx implements Trace.Node {
+        public WhileTr(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) {
+            if (Trace.listeners == null)
+                return super.eval(env);
+            else
+                return Trace.eval(this, env, null);
+        }
+
+        public Object untraced(Environment env, Object value) {
+            return super.eval(env);
+        }
+    }
+
+    @Reviser
+    public static class DefStmntTr extends DefStmntEx implements Trace.Node {
+        public DefStmntTr(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) {
+            if (Trace.listeners == null)
+                return super.eval(env);
+            else
+                return Trace.eval(this, env, null);
+        }
+
+        public Object untraced(Environment env, Object value) {
+            Object r = super.eval(env);
+            Trace.write(this, env, name(), env.get(name()));
+            return r;
+        }
+    }
+
+    @Reviser
+    public static class DictLiteralTr extends DictLiteralEx
+        implements Trace.Node
+    {
+        public DictLiteralTr(List<ASTree> c) { super(c); }
+        public Object eval(Environment env) {
+            if (Trace.listeners == null)
+                return super.eval(env);
+            else
+                return Trace.eval(this, env, null);
+        }
+
+        public Object untraced(Environment env, Object value) {
+            return super.eval(env);
+        }
+    }
+}
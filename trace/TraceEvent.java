@@ -0,0 +1,49 @@
+package trace;
+
+import stone.ast.ASTree;
+import chap6.Environment;
+
+/*
+ * 每个线程一个, 每次通知前改写各字段. 不属于该事件的字段为 null.
+ * depth 是当前线程中正在求值的节点的嵌套深度.
+ */
+public class TraceEvent {
+    public static final int ENTER = 0, EXIT = 1, CALL = 2, RETURN = 3,
+                            READ = 4, WRITE = 5, EXCEPTION = 6;
+
+    int kind;
+    ASTree node;
+    Environment env;
+    String name;
+    Object value;
+    Object function;
+    RuntimeException exception;
+    int depth;
+    RuntimeException reported;
+
+    public int kind() { return kind; }
+    public ASTree node() { return node; }
+    public Environment environment() { return env; }
+
+    /* READ, WRITE 时是变量名 */
+    public String name() { return name; }
+
+    /* EXIT, RETURN 时是结果, READ, WRITE 时是变量的值 */
+    public Object value() { return value; }
+
+    /* CALL, RETURN 时是被调用的 Function 或 NativeFunction */
+    public Object function() { return function; }
+
+    public RuntimeException exception() { return exception; }
+    public int depth() { return depth; }
+
+    void set(int k, ASTree t, Environment e) {
+        kind = k;
+        node = t;
+        env = e;
+        name = null;
+        value = null;
+        function = null;
+        exception = null;
+    }
+}
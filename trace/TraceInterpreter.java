@@ -0,0 +1,58 @@
+package trace;
+
+import java.io.IOException;
+import stone.ParseException;
+import stone.Scripts;
+import stone.StoneException;
+import chap7.SymbolEnv;
+import chap10.DictNatives;
+
+/*
+ * 用法: TraceInterpreter [-log] [-coverage] script.st
+ *
+ * -log 把调用, 返回, 赋值和异常输出到 stderr.
+ * -coverage 执行后把每行的执行次数 (gcov 的格式) 输出到 stderr.
+ */
+public class TraceInterpreter {
+    public static void main(String[] args) throws ParseException, IOException {
+        CallLog log = null;
+        Coverage coverage = null;
+        int i = 0;
+        for (; i < args.length - 1; i++)
+            if (args[i].equals("-log"))
+                log = new CallLog(System.err);
+            else if (args[i].equals("-coverage"))
+                coverage = new Coverage();
+            else
+                break;
+
+        if (i != args.length - 1) {
+            System.err.println("usage: TraceInterpreter [-log] [-coverage] script.st");
+            return;
+        }
+
+        if (log != null)
+            Trace.add(log);
+
+        if (coverage != null)
+            Trace.add(coverage);
+
+        String source = Scripts.read(args[i]);
+        SymbolEnv env = new SymbolEnv();
+        new DictNatives().environment(env);
+        try {
+            Scripts.run(source, env, true);
+        } catch (StoneException e) {
+            System.err.println(e.getMessage());
+        } finally {
+            if (log != null)
+                Trace.remove(log);
+
+            if (coverage != null)
+                Trace.remove(coverage);
+        }
+
+        if (coverage != null)
+            System.err.print(coverage.annotate(source));
+    }
+}
@@ -0,0 +1,18 @@
+package trace;
+
+/*
+ * 求值事件的监听器. 参数 e 在各次通知之间重复使用, 监听器不能保存它,
+ * 需要时把其中的值复制出来.
+ *
+ * variableWrite 只在给变量赋值 (x = v) 和 def 时通知. 调用时参数的绑定,
+ * 数组和字典的元素的写入 (a[i] = v, d[k] = v) 不通知.
+ */
+public interface TraceListener {
+    void nodeEnter(TraceEvent e);
+    void nodeExit(TraceEvent e);
+    void functionCall(TraceEvent e);
+    void functionReturn(TraceEvent e);
+    void variableRead(TraceEvent e);
+    void variableWrite(TraceEvent e);
+    void exception(TraceEvent e);
+}
@@ -0,0 +1,9 @@
+package trace;
+
+import javassist.gluonj.util.Loader;
+
+public class TraceRunner {
+    public static void main(String[] args) throws Throwable {
+        Loader.run(TraceInterpreter.class, args, TraceEvaluator.class);
+    }
+}
@@ -0,0 +1,40 @@
+package weave;
+
+import java.io.IOException;
+import java.util.Arrays;
+import stone.*;
+import chap7.SymbolEnv;
+import chap10.DictNatives;
+
+/*
+ * 用法: Bench script.st iterations
+ *
+ * 在新的全局环境中执行 script.st iterations 次, 输出
+ *     first <第一次的纳秒数>
+ *     steady <后一半的中位数>
+ * WeaveBenchmark 在子进程中分别以 GluonJ (BenchRunner) 和预先修改好的类
+ * 执行它.
+ */
+public class Bench {
+    public static void main(String[] args) throws ParseException, IOException {
+        String source = Scripts.read(args[0]);
+        int n = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        long[] times = new long[n];
+        for (int i = 0; i < n; i++) {
+            long start = System.nanoTime();
+            run(source);
+            times[i] = System.nanoTime() - start;
+        }
+
+        long[] tail = Arrays.copyOfRange(times, n / 2, n);
+        Arrays.sort(tail);
+        System.out.println("first " + times[0]);
+        System.out.println("steady " + tail[tail.length / 2]);
+    }
+
+    static void run(String source) throws ParseException {
+        SymbolEnv env = new SymbolEnv();
+        new DictNatives().environment(env);
+        Scripts.run(source, env, false);
+    }
+}
@@ -0,0 +1,10 @@
+package weave;
+
+import javassist.gluonj.util.Loader;
+import chap10.DictEvaluator;
+
+public class BenchRunner {
+    public static void main(String[] args) throws Throwable {
+        Loader.run(Bench.class, args, DictEvaluator.class);
+    }
+}
@@ -0,0 +1,254 @@
+package weave;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.bytecode.ClassFile;
+import javassist.gluonj.weave.ReviserTree;
+import javassist.gluonj.weave.WeaveException;
+import javassist.gluonj.weave.Weaver;
+
+/*
+ * 用法: PreWeaver dest classes reviser ...
+ *
+ * 用 reviser (及其 @Require 的修改器) 修改 classes 目录下所有的 class 文件,
+ * 写到 dest. 之后不经过 javassist.gluonj.util.Loader, 直接
+ *     java -cp dest:gluonj.jar chap10.DictInterpreter
+ * 就能执行, 与 Loader.run(DictInterpreter.class, args, DictEvaluator.class)
+ * 的结果相同. 启动时不再需要在类加载时修改字节码, JIT 和 profiler 看到的也
+ * 是修改后的普通的类.
+ *
+ * 修改的方法与 Loader 相同 (Weaver.transform), 只是在构建时一次做完.
+ * 同一个类的修改器必须在一条 @Require 的链上, 所以 classes 中不相关的
+ * 修改器 (例如 jit.TieredEvaluator 与 prof.ProfEvaluator) 不会被使用,
+ * 只有 reviser 指定的链会生效.
+ *
+ * 这里的 javassist 读不了的类 (例如引用 swing 的 CodeDialog) 原样复制.
+ * 但 stone.ast 的类, 被修改器修改的类, 修改器本身以及引用它们的类必须
+ * 修改, 这些类修改失败时 PreWeaver 失败, 不输出没修改的类.
+ */
+public class PreWeaver {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("usage: PreWeaver dest classes reviser ...");
+            return;
+        }
+
+        String[] revisers = new String[args.length - 2];
+        System.arraycopy(args, 2, revisers, 0, revisers.length);
+        long start = System.nanoTime();
+        int n;
+        try {
+            n = weave(new File(args[1]), args[0], revisers);
+        } catch (WeaveException e) {
+            System.err.println("weave: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        System.err.println("weave: " + n + " classes in "
+                           + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    public static int weave(File classes, String dest, String[] revisers)
+        throws Exception
+    {
+        Weaver weaver = new Weaver(revisers, PreWeaver.class.getClassLoader(),
+                                   false);
+        weaver.setOutputDir(dest);
+        ClassPool pool = weaver.getClassPool();
+        pool.appendClassPath(classes.getPath());
+
+        ArrayList<String> names = new ArrayList<String>();
+        list(classes, "", names);
+        HashSet<String> revised = revised(pool, names);
+        for (String name: names) {
+            CtClass cc = pool.get(name);
+            try {
+                weaver.transform(cc);
+                cc.writeFile(dest);
+            } catch (RuntimeException e) {
+                String why = mustWeave(classes, name, revised);
+                if (why != null)
+                    throw new WeaveException("cannot weave " + name + " ("
+                                             + why + "): " + e.getMessage(), e);
+
+                /* 例如 CodeDialog 引用的 swing 的类, 这里的 javassist 读不了 */
+                System.err.println("weave: " + name + " copied unchanged: "
+                                   + e.getMessage());
+                copy(classes, name, dest);
+            }
+        }
+
+        weaver.writeHelpers();
+        return names.size();
+    }
+
+    /*
+     * classes 中的修改器 (@Reviser 的嵌套类) 和它们修改的类的内部名.
+     * 不只是 reviser 指定的链, 所有修改器的都算. 读不了的类跳过.
+     */
+    static HashSet<String> revised(ClassPool pool, ArrayList<String> names) {
+        HashSet<String> set = new HashSet<String>();
+        for (String name: names) {
+            if (name.indexOf('$') < 0)
+                continue;
+
+            try {
+                CtClass cc = pool.get(name);
+                if (ReviserTree.isReviser(cc)) {
+                    set.add(name.replace('.', '/'));
+                    /* 接口的修改器修改的是它继承的接口 */
+                    ClassFile cf = cc.getClassFile2();
+                    if (cf.isInterface())
+                        for (String i: cf.getInterfaces())
+                            set.add(i.replace('.', '/'));
+                    else
+                        set.add(cf.getSuperclass().replace('.', '/'));
+                }
+            } catch (Exception e) {}
+        }
+        return set;
+    }
+
+    /* name 必须修改时返回理由, 可以原样复制时返回 null */
+    static String mustWeave(File classes, String name, HashSet<String> revised)
+        throws IOException
+    {
+        if (name.startsWith("stone.ast."))
+            return "AST class";
+
+        String internal = name.replace('.', '/');
+        if (revised.contains(internal))
+            return "revised by a reviser";
+
+        /* 常量池中出现修改器或被修改的类的名字 (字符串常量除外) */
+        for (String u: names(classes, name)) {
+            if (u.indexOf("stone/ast/") >= 0)
+                return "refers to stone.ast";
+
+            for (String r: revised) {
+                int i = u.indexOf(r);
+                while (i >= 0) {
+                    int end = i + r.length();
+                    if (end == u.length() || !isNamePart(u.charAt(end)))
+                        return "refers to " + r.replace('/', '.');
+
+                    i = u.indexOf(r, end);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean isNamePart(char c) {
+        return c == '$' || Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    /*
+     * class 文件的常量池中的 Utf8 常量, 除去只作为 String 常量的值的.
+     * 类名和描述符 (descriptor) 都在其中. 这里的 javassist 读不了的类也能读.
+     */
+    static ArrayList<String> names(File classes, String name)
+        throws IOException
+    {
+        File f = new File(classes, name.replace('.', File.separatorChar)
+                                   + ".class");
+        DataInputStream in = new DataInputStream(
+                                new BufferedInputStream(new FileInputStream(f)));
+        try {
+            in.readInt();       // magic
+            in.readInt();       // minor_version, major_version
+            int n = in.readUnsignedShort();
+            String[] utf8 = new String[n];
+            boolean[] literal = new boolean[n];
+            int[] strings = new int[n];
+            int ns = 0;
+            for (int i = 1; i < n; i++) {
+                int tag = in.readUnsignedByte();
+                switch (tag) {
+                case 1:                         // Utf8
+                    utf8[i] = in.readUTF();
+                    break;
+                case 8:                         // String
+                    strings[ns++] = in.readUnsignedShort();
+                    break;
+                case 7: case 16: case 19: case 20:
+                    in.skipBytes(2);
+                    break;
+                case 15:
+                    in.skipBytes(3);
+                    break;
+                case 3: case 4: case 9: case 10: case 11: case 12: case 17:
+                case 18:
+                    in.skipBytes(4);
+                    break;
+                case 5: case 6:                 // 8 字节, 占两项
+                    in.skipBytes(8);
+                    i++;
+                    break;
+                default:
+                    throw new IOException("bad constant pool tag " + tag
+                                          + " in " + f);
+                }
+            }
+            for (int i = 0; i < ns; i++)
+                literal[strings[i]] = true;
+
+            ArrayList<String> list = new ArrayList<String>();
+            for (int i = 1; i < n; i++)
+                if (utf8[i] != null && !literal[i])
+                    list.add(utf8[i]);
+
+            return list;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void copy(File classes, String name, String dest)
+        throws IOException
+    {
+        String path = name.replace('.', File.separatorChar) + ".class";
+        File to = new File(dest, path);
+        to.getParentFile().mkdirs();
+        InputStream in = new FileInputStream(new File(classes, path));
+        try {
+            OutputStream out = new FileOutputStream(to);
+            try {
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) > 0)
+                    out.write(buf, 0, n);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void list(File dir, String pkg, ArrayList<String> names) {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+
+        for (File f: files) {
+            String n = f.getName();
+            if (f.isDirectory()) {
+                if (pkg.length() > 0 || !n.equals("javassist"))
+                    list(f, pkg + n + ".", names);
+            }
+            else if (n.endsWith(".class"))
+                names.add(pkg + n.substring(0, n.length() - 6));
+        }
+    }
+}
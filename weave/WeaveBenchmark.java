@@ -0,0 +1,115 @@
+package weave;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * 用法: WeaveBenchmark woven script.st [runs] [iterations]
+ *
+ * 比较 GluonJ 在类加载时修改 (BenchRunner) 与 PreWeaver 预先修改好的类
+ * (woven 目录) 的启动时间和稳定后的速度. 各自启动 runs 个子进程:
+ *   startup  子进程从启动到执行完一次 script.st 的时间 (中位数)
+ *   first    子进程中第一次执行的时间
+ *   steady   子进程中执行 iterations 次, 后一半的中位数
+ * 子进程的 JVM 选项与本进程相同.
+ */
+public class WeaveBenchmark {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: WeaveBenchmark woven script.st"
+                               + " [runs] [iterations]");
+            return;
+        }
+
+        String woven = args[0];
+        String script = args[1];
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int iterations = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+        String cp = System.getProperty("java.class.path");
+        String gluonj = gluonjJar(cp);
+        String wovenCp = woven + File.pathSeparator + gluonj;
+
+        System.out.println(String.format("%-10s %10s %10s %10s", "path",
+                                         "startup", "first", "steady"));
+        report("gluonj", cp, BenchRunner.class.getName(), script, runs,
+               iterations);
+        report("prewoven", wovenCp, Bench.class.getName(), script, runs,
+               iterations);
+    }
+
+    static void report(String label, String cp, String main, String script,
+                       int runs, int iterations)
+        throws IOException, InterruptedException
+    {
+        long[] startup = new long[runs];
+        long[] first = new long[runs];
+        long[] steady = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            long[] r = child(cp, main, script, 1);
+            startup[i] = System.nanoTime() - start;
+            first[i] = r[0];
+            steady[i] = child(cp, main, script, iterations)[1];
+        }
+
+        System.out.println(String.format("%-10s %8.1fms %8.1fms %8.2fms", label,
+                                         median(startup) / 1e6,
+                                         median(first) / 1e6,
+                                         median(steady) / 1e6));
+    }
+
+    /* 返回子进程输出的 first 和 steady */
+    static long[] child(String cp, String main, String script, int n)
+        throws IOException, InterruptedException
+    {
+        List<String> cmd = new ArrayList<String>();
+        cmd.add(System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java");
+        cmd.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        cmd.add("-cp");
+        cmd.add(cp);
+        cmd.add(main);
+        cmd.add(script);
+        cmd.add(Integer.toString(n));
+
+        Process p = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+        BufferedReader in = new BufferedReader(
+                                new InputStreamReader(p.getInputStream()));
+        long[] result = { -1, -1 };
+        StringBuilder output = new StringBuilder();
+        String line;
+        while ((line = in.readLine()) != null) {
+            output.append(line).append('\n');
+            if (line.startsWith("first "))
+                result[0] = Long.parseLong(line.substring(6));
+            else if (line.startsWith("steady "))
+                result[1] = Long.parseLong(line.substring(7));
+        }
+
+        if (p.waitFor() != 0 || result[1] < 0)
+            throw new IOException(main + " failed:\n" + output);
+
+        return result;
+    }
+
+    static String gluonjJar(String cp) {
+        for (String e: cp.split(File.pathSeparator))
+            if (e.endsWith("gluonj.jar"))
+                return e;
+
+        return "gluonj.jar";
+    }
+
+    static long median(long[] a) {
+        long[] s = a.clone();
+        Arrays.sort(s);
+        return s[s.length / 2];
+    }
+}